@@ -0,0 +1,52 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Laying out an 80 row invoice table, as printTable does
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class ColumnLayoutBenchmark {
+
+  @Param({"32", "48"})
+  public int lineChars;
+
+  private String[][] rows;
+  private ColumnLayout layout;
+  private final StringBuilder out = new StringBuilder(16 * 1024);
+
+  @Setup
+  public void setUp() {
+    rows = Fixtures.items(80);
+    layout = new ColumnLayout(new int[]{4, 1, 2, 2},
+      new int[]{EscPosBuilder.ALIGN_LEFT, EscPosBuilder.ALIGN_RIGHT, EscPosBuilder.ALIGN_RIGHT, EscPosBuilder.ALIGN_RIGHT},
+      new int[]{ColumnLayout.OVERFLOW_WRAP, ColumnLayout.OVERFLOW_TRUNCATE, ColumnLayout.OVERFLOW_ELLIPSIS,
+        ColumnLayout.OVERFLOW_ELLIPSIS}, 1);
+  }
+
+  @Benchmark
+  public int table() {
+    out.setLength(0);
+    for (String[] row : rows) {
+      layout.layoutRow(row, lineChars, out);
+    }
+    return out.length();
+  }
+}
@@ -0,0 +1,48 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding base64 image data URIs, against the JDK decoder on the stripped payload as a baseline
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class DataUriBenchmark {
+
+  @Param({"16384", "262144"})
+  public int bytes;
+
+  private String uri;
+
+  @Setup
+  public void setUp() {
+    uri = Fixtures.dataUri(bytes);
+  }
+
+  @Benchmark
+  public byte[] dataUri() {
+    return DataUri.decode(uri);
+  }
+
+  @Benchmark
+  public byte[] jdkBaseline() {
+    return Base64.getDecoder().decode(uri.substring(DataUri.payloadStart(uri)));
+  }
+}
@@ -0,0 +1,55 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Composing a whole 40 item receipt into one ESC/POS buffer, as printEscPos and printTemplate do
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class EscPosBenchmark {
+
+  private final EscPosBuilder builder = new EscPosBuilder();
+  private String[][] items;
+  private RasterImage logo;
+
+  @Setup
+  public void setUp() {
+    items = Fixtures.items(40);
+    logo = RasterImage.fromArgb(Fixtures.logo(256, 96), 256, 96, RasterImage.DITHER_THRESHOLD);
+  }
+
+  @Benchmark
+  public byte[] receipt() {
+    builder.reset().init();
+    builder.align(EscPosBuilder.ALIGN_CENTER).raster(logo);
+    builder.size(2, 2).line("CORNER GROCERY").size(1, 1);
+    builder.line("12 Market Street").line("Tel 555-0100").lineFeed();
+    builder.align(EscPosBuilder.ALIGN_LEFT);
+    for (String[] item : items) {
+      builder.line(item[0]);
+      builder.line("  " + item[1] + " x " + item[2] + "    " + item[3]);
+    }
+    builder.bold(true).line("TOTAL                    123.45").bold(false);
+    builder.align(EscPosBuilder.ALIGN_CENTER);
+    builder.barcode("4006381333931", 2, 80, 2, 2);
+    builder.qrCode("https://example.com/r/0001234567", 6, 1);
+    builder.feed(3).cut(true);
+    return builder.toByteArray();
+  }
+}
@@ -0,0 +1,91 @@
+package com.sunmiinbuiltprinter;
+
+import java.util.Random;
+
+/**
+ * Representative receipt content and images, generated from fixed seeds so every run measures the same input.
+ */
+final class Fixtures {
+
+  static final int PAPER_WIDTH = 384;
+
+  private static final String[] PRODUCTS = {
+    "Organic whole milk 1L", "Sourdough bread", "Free range eggs x12", "Bananas", "Greek yoghurt 500g",
+    "Cheddar cheese mature", "Tomatoes on the vine", "Olive oil extra virgin", "Basmati rice 2kg", "Dark chocolate 70%",
+    "有机全脂牛奶", "乌龙茶", "新鲜草莓", "Espresso beans 1kg", "Sparkling water 6x1.5L",
+  };
+
+  private Fixtures() {
+  }
+
+  /**
+   * Item rows of a grocery receipt: name, quantity, unit price, total
+   */
+  static String[][] items(int count) {
+    final Random random = new Random(42);
+    final String[][] rows = new String[count][];
+    for (int i = 0; i < count; ++i) {
+      final int quantity = 1 + random.nextInt(5);
+      final int cents = 49 + random.nextInt(2000);
+      rows[i] = new String[]{
+        PRODUCTS[random.nextInt(PRODUCTS.length)],
+        Integer.toString(quantity),
+        money(cents),
+        money(cents * quantity),
+      };
+    }
+    return rows;
+  }
+
+  static String money(int cents) {
+    return (cents / 100) + "." + (cents % 100 < 10 ? "0" : "") + (cents % 100);
+  }
+
+  /**
+   * A photo-like ARGB image: smooth gradients with noise
+   */
+  static int[] photo(int width, int height) {
+    final Random random = new Random(7);
+    final int[] argb = new int[width * height];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final double shade = 0.5 + 0.25 * Math.sin(x / 23.0) + 0.25 * Math.cos((x + y) / 41.0);
+        final int base = (int) (shade * 200) + random.nextInt(56);
+        final int r = Math.min(255, base);
+        final int g = Math.min(255, base * 9 / 10);
+        final int b = Math.min(255, base * 8 / 10);
+        argb[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+      }
+    }
+    return argb;
+  }
+
+  /**
+   * A logo-like ARGB image: flat shapes on a transparent background
+   */
+  static int[] logo(int width, int height) {
+    final int[] argb = new int[width * height];
+    final int cx = width / 2;
+    final int cy = height / 2;
+    final int radius = Math.min(width, height) / 3;
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int dx = x - cx;
+        final int dy = y - cy;
+        final boolean ring = Math.abs(dx * dx + dy * dy - radius * radius) < radius * 8;
+        final boolean bar = y > height - 24 && x > width / 8 && x < width * 7 / 8;
+        argb[y * width + x] = ring || bar ? 0xFF101010 : 0x00000000;
+      }
+    }
+    return argb;
+  }
+
+  /**
+   * A data URI as JS would send it, PNG-sized payload of pseudo random bytes
+   */
+  static String dataUri(int bytes) {
+    final byte[] data = new byte[bytes];
+    new Random(3).nextBytes(data);
+    return "data:image/png;base64," + java.util.Base64.getEncoder().encodeToString(data);
+  }
+}
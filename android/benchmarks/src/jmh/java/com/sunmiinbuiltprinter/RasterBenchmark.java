@@ -0,0 +1,53 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1-bit rasterization of a paper wide photo and its GS v 0 encoding
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class RasterBenchmark {
+
+  private static final int HEIGHT = 600;
+
+  @Param({"threshold", "ordered", "floydSteinberg"})
+  public String dither;
+
+  private int ditherMode;
+  private int[] photo;
+  private RasterImage image;
+
+  @Setup
+  public void setUp() {
+    ditherMode = RasterImage.parseDither(dither);
+    photo = Fixtures.photo(Fixtures.PAPER_WIDTH, HEIGHT);
+    image = RasterImage.fromArgb(photo, Fixtures.PAPER_WIDTH, HEIGHT, ditherMode);
+  }
+
+  @Benchmark
+  public RasterImage rasterize() {
+    return RasterImage.fromArgb(photo, Fixtures.PAPER_WIDTH, HEIGHT, ditherMode);
+  }
+
+  @Benchmark
+  public byte[] encodeEscPos() {
+    return image.toEscPos();
+  }
+}
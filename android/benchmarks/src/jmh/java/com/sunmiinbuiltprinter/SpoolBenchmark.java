@@ -0,0 +1,66 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal cost of one spooled job: the synced add and done records, with compaction as it happens.
+ * The numbers depend on the file system of the temp directory, on a device the flash sync dominates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class SpoolBenchmark {
+
+  @Param({"1024", "16384"})
+  public int bytes;
+
+  private File dir;
+  private PrintSpool spool;
+  private byte[] ticket;
+  private long next;
+
+  @Setup
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("spool-bench").toFile();
+    spool = new PrintSpool(new File(dir, "spool.journal"));
+    // a kitchen ticket's worth of ESC/POS, content does not matter to the journal
+    ticket = new byte[bytes];
+    new Random(4).nextBytes(ticket);
+  }
+
+  @TearDown
+  public void tearDown() {
+    spool.close();
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Benchmark
+  public void addAndDone() throws IOException {
+    final String key = "order-" + next++;
+    spool.add(key, ticket);
+    spool.done(key);
+  }
+}
@@ -0,0 +1,79 @@
+package com.sunmiinbuiltprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding receipt text to the printer code page, GB18030 or CP1252 for the latin text.
+ * getBytesLines is the String.getBytes encoding the builder used before TextEncoder, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@State(Scope.Thread)
+public class TextEncodingBenchmark {
+
+  @Param({"ascii", "cjk", "mixed", "latin"})
+  public String text;
+
+  private final EscPosBuilder builder = new EscPosBuilder();
+  private String[] lines;
+  private TextEncoder.Codepage codepage = TextEncoder.GB18030;
+  private Charset charset;
+
+  @Setup
+  public void setUp() {
+    final String[][] items = Fixtures.items(80);
+    lines = new String[items.length];
+    for (int i = 0; i < items.length; ++i) {
+      final String line = items[i][0] + " " + items[i][1] + " x " + items[i][2] + " = " + items[i][3];
+      switch (text) {
+        case "ascii":
+          lines[i] = line.replaceAll("[^\\x00-\\x7F]", "?");
+          break;
+        case "cjk":
+          lines[i] = "商品名称" + i + " 数量" + items[i][1] + " 单价" + items[i][2] + " 小计" + items[i][3];
+          break;
+        case "latin":
+          lines[i] = "Café crème brûlée " + i + " x " + items[i][2] + " = " + items[i][3] + " €";
+          codepage = TextEncoder.codepage("cp1252");
+          break;
+        default:
+          lines[i] = line;
+      }
+    }
+    charset = codepage.charset();
+  }
+
+  @Benchmark
+  public int encodeLines() {
+    builder.reset().codepage(codepage);
+    for (String line : lines) {
+      builder.line(line);
+    }
+    return builder.size();
+  }
+
+  @Benchmark
+  public int getBytesLines() {
+    builder.reset().raw(codepage.select);
+    for (String line : lines) {
+      builder.raw(line.getBytes(charset)).lineFeed();
+    }
+    return builder.size();
+  }
+}
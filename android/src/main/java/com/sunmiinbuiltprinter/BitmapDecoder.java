@@ -0,0 +1,146 @@
+package com.sunmiinbuiltprinter;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes images straight to the size they are printed at.
+ * The bounds are read first, the image is subsampled (inSampleSize) and scaled (inDensity) while decoding,
+ * so a large photo never exists in memory at full resolution. One released bitmap is kept and reused
+ * through inBitmap for the next decode, everything else is recycled as soon as it is no longer needed.
+ */
+class BitmapDecoder {
+
+  private Bitmap reusable;
+
+  /**
+   * Decode to the given width, keeping the aspect ratio
+   * @param data encoded image (png, jpeg, ...)
+   * @param width printer width in pixels, 384 for 58mm paper and 576 for 80mm paper
+   */
+  Bitmap decode(byte[] data, int width) {
+    return decode(data, width, 0);
+  }
+
+  /**
+   * Decode to the given size
+   * @param data encoded image (png, jpeg, ...)
+   * @param width
+   * @param height 0 to keep the aspect ratio
+   */
+  synchronized Bitmap decode(byte[] data, int width, int height) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be positive");
+    }
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    final int srcWidth = options.outWidth;
+    final int srcHeight = options.outHeight;
+    if (srcWidth <= 0 || srcHeight <= 0) {
+      throw new IllegalArgumentException("could not decode image");
+    }
+    if (height <= 0) {
+      height = Math.max(1, Math.round((float) srcHeight * width / srcWidth));
+    }
+
+    int sampleSize = 1;
+    while (srcWidth / (sampleSize * 2) >= width && srcHeight / (sampleSize * 2) >= height) {
+      sampleSize *= 2;
+    }
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize;
+    // jpeg has no alpha channel, 565 halves the memory of every decode
+    options.inPreferredConfig = "image/jpeg".equals(options.outMimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+    options.inMutable = true;
+    if (srcWidth / sampleSize > width) {
+      options.inScaled = true;
+      options.inDensity = srcWidth;
+      options.inTargetDensity = width * sampleSize;
+    }
+    final int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565 ? 2 : 4;
+    options.inBitmap = takeReusable(width * height * bytesPerPixel);
+
+    Bitmap decoded;
+    try {
+      decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    } catch (IllegalArgumentException e) {
+      // the reusable bitmap did not fit after all
+      recycle(options.inBitmap);
+      options.inBitmap = null;
+      decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+    if (decoded == null) {
+      throw new IllegalArgumentException("could not decode image");
+    }
+    if (decoded.getWidth() == width && decoded.getHeight() == height) {
+      return decoded;
+    }
+    final Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true);
+    if (scaled != decoded) {
+      release(decoded);
+    }
+    return scaled;
+  }
+
+  /**
+   * Dither a bitmap to a 1-bit raster image, reading it one row at a time
+   * @param bitmap
+   * @param dither one of the RasterImage.DITHER_ constants
+   */
+  static RasterImage toRaster(final Bitmap bitmap, int dither) {
+    final int width = bitmap.getWidth();
+    final RasterImage image = new RasterImage(width, bitmap.getHeight());
+    image.fill(new RasterImage.Rows() {
+      @Override
+      public void row(int y, int[] out) {
+        bitmap.getPixels(out, 0, width, 0, y, width, 1);
+      }
+    }, 0, image.height, dither);
+    return image;
+  }
+
+  /**
+   * Hand a bitmap back once it has been sent to the printer service
+   * Mutable bitmaps are copied into the binder parcel, so it is safe to reuse them right after the call returns.
+   */
+  synchronized void release(Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+    if (!bitmap.isMutable()) {
+      bitmap.recycle();
+      return;
+    }
+    if (reusable != null && reusable.getAllocationByteCount() >= bitmap.getAllocationByteCount()) {
+      bitmap.recycle();
+      return;
+    }
+    recycle(reusable);
+    reusable = bitmap;
+  }
+
+  /**
+   * Drop the reusable bitmap
+   */
+  synchronized void trim() {
+    recycle(reusable);
+    reusable = null;
+  }
+
+  private Bitmap takeReusable(int byteCount) {
+    if (reusable == null || reusable.getAllocationByteCount() < byteCount) {
+      return null;
+    }
+    final Bitmap bitmap = reusable;
+    reusable = null;
+    return bitmap;
+  }
+
+  private static void recycle(Bitmap bitmap) {
+    if (bitmap != null && !bitmap.isRecycled()) {
+      bitmap.recycle();
+    }
+  }
+}
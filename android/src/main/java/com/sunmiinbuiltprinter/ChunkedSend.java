@@ -0,0 +1,319 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.sunmi.peripheral.printer.InnerResultCallback;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw ESC/POS data sent to the printer in bounded chunks.
+ * The data is read from its source one chunk at a time, so memory use and the size of every binder transaction
+ * stay bounded no matter how long the receipt is. At most WINDOW chunks are in flight: the next one is only sent
+ * once the service acknowledged an earlier one. The promise settles with the last chunk, which is sent after all
+ * the others were acknowledged. A job replayed after a service restart resumes after the last acknowledged chunk.
+ * With flow control on, every chunk waits for it, and a chunk the service refuses because its buffer is full is sent
+ * again once the printer caught up instead of failing the job. Chunks then go one at a time, so nothing after a
+ * refused chunk was accepted when it is sent again. The paper a chunk advances is measured by one
+ * parser that follows the whole job, so commands and image data cut by a chunk boundary are counted once.
+ */
+final class ChunkedSend implements PrinterJob.Call {
+
+  private static final String TAG = "SunmiPrinter_Error";
+
+  static final String ERROR_CHUNK_TIMEOUT = "CHUNK_TIMEOUT";
+
+  static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+  static final int MIN_CHUNK_SIZE = 512;
+
+  /**
+   * well below the 1MB binder transaction buffer, which is shared by every transaction of the process
+   */
+  static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+  /**
+   * chunks sent but not acknowledged yet, 1 while flow control is on and a refused chunk is sent again
+   */
+  static final int WINDOW = 2;
+
+  static final long CHUNK_TIMEOUT_MS = 60000;
+
+  /**
+   * how often a job resumes after the printer refused a chunk with a transient error
+   */
+  static final int MAX_RESUMES = 5;
+
+  interface Source {
+    /**
+     * Open the data from its start, called again when the job is replayed
+     */
+    InputStream open() throws IOException;
+  }
+
+  private final Source source;
+  private final int chunkSize;
+  private final FlowControl flow;
+  private final PaperCounter paper = FlowControl.counter();
+
+  // bytes the service acknowledged over all attempts, a replay skips them
+  private long acknowledged;
+  // bytes measured by paper, a replay does not count them again
+  private long counted;
+  private Attempt current;
+
+  /**
+   * @param chunkSize bytes per sendRAWData call, 0 for DEFAULT_CHUNK_SIZE
+   * @param flow paces the chunks while it is enabled, null for none
+   */
+  ChunkedSend(Source source, int chunkSize, FlowControl flow) {
+    this.source = source;
+    this.chunkSize = chunkSize <= 0 ? DEFAULT_CHUNK_SIZE : Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+    this.flow = flow;
+  }
+
+  @Override
+  public void run(SunmiPrinterService service, PrinterJob job) throws RemoteException {
+    final FlowControl.Probe probe = flow == null ? null : new ServiceProbe(service);
+    for (int resumes = 0; ; ++resumes) {
+      final Attempt attempt = send(service, job, probe);
+      if (!attempt.throttled) {
+        return;
+      }
+      if (resumes == MAX_RESUMES) {
+        job.promise.reject(attempt.errorCode, attempt.errorMessage);
+        return;
+      }
+      Log.i(TAG, "ERROR: " + attempt.errorMessage + ", resuming after the last acknowledged chunk");
+    }
+  }
+
+  /**
+   * Send from the last acknowledged chunk on
+   * @return the attempt, throttled if it stopped on a transient error and the job should resume
+   */
+  private Attempt send(SunmiPrinterService service, PrinterJob job, FlowControl.Probe probe) throws RemoteException {
+    final Attempt attempt;
+    final long skip;
+    synchronized (this) {
+      attempt = current = new Attempt(flow != null && flow.enabled() ? 1 : WINDOW);
+      skip = acknowledged;
+    }
+    InputStream in = null;
+    try {
+      in = source.open();
+      skipFully(in, skip);
+      // two buffers: one being filled while the other one is handed to the service
+      byte[] chunk = new byte[chunkSize];
+      byte[] next = new byte[chunkSize];
+      // position of chunk in the data
+      long position = skip;
+      int length = readFully(in, chunk);
+      if (length == 0 && skip == 0) {
+        job.promise.reject("" + 0, "no data to send");
+        return attempt;
+      }
+      while (true) {
+        final int nextLength = length == chunk.length ? readFully(in, next) : 0;
+        if (nextLength == 0) {
+          // the last chunk settles the promise, once everything before it made it to the printer
+          if (!attempt.await(attempt.size, job) || !pace(service, job, probe)) {
+            return attempt;
+          }
+          service.sendRAWData(job.sent(paced(exact(chunk, length), position)), job.callback());
+          return attempt;
+        }
+        if (!attempt.await(1, job) || !pace(service, job, probe)) {
+          return attempt;
+        }
+        service.sendRAWData(job.sent(paced(chunk, position)), attempt.callback(length));
+        position += length;
+        final byte[] sent = chunk;
+        chunk = next;
+        next = sent;
+        length = nextLength;
+      }
+    } catch (IOException e) {
+      job.promise.reject("" + 0, "could not read data: " + e.getMessage());
+      return attempt;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (IOException ignored) {
+          // nothing was written
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for flow control and send the density and speed hints it asks for
+   * @return whether to go on sending
+   */
+  private boolean pace(SunmiPrinterService service, PrinterJob job, FlowControl.Probe probe) throws RemoteException {
+    if (flow == null) {
+      return true;
+    }
+    try {
+      if (!flow.await(probe)) {
+        job.promise.reject(FlowControl.ERROR_PAUSE_TIMEOUT, "printer did not recover from overheating or catch up within the flow control pause limit");
+        return false;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      job.promise.reject(PrintQueue.ERROR_SHUTDOWN, "interrupted while waiting for the printer");
+      return false;
+    }
+    final byte[] hints = flow.hints();
+    if (hints != null) {
+      service.sendRAWData(job.sent(hints), null);
+    }
+    return true;
+  }
+
+  /**
+   * Count the paper of the chunk at position towards the flow control backlog, except what an earlier attempt counted
+   */
+  private byte[] paced(byte[] chunk, long position) {
+    if (flow != null && position + chunk.length > counted) {
+      final int offset = (int) Math.max(0, counted - position);
+      final long dots = paper.add(chunk, offset, chunk.length - offset);
+      counted = position + chunk.length;
+      flow.sent(dots / FlowControl.DOTS_PER_MM);
+    }
+    return chunk;
+  }
+
+  private synchronized void chunkAcknowledged(Attempt attempt, int length) {
+    // acknowledgements of an attempt the service died under, or after a refused chunk, do not move the resume point
+    if (attempt == current && attempt.errorCode == null) {
+      acknowledged += length;
+    }
+  }
+
+  private static byte[] exact(byte[] chunk, int length) {
+    if (length == chunk.length) {
+      return chunk;
+    }
+    final byte[] out = new byte[length];
+    System.arraycopy(chunk, 0, out, 0, length);
+    return out;
+  }
+
+  /**
+   * @return bytes read, less than buffer.length only at the end of the data
+   */
+  private static int readFully(InputStream in, byte[] buffer) throws IOException {
+    int n = 0;
+    while (n < buffer.length) {
+      final int read = in.read(buffer, n, buffer.length - n);
+      if (read < 0) {
+        break;
+      }
+      n += read;
+    }
+    return n;
+  }
+
+  private static void skipFully(InputStream in, long count) throws IOException {
+    while (count > 0) {
+      final long skipped = in.skip(count);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new IOException("data is shorter than what was already sent");
+        }
+        --count;
+      } else {
+        count -= skipped;
+      }
+    }
+  }
+
+  /**
+   * Flow control state of one run of the job
+   */
+  private final class Attempt {
+    // chunks that may be in flight
+    final int size;
+    private final Semaphore window;
+    private volatile String errorCode;
+    private volatile String errorMessage;
+
+    // the printer refused a chunk with a transient error, the job resumes instead of failing
+    private volatile boolean throttled;
+
+    Attempt(int size) {
+      this.size = size;
+      window = new Semaphore(size);
+    }
+
+    /**
+     * Wait for permits window slots, rejecting the promise if a chunk failed, the wait timed out or the queue shut down
+     * @return whether to go on sending
+     */
+    boolean await(int permits, PrinterJob job) {
+      try {
+        if (!window.tryAcquire(permits, CHUNK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+          job.promise.reject(ERROR_CHUNK_TIMEOUT, "printer did not acknowledge a chunk within " + CHUNK_TIMEOUT_MS + "ms");
+          return false;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        job.promise.reject(PrintQueue.ERROR_SHUTDOWN, "interrupted while sending chunks");
+        return false;
+      }
+      if (errorCode != null) {
+        if (!throttled) {
+          job.promise.reject(errorCode, errorMessage);
+        }
+        return false;
+      }
+      return true;
+    }
+
+    InnerResultCallback callback(final int length) {
+      return new InnerResultCallback() {
+        @Override
+        public void onRunResult(boolean isSuccess) throws RemoteException {
+          if (isSuccess) {
+            chunkAcknowledged(Attempt.this, length);
+            window.release();
+          } else {
+            failed("" + 0, "chunk was not accepted by the printer", false);
+          }
+        }
+
+        @Override
+        public void onReturnString(String result) throws RemoteException {
+        }
+
+        @Override
+        public void onRaiseException(int code, String msg) throws RemoteException {
+          final boolean transientError = flow != null && flow.enabled() && FlowControl.isTransient(code);
+          if (transientError) {
+            flow.onRefused();
+          }
+          failed("" + code, msg, transientError);
+        }
+
+        @Override
+        public void onPrintResult(int code, String msg) throws RemoteException {
+        }
+      };
+    }
+
+    private synchronized void failed(String code, String message, boolean transientError) {
+      if (errorCode == null) {
+        throttled = transientError;
+        errorMessage = message;
+        errorCode = code;
+      }
+      window.release();
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package com.sunmiinbuiltprinter;
+
+/**
+ * Lays out table rows in monospaced printer characters.
+ * Column widths are weights sharing the line, like printColumnsString. Widths are measured in print columns:
+ * CJK and other wide characters take two, combining marks none. Cells that do not fit are wrapped onto more
+ * lines, cut, or cut with an ellipsis, per column.
+ */
+final class ColumnLayout {
+
+  static final int OVERFLOW_WRAP = 0;
+  static final int OVERFLOW_TRUNCATE = 1;
+  static final int OVERFLOW_ELLIPSIS = 2;
+
+  private static final String ELLIPSIS = "...";
+
+  private final int[] weights;
+  private final int[] aligns;
+  private final int[] overflows;
+  private final int gap;
+
+  // column widths in print columns for lineChars, recomputed when the line width changes
+  private int lineChars = -1;
+  private final int[] widths;
+
+  // scratch space reused for every row: the wrapped lines of each cell as offsets into the cell text
+  private int[][] lineStarts;
+  private int[][] lineEnds;
+  private final int[] lineCounts;
+
+  /**
+   * @param weights relative column widths
+   * @param aligns EscPosBuilder.ALIGN_LEFT, ALIGN_CENTER or ALIGN_RIGHT per column
+   * @param overflows OVERFLOW_WRAP, OVERFLOW_TRUNCATE or OVERFLOW_ELLIPSIS per column, null to wrap every column
+   * @param gap spaces between columns
+   */
+  ColumnLayout(int[] weights, int[] aligns, int[] overflows, int gap) {
+    if (weights.length == 0 || weights.length != aligns.length || (overflows != null && overflows.length != weights.length)) {
+      throw new IllegalArgumentException("widths and aligns must have the same, non zero length");
+    }
+    for (int weight : weights) {
+      if (weight < 0) {
+        throw new IllegalArgumentException("column widths must not be negative");
+      }
+    }
+    this.weights = weights;
+    this.aligns = aligns;
+    this.overflows = overflows != null ? overflows : new int[weights.length];
+    this.gap = Math.max(0, gap);
+    widths = new int[weights.length];
+    lineStarts = new int[weights.length][4];
+    lineEnds = new int[weights.length][4];
+    lineCounts = new int[weights.length];
+  }
+
+  static int parseOverflow(String overflow) {
+    if (overflow == null || "wrap".equals(overflow)) {
+      return OVERFLOW_WRAP;
+    }
+    if ("truncate".equals(overflow)) {
+      return OVERFLOW_TRUNCATE;
+    }
+    if ("ellipsis".equals(overflow)) {
+      return OVERFLOW_ELLIPSIS;
+    }
+    throw new IllegalArgumentException("unknown overflow '" + overflow + "'");
+  }
+
+  int columns() {
+    return weights.length;
+  }
+
+  /**
+   * Print columns taken by a code point on the printer
+   */
+  static int charWidth(int cp) {
+    if (cp < 0x20 || (cp >= 0x7F && cp < 0xA0)) {
+      return 0;
+    }
+    if (cp < 0x1100) {
+      // combining diacritical marks
+      return cp >= 0x0300 && cp <= 0x036F ? 0 : 1;
+    }
+    if (cp >= 0x200B && cp <= 0x200F) {
+      return 0;
+    }
+    if (cp <= 0x115F
+      || (cp >= 0x2E80 && cp <= 0xA4CF && cp != 0x303F)
+      || (cp >= 0xAC00 && cp <= 0xD7A3)
+      || (cp >= 0xF900 && cp <= 0xFAFF)
+      || (cp >= 0xFE30 && cp <= 0xFE4F)
+      || (cp >= 0xFF00 && cp <= 0xFF60)
+      || (cp >= 0xFFE0 && cp <= 0xFFE6)
+      || (cp >= 0x1F300 && cp <= 0x1F64F)
+      || (cp >= 0x20000 && cp <= 0x3FFFD)) {
+      return 2;
+    }
+    return 1;
+  }
+
+  static int displayWidth(CharSequence text, int from, int to) {
+    int width = 0;
+    for (int i = from; i < to; ) {
+      final int cp = Character.codePointAt(text, i);
+      width += charWidth(cp);
+      i += Character.charCount(cp);
+    }
+    return width;
+  }
+
+  /**
+   * Append one row, as many lines as its tallest cell needs, each ended with a line feed
+   * @param cells one text per column, null for an empty cell
+   * @param lineChars print columns per line
+   */
+  void layoutRow(String[] cells, int lineChars, StringBuilder out) {
+    if (cells.length != weights.length) {
+      throw new IllegalArgumentException("expected " + weights.length + " cells, got " + cells.length);
+    }
+    computeWidths(lineChars);
+    int rowLines = 1;
+    for (int c = 0; c < cells.length; ++c) {
+      breakCell(c, cells[c] == null ? "" : cells[c]);
+      rowLines = Math.max(rowLines, lineCounts[c]);
+    }
+    for (int line = 0; line < rowLines; ++line) {
+      // trailing blanks are not printed, so stop after the last column with content on this line
+      int last = cells.length - 1;
+      while (last > 0 && line >= lineCounts[last]) {
+        --last;
+      }
+      for (int c = 0; c <= last; ++c) {
+        if (c > 0) {
+          spaces(out, gap);
+        }
+        final String cell = cells[c] == null ? "" : cells[c];
+        if (line < lineCounts[c]) {
+          appendCell(out, cell, lineStarts[c][line], lineEnds[c][line], c, c == last && aligns[c] == EscPosBuilder.ALIGN_LEFT);
+        } else {
+          spaces(out, widths[c]);
+        }
+      }
+      out.append('\n');
+    }
+  }
+
+  private void computeWidths(int lineChars) {
+    if (lineChars == this.lineChars) {
+      return;
+    }
+    this.lineChars = lineChars;
+    final int available = Math.max(widths.length, lineChars - gap * (widths.length - 1));
+    long total = 0;
+    for (int weight : weights) {
+      total += weight;
+    }
+    int used = 0;
+    for (int c = 0; c < widths.length; ++c) {
+      if (c == widths.length - 1) {
+        widths[c] = Math.max(1, available - used);
+      } else {
+        widths[c] = Math.max(1, (int) (total == 0 ? available / widths.length : available * weights[c] / total));
+      }
+      used += widths[c];
+    }
+  }
+
+  private void breakCell(int c, String text) {
+    lineCounts[c] = 0;
+    final int width = widths[c];
+    int start = 0;
+    while (start <= text.length()) {
+      int newline = text.indexOf('\n', start);
+      if (newline < 0) {
+        newline = text.length();
+      }
+      if (overflows[c] != OVERFLOW_WRAP) {
+        addLine(c, start, newline);
+        return;
+      }
+      wrap(c, text, start, newline, width);
+      start = newline + 1;
+    }
+  }
+
+  /**
+   * Greedy word wrap of text[from, to), breaking after spaces or between wide characters, and inside words
+   * that are longer than the column
+   */
+  private void wrap(int c, String text, int from, int to, int width) {
+    if (from == to) {
+      addLine(c, from, to);
+      return;
+    }
+    int lineStart = from;
+    while (lineStart < to) {
+      int used = 0;
+      int i = lineStart;
+      int breakAt = -1;
+      while (i < to) {
+        final int cp = text.codePointAt(i);
+        final int w = charWidth(cp);
+        if (used + w > width) {
+          break;
+        }
+        used += w;
+        i += Character.charCount(cp);
+        if (cp == ' ' || w == 2) {
+          breakAt = i;
+        }
+      }
+      int lineEnd;
+      if (i >= to) {
+        lineEnd = to;
+      } else if (breakAt > lineStart && text.charAt(i) != ' ') {
+        lineEnd = breakAt;
+      } else {
+        lineEnd = Math.max(i, lineStart + Character.charCount(text.codePointAt(lineStart)));
+      }
+      int trimmed = lineEnd;
+      while (trimmed > lineStart && text.charAt(trimmed - 1) == ' ') {
+        --trimmed;
+      }
+      addLine(c, lineStart, trimmed);
+      lineStart = lineEnd;
+      while (lineStart < to && text.charAt(lineStart) == ' ') {
+        ++lineStart;
+      }
+    }
+  }
+
+  private void addLine(int c, int start, int end) {
+    final int n = lineCounts[c];
+    if (n == lineStarts[c].length) {
+      final int[] starts = new int[n * 2];
+      final int[] ends = new int[n * 2];
+      System.arraycopy(lineStarts[c], 0, starts, 0, n);
+      System.arraycopy(lineEnds[c], 0, ends, 0, n);
+      lineStarts[c] = starts;
+      lineEnds[c] = ends;
+    }
+    lineStarts[c][n] = start;
+    lineEnds[c][n] = end;
+    lineCounts[c] = n + 1;
+  }
+
+  private void appendCell(StringBuilder out, String text, int from, int to, int c, boolean skipTrailing) {
+    final int width = widths[c];
+    int textWidth = displayWidth(text, from, to);
+    boolean ellipsis = false;
+    if (textWidth > width) {
+      ellipsis = overflows[c] == OVERFLOW_ELLIPSIS && width > ELLIPSIS.length();
+      to = cut(text, from, to, ellipsis ? width - ELLIPSIS.length() : width);
+      textWidth = displayWidth(text, from, to) + (ellipsis ? ELLIPSIS.length() : 0);
+    }
+    final int space = width - textWidth;
+    final int before = aligns[c] == EscPosBuilder.ALIGN_RIGHT ? space : (aligns[c] == EscPosBuilder.ALIGN_CENTER ? space / 2 : 0);
+    spaces(out, before);
+    out.append(text, from, to);
+    if (ellipsis) {
+      out.append(ELLIPSIS);
+    }
+    if (!skipTrailing) {
+      spaces(out, space - before);
+    }
+  }
+
+  /**
+   * @return the end of the longest prefix of text[from, to) that fits in width
+   */
+  private static int cut(String text, int from, int to, int width) {
+    int used = 0;
+    int i = from;
+    while (i < to) {
+      final int cp = text.codePointAt(i);
+      final int w = charWidth(cp);
+      if (used + w > width) {
+        break;
+      }
+      used += w;
+      i += Character.charCount(cp);
+    }
+    return i;
+  }
+
+  private static void spaces(StringBuilder out, int count) {
+    for (int i = 0; i < count; ++i) {
+      out.append(' ');
+    }
+  }
+}
@@ -0,0 +1,197 @@
+package com.sunmiinbuiltprinter;
+
+import java.io.InputStream;
+
+/**
+ * Base64 decoding for plain base64 strings and data URIs (data:image/png;base64,....)
+ * Decodes straight out of the String, without copying the payload into a substring or byte array first,
+ * and allocates the output exactly once.
+ */
+final class DataUri {
+
+  private static final int[] DECODE = new int[128];
+
+  private static final int SKIP = -1;
+  private static final int INVALID = -2;
+
+  static {
+    for (int i = 0; i < DECODE.length; ++i) {
+      DECODE[i] = INVALID;
+    }
+    final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    for (int i = 0; i < alphabet.length(); ++i) {
+      DECODE[alphabet.charAt(i)] = i;
+    }
+    // url safe alphabet
+    DECODE['-'] = 62;
+    DECODE['_'] = 63;
+    DECODE[' '] = SKIP;
+    DECODE['\n'] = SKIP;
+    DECODE['\r'] = SKIP;
+    DECODE['\t'] = SKIP;
+    DECODE['='] = SKIP;
+  }
+
+  private DataUri() {
+  }
+
+  /**
+   * Index of the first base64 character, after the "data:...;base64," header if there is one
+   * @param encoded
+   */
+  static int payloadStart(String encoded) {
+    return encoded.indexOf(',') + 1;
+  }
+
+  static byte[] decode(String encoded) {
+    return decode(encoded, payloadStart(encoded), encoded.length());
+  }
+
+  /**
+   * Decode encoded[from, to)
+   * Whitespace and padding are ignored, anything else outside the base64 alphabets is an error.
+   */
+  static byte[] decode(String encoded, int from, int to) {
+    int symbols = 0;
+    for (int i = from; i < to; ++i) {
+      if (value(encoded.charAt(i)) >= 0) {
+        ++symbols;
+      }
+    }
+    final byte[] out = new byte[decodedLength(symbols)];
+    decodeInto(encoded, from, to, out, 0);
+    return out;
+  }
+
+  /**
+   * Number of bytes encoded by the given number of base64 symbols (padding excluded)
+   */
+  static int decodedLength(int symbols) {
+    if (symbols % 4 == 1) {
+      throw new IllegalArgumentException("bad base64 length");
+    }
+    return symbols / 4 * 3 + (symbols % 4 == 0 ? 0 : symbols % 4 - 1);
+  }
+
+  /**
+   * Decode encoded[from, to) into out starting at offset
+   * @return number of bytes written
+   */
+  static int decodeInto(String encoded, int from, int to, byte[] out, int offset) {
+    int pos = offset;
+    int bits = 0;
+    int count = 0;
+    for (int i = from; i < to; ++i) {
+      final int v = value(encoded.charAt(i));
+      if (v == SKIP) {
+        continue;
+      }
+      bits = (bits << 6) | v;
+      if (++count == 4) {
+        out[pos++] = (byte) (bits >> 16);
+        out[pos++] = (byte) (bits >> 8);
+        out[pos++] = (byte) bits;
+        bits = 0;
+        count = 0;
+      }
+    }
+    if (count == 3) {
+      out[pos++] = (byte) (bits >> 10);
+      out[pos++] = (byte) (bits >> 2);
+    } else if (count == 2) {
+      out[pos++] = (byte) (bits >> 4);
+    } else if (count == 1) {
+      throw new IllegalArgumentException("bad base64 length");
+    }
+    return pos - offset;
+  }
+
+  /**
+   * Decodes encoded[from, to) while it is read, so a large payload never exists as one byte array
+   */
+  static final class Stream extends InputStream {
+    private final String encoded;
+    private final int end;
+    private int position;
+
+    // decoded bytes of the current group of four symbols that were not read yet
+    private final byte[] group = new byte[3];
+    private int groupLength;
+    private int groupPosition;
+
+    Stream(String encoded) {
+      this(encoded, payloadStart(encoded), encoded.length());
+    }
+
+    Stream(String encoded, int from, int to) {
+      this.encoded = encoded;
+      this.position = from;
+      this.end = to;
+    }
+
+    @Override
+    public int read() {
+      if (groupPosition == groupLength && !nextGroup()) {
+        return -1;
+      }
+      return group[groupPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      int n = 0;
+      while (n < len) {
+        if (groupPosition == groupLength && !nextGroup()) {
+          break;
+        }
+        final int count = Math.min(len - n, groupLength - groupPosition);
+        System.arraycopy(group, groupPosition, b, off + n, count);
+        groupPosition += count;
+        n += count;
+      }
+      return n == 0 ? -1 : n;
+    }
+
+    private boolean nextGroup() {
+      int bits = 0;
+      int count = 0;
+      while (count < 4 && position < end) {
+        final int v = value(encoded.charAt(position++));
+        if (v != SKIP) {
+          bits = (bits << 6) | v;
+          ++count;
+        }
+      }
+      groupPosition = 0;
+      if (count == 4) {
+        group[0] = (byte) (bits >> 16);
+        group[1] = (byte) (bits >> 8);
+        group[2] = (byte) bits;
+        groupLength = 3;
+      } else if (count == 3) {
+        group[0] = (byte) (bits >> 10);
+        group[1] = (byte) (bits >> 2);
+        groupLength = 2;
+      } else if (count == 2) {
+        group[0] = (byte) (bits >> 4);
+        groupLength = 1;
+      } else if (count == 1) {
+        throw new IllegalArgumentException("bad base64 length");
+      } else {
+        groupLength = 0;
+      }
+      return groupLength > 0;
+    }
+  }
+
+  private static int value(char c) {
+    final int v = c < 128 ? DECODE[c] : INVALID;
+    if (v == INVALID) {
+      throw new IllegalArgumentException("bad base64 character '" + c + "'");
+    }
+    return v;
+  }
+}
@@ -15,26 +15,4 @@ public class ESCUtil {
   public static final byte FF = 0x0C;   // Paper feed control (print and return to standard mode (in page mode))
   public static final byte CAN = 0x18;  // Void (cancel print data in page mode)
 
-
-  /**
-   * bold font
-   */
-  public static byte[] boldOn() {
-    byte[] result = new byte[3];
-    result[0] = ESC;
-    result[1] = 69;
-    result[2] = 0xF;
-    return result;
-  }
-
-  /**
-   * cancel font bold
-   */
-  public static byte[] boldOff() {
-    byte[] result = new byte[3];
-    result[0] = ESC;
-    result[1] = 69;
-    result[2] = 0;
-    return result;
-  }
 }
@@ -0,0 +1,333 @@
+package com.sunmiinbuiltprinter;
+
+import java.nio.charset.Charset;
+
+/**
+ * ESC/POS command builder backed by one growable byte buffer.
+ * A whole receipt is composed into the buffer and sent with a single sendRAWData call;
+ * reset() keeps the buffer so the next receipt does not allocate it again.
+ */
+final class EscPosBuilder {
+
+  static final byte[] BOLD_ON = {ESCUtil.ESC, 'E', 1};
+  static final byte[] BOLD_OFF = {ESCUtil.ESC, 'E', 0};
+
+  static final int ALIGN_LEFT = 0;
+  static final int ALIGN_CENTER = 1;
+  static final int ALIGN_RIGHT = 2;
+
+  /**
+   * symbology of barcode(), GS k m = 73
+   */
+  static final int BARCODE_CODE128 = 8;
+
+  static final Charset DEFAULT_CHARSET = Charset.forName("GB18030");
+
+  /**
+   * characters per line at normal size on 58mm paper, 80mm paper fits 48
+   */
+  static final int DEFAULT_PAPER_CHARS = 32;
+
+  /**
+   * @param printerPaper getPrinterPaper() result, 1 for 58mm and 2 for 80mm
+   * @return characters per line at normal size
+   */
+  static int paperCharsFor(int printerPaper) {
+    return printerPaper == 2 ? 48 : DEFAULT_PAPER_CHARS;
+  }
+
+  private byte[] buf;
+  private int count;
+  private final TextEncoder encoder = new TextEncoder(DEFAULT_CHARSET);
+
+  // GS ! character size, width multiplier in the high nibble and height in the low nibble
+  private int charSize;
+
+  private int paperChars = DEFAULT_PAPER_CHARS;
+
+  EscPosBuilder() {
+    this(4096);
+  }
+
+  EscPosBuilder(int capacity) {
+    buf = new byte[capacity];
+  }
+
+  /**
+   * Forget the content but keep the buffer
+   */
+  EscPosBuilder reset() {
+    count = 0;
+    charSize = 0;
+    encoder.charset(DEFAULT_CHARSET);
+    return this;
+  }
+
+  int size() {
+    return count;
+  }
+
+  /**
+   * Characters per line at normal size, used to lay out columns
+   */
+  EscPosBuilder paperChars(int chars) {
+    paperChars = Math.max(1, chars);
+    return this;
+  }
+
+  /**
+   * Characters that fit on one line at the current character width
+   */
+  int lineChars() {
+    return Math.max(1, paperChars / ((charSize >> 4) + 1));
+  }
+
+  /**
+   * GS ! value currently in effect
+   */
+  int charSize() {
+    return charSize;
+  }
+
+  /**
+   * Record that bytes appended with raw() changed the character size
+   */
+  EscPosBuilder assumeCharSize(int charSize) {
+    this.charSize = charSize;
+    return this;
+  }
+
+  byte[] toByteArray() {
+    final byte[] out = new byte[count];
+    System.arraycopy(buf, 0, out, 0, count);
+    return out;
+  }
+
+  private void ensure(int extra) {
+    final int needed = count + extra;
+    if (needed > buf.length) {
+      final byte[] grown = new byte[Math.max(needed, buf.length * 2)];
+      System.arraycopy(buf, 0, grown, 0, count);
+      buf = grown;
+    }
+  }
+
+  EscPosBuilder write(int b) {
+    ensure(1);
+    buf[count++] = (byte) b;
+    return this;
+  }
+
+  private EscPosBuilder write(int b0, int b1, int b2) {
+    ensure(3);
+    buf[count++] = (byte) b0;
+    buf[count++] = (byte) b1;
+    buf[count++] = (byte) b2;
+    return this;
+  }
+
+  EscPosBuilder raw(byte[] data) {
+    return raw(data, 0, data.length);
+  }
+
+  EscPosBuilder raw(byte[] data, int offset, int length) {
+    ensure(length);
+    System.arraycopy(data, offset, buf, count, length);
+    count += length;
+    return this;
+  }
+
+  /**
+   * ESC @, reset the printer to its default settings
+   */
+  EscPosBuilder init() {
+    charSize = 0;
+    ensure(2);
+    buf[count++] = ESCUtil.ESC;
+    buf[count++] = '@';
+    return this;
+  }
+
+  /**
+   * Charset used to encode text, it has to match the code page selected on the printer
+   */
+  EscPosBuilder charset(Charset charset) {
+    encoder.charset(charset);
+    return this;
+  }
+
+  /**
+   * Select a code page on the printer and encode the following text with it
+   */
+  EscPosBuilder codepage(TextEncoder.Codepage codepage) {
+    encoder.charset(codepage.charset());
+    return raw(codepage.select);
+  }
+
+  /**
+   * Select GB18030 on the printer again if the text was last encoded with another code page, call at the end of
+   * a job so the next one finds the printer on its default code page
+   */
+  EscPosBuilder restoreCodepage() {
+    return DEFAULT_CHARSET.equals(encoder.charset()) ? this : codepage(TextEncoder.GB18030);
+  }
+
+  /**
+   * Charset the next text is encoded with
+   */
+  Charset charset() {
+    return encoder.charset();
+  }
+
+  EscPosBuilder text(String text) {
+    ensure(encoder.maxBytes(text.length()));
+    count = encoder.encode(text, buf, count);
+    return this;
+  }
+
+  EscPosBuilder line(String text) {
+    return text(text).write(ESCUtil.LF);
+  }
+
+  EscPosBuilder lineFeed() {
+    return write(ESCUtil.LF);
+  }
+
+  /**
+   * ESC d n, print the buffer and feed n lines
+   */
+  EscPosBuilder feed(int lines) {
+    return write(ESCUtil.ESC, 'd', clamp(lines, 0, 255));
+  }
+
+  /**
+   * ESC a n
+   * @param alignment ALIGN_LEFT, ALIGN_CENTER or ALIGN_RIGHT
+   */
+  EscPosBuilder align(int alignment) {
+    return write(ESCUtil.ESC, 'a', clamp(alignment, 0, 2));
+  }
+
+  /**
+   * GS ! n, character width and height multipliers 1..8
+   */
+  EscPosBuilder size(int width, int height) {
+    charSize = ((clamp(width, 1, 8) - 1) << 4) | (clamp(height, 1, 8) - 1);
+    return write(ESCUtil.GS, '!', charSize);
+  }
+
+  EscPosBuilder doubleWidth(boolean on) {
+    return size(on ? 2 : 1, (charSize & 0x0F) + 1);
+  }
+
+  EscPosBuilder doubleHeight(boolean on) {
+    return size((charSize >> 4) + 1, on ? 2 : 1);
+  }
+
+  /**
+   * ESC E n
+   */
+  EscPosBuilder bold(boolean on) {
+    return raw(on ? BOLD_ON : BOLD_OFF);
+  }
+
+  /**
+   * ESC - n
+   * @param thickness 0 off, 1 or 2 dots
+   */
+  EscPosBuilder underline(int thickness) {
+    return write(ESCUtil.ESC, '-', clamp(thickness, 0, 2));
+  }
+
+  /**
+   * GS B n, white on black
+   */
+  EscPosBuilder invert(boolean on) {
+    return write(ESCUtil.GS, 'B', on ? 1 : 0);
+  }
+
+  /**
+   * 1D barcode, GS k in the length prefixed form
+   * CODE128 data has to start with a code set, {A, {B or {C. Data without one is printed in code set B, the
+   * printable ASCII characters, with its { written as {{ so it is not read as a code set change.
+   * @param symbology 0 UPC-A, 1 UPC-E, 2 EAN13, 3 EAN8, 4 CODE39, 5 ITF, 6 CODABAR, 7 CODE93, 8 CODE128
+   * @param height dots, 1..255
+   * @param width module width, 2..6
+   * @param textPosition 0 none, 1 above, 2 below, 3 both
+   * @throws IllegalArgumentException if the data does not fit the 255 bytes of GS k
+   */
+  EscPosBuilder barcode(String data, int symbology, int height, int width, int textPosition) {
+    final int type = clamp(symbology, 0, 8);
+    byte[] bytes = data.getBytes(encoder.charset());
+    if (type == BARCODE_CODE128 && !hasCodeSet(bytes)) {
+      bytes = ("{B" + data.replace("{", "{{")).getBytes(encoder.charset());
+    }
+    if (bytes.length > 255) {
+      throw new IllegalArgumentException("barcode data is " + bytes.length + " bytes, GS k takes at most 255");
+    }
+    write(ESCUtil.GS, 'h', clamp(height, 1, 255));
+    write(ESCUtil.GS, 'w', clamp(width, 2, 6));
+    write(ESCUtil.GS, 'H', clamp(textPosition, 0, 3));
+    write(ESCUtil.GS, 'k', 65 + type);
+    write(bytes.length);
+    return raw(bytes);
+  }
+
+  private static boolean hasCodeSet(byte[] data) {
+    return data.length >= 2 && data[0] == '{' && (data[1] == 'A' || data[1] == 'B' || data[1] == 'C');
+  }
+
+  /**
+   * QR code, GS ( k: select model 2, module size, error correction, store and print
+   * @param moduleSize dots per module, 1..16
+   * @param errorLevel 0 L, 1 M, 2 Q, 3 H
+   */
+  EscPosBuilder qrCode(String data, int moduleSize, int errorLevel) {
+    final byte[] bytes = data.getBytes(encoder.charset());
+    raw(new byte[]{ESCUtil.GS, '(', 'k', 4, 0, '1', 'A', '2', 0});
+    raw(new byte[]{ESCUtil.GS, '(', 'k', 3, 0, '1', 'C', (byte) clamp(moduleSize, 1, 16)});
+    raw(new byte[]{ESCUtil.GS, '(', 'k', 3, 0, '1', 'E', (byte) ('0' + clamp(errorLevel, 0, 3))});
+    final int length = bytes.length + 3;
+    raw(new byte[]{ESCUtil.GS, '(', 'k', (byte) length, (byte) (length >> 8), '1', 'P', '0'});
+    raw(bytes);
+    return raw(new byte[]{ESCUtil.GS, '(', 'k', 3, 0, '1', 'Q', '0'});
+  }
+
+  /**
+   * GS v 0 raster bit image
+   */
+  EscPosBuilder raster(RasterImage image) {
+    ensure(image.escPosLength());
+    count = image.writeEscPos(buf, count);
+    return this;
+  }
+
+  /**
+   * GS V m
+   * @param partial leave a small uncut point
+   */
+  EscPosBuilder cut(boolean partial) {
+    ensure(3);
+    buf[count++] = ESCUtil.GS;
+    buf[count++] = 'V';
+    buf[count++] = (byte) (partial ? 1 : 0);
+    return this;
+  }
+
+  /**
+   * ESC p m t1 t2, pulse the cash drawer kick-out connector
+   */
+  EscPosBuilder drawerKick() {
+    ensure(5);
+    buf[count++] = ESCUtil.ESC;
+    buf[count++] = 'p';
+    buf[count++] = 0;
+    buf[count++] = 25;
+    buf[count++] = (byte) 250;
+    return this;
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return value < min ? min : (value > max ? max : value);
+  }
+}
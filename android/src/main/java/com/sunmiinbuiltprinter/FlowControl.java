@@ -0,0 +1,352 @@
+package com.sunmiinbuiltprinter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces raw data sent to the printer by what it has actually printed.
+ * Every chunk sent adds the paper it advances to an estimated backlog, the printed length reported by the printer
+ * takes it off again. Before the next chunk is sent, sending pauses while the printer is overheated or the backlog
+ * is above highWaterMm, and resumes on its own once the printer is back to normal and the backlog is below
+ * lowWaterMm. The printer is probed every pollIntervalMs while sending and while paused.
+ * After an overheat, optional density and speed commands are sent first so the rest of the report runs cooler.
+ * Data the service refuses because its buffer is full counts as a full backlog, so sending waits for the printer.
+ * Off until enabled, one instance is shared by every job of the print queue.
+ */
+final class FlowControl {
+
+  /**
+   * printer states as reported by updatePrinterState()
+   */
+  static final int STATE_NORMAL = 1;
+  static final int STATE_ERROR = 3;
+  static final int STATE_OUT_OF_PAPER = 4;
+  static final int STATE_OVERHEATED = 5;
+  static final int STATE_NO_PRINTER = 505;
+
+  static final String ERROR_PAUSE_TIMEOUT = "FLOW_PAUSE_TIMEOUT";
+
+  static final String REASON_OVERHEATED = "overheated";
+  static final String REASON_BUFFER_FULL = "bufferFull";
+
+  /**
+   * onRaiseException code of data the service could not queue, "add task failed (the buffer maybe full)"
+   */
+  static final int EXCEPTION_BUFFER_FULL = -3;
+
+  /**
+   * The printer as flow control sees it
+   */
+  interface Probe {
+    /**
+     * @return one of the STATE_ constants
+     */
+    int state() throws Exception;
+
+    /**
+     * @return paper printed since the printer started in millimetres, negative if the printer does not report it
+     */
+    double printedMm() throws Exception;
+  }
+
+  static final class Options {
+    boolean enabled;
+
+    /**
+     * pause while more paper than this is sent but not printed, about 5s at 70mm/s
+     */
+    double highWaterMm = 350;
+
+    double lowWaterMm = 100;
+
+    long pollIntervalMs = 250;
+
+    /**
+     * a job paused longer than this fails with ERROR_PAUSE_TIMEOUT
+     */
+    long maxPauseMs = 120000;
+
+    /**
+     * paper printed per second while the printer does not report its printed length
+     */
+    double paperSpeedMmPerSecond = 70;
+
+    /**
+     * printed length unchanged this long with the printer ready means its buffer ran empty
+     */
+    long idleMs = 1500;
+
+    /**
+     * GS ( K print density (1..8 on most heads) and print speed sent after an overheat, -1 to leave alone
+     */
+    int coolDensity = -1;
+    int coolSpeed = -1;
+
+    /**
+     * restored once no overheat happened for coolDownMs, -1 to leave alone
+     */
+    int normalDensity = -1;
+    int normalSpeed = -1;
+
+    long coolDownMs = 60000;
+  }
+
+  // paper advance of a line feed and the default barcode height in dots, at 8 dots per millimetre
+  static final int LINE_DOTS = 30;
+  static final int BARCODE_DOTS = 162;
+  static final double DOTS_PER_MM = 8;
+
+  private Options options = new Options();
+
+  private double backlogMm;
+  private double lastPrintedMm = -1;
+  private long printedChangedNanos;
+  private long lastProbeNanos;
+  private int state = STATE_NORMAL;
+
+  // the density and speed hints are in effect, since lastOverheatNanos
+  private boolean cooling;
+  private boolean hintsDue;
+  private long lastOverheatNanos;
+
+  private String pauseReason;
+  private long pauses;
+  private long pausedNanos;
+  private long timeouts;
+
+  synchronized void configure(Options options) {
+    if (options.lowWaterMm < 0 || options.highWaterMm < options.lowWaterMm) {
+      throw new IllegalArgumentException("expected 0 <= lowWaterMm <= highWaterMm");
+    }
+    if (options.pollIntervalMs < 1 || options.maxPauseMs < 1) {
+      throw new IllegalArgumentException("pollIntervalMs and maxPauseMs must be positive");
+    }
+    this.options = options;
+  }
+
+  synchronized boolean enabled() {
+    return options.enabled;
+  }
+
+  /**
+   * Count a whole job handed to the printer towards the backlog
+   */
+  void sent(byte[] data) {
+    sent(paperMm(data));
+  }
+
+  /**
+   * Count paper handed to the printer towards the backlog, measured chunk by chunk with the counter() of the job
+   */
+  synchronized void sent(double mm) {
+    if (options.enabled) {
+      backlogMm += mm;
+    }
+  }
+
+  /**
+   * A state from updatePrinterState or the status monitor
+   */
+  synchronized void onPrinterState(int printerState) {
+    state = printerState;
+    if (printerState == STATE_OVERHEATED) {
+      lastOverheatNanos = System.nanoTime();
+      if (!cooling && (options.coolDensity >= 0 || options.coolSpeed >= 0)) {
+        cooling = true;
+        hintsDue = true;
+      }
+    }
+  }
+
+  /**
+   * Whether data refused with this onRaiseException code can be sent again once the printer caught up
+   */
+  static boolean isTransient(int exceptionCode) {
+    return exceptionCode == EXCEPTION_BUFFER_FULL;
+  }
+
+  /**
+   * The service refused data with a transient exception: the next chunk waits until the printer printed
+   * highWaterMm - lowWaterMm of what it holds or went idle
+   */
+  synchronized void onRefused() {
+    if (options.enabled) {
+      backlogMm = Math.max(backlogMm, options.highWaterMm + 1);
+    }
+  }
+
+  /**
+   * Block until the next chunk may be sent, probing the printer while paused
+   * @return false if the pause lasted longer than maxPauseMs
+   */
+  boolean await(Probe probe) throws InterruptedException {
+    final Options options;
+    final long start = System.nanoTime();
+    synchronized (this) {
+      options = this.options;
+      if (!options.enabled) {
+        return true;
+      }
+    }
+    final long lastProbe = lastProbeNanos();
+    if (lastProbe == 0 || start - lastProbe >= TimeUnit.MILLISECONDS.toNanos(options.pollIntervalMs)) {
+      probe(probe, options);
+    }
+    String reason = pauseReason(options);
+    if (reason == null) {
+      return true;
+    }
+    synchronized (this) {
+      pauseReason = reason;
+      ++pauses;
+    }
+    try {
+      final long deadline = start + TimeUnit.MILLISECONDS.toNanos(options.maxPauseMs);
+      while (reason != null) {
+        if (System.nanoTime() - deadline >= 0) {
+          synchronized (this) {
+            ++timeouts;
+          }
+          return false;
+        }
+        TimeUnit.MILLISECONDS.sleep(options.pollIntervalMs);
+        probe(probe, options);
+        reason = resumeBlocked(options);
+        synchronized (this) {
+          pauseReason = reason;
+        }
+      }
+      return true;
+    } finally {
+      synchronized (this) {
+        pauseReason = null;
+        pausedNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * Density and speed commands to send before the next chunk, null if nothing changes
+   */
+  synchronized byte[] hints() {
+    if (hintsDue) {
+      hintsDue = false;
+      return hintBytes(options.coolDensity, options.coolSpeed);
+    }
+    if (cooling && System.nanoTime() - lastOverheatNanos > TimeUnit.MILLISECONDS.toNanos(options.coolDownMs)) {
+      cooling = false;
+      return hintBytes(options.normalDensity, options.normalSpeed);
+    }
+    return null;
+  }
+
+  /**
+   * { enabled, paused, reason, backlogMm, pauses, pausedMs, timeouts }
+   */
+  synchronized Map<String, Object> snapshot() {
+    final Map<String, Object> snapshot = new LinkedHashMap<>();
+    snapshot.put("enabled", options.enabled);
+    snapshot.put("paused", pauseReason != null);
+    snapshot.put("reason", pauseReason);
+    snapshot.put("backlogMm", backlogMm);
+    snapshot.put("pauses", (double) pauses);
+    snapshot.put("pausedMs", (double) TimeUnit.NANOSECONDS.toMillis(pausedNanos));
+    snapshot.put("timeouts", (double) timeouts);
+    return snapshot;
+  }
+
+  private synchronized long lastProbeNanos() {
+    return lastProbeNanos;
+  }
+
+  private synchronized String pauseReason(Options options) {
+    if (state == STATE_OVERHEATED) {
+      return REASON_OVERHEATED;
+    }
+    return backlogMm > options.highWaterMm ? REASON_BUFFER_FULL : null;
+  }
+
+  /**
+   * Why a paused sender still waits, null once it can go on
+   */
+  private synchronized String resumeBlocked(Options options) {
+    if (state != STATE_NORMAL) {
+      return state == STATE_OVERHEATED ? REASON_OVERHEATED : pauseReason;
+    }
+    return backlogMm > options.lowWaterMm ? REASON_BUFFER_FULL : null;
+  }
+
+  private void probe(Probe probe, Options options) {
+    int printerState;
+    double printed;
+    try {
+      printerState = probe.state();
+    } catch (Exception e) {
+      printerState = STATE_ERROR;
+      keepInterrupt(e);
+    }
+    try {
+      printed = probe.printedMm();
+    } catch (Exception e) {
+      printed = -1;
+      keepInterrupt(e);
+    }
+    final long now = System.nanoTime();
+    synchronized (this) {
+      final long elapsed = lastProbeNanos == 0 ? 0 : now - lastProbeNanos;
+      lastProbeNanos = now;
+      onPrinterState(printerState);
+      if (printed < 0) {
+        // no printed length, assume the printer prints at its nominal speed while it is ready
+        if (printerState == STATE_NORMAL) {
+          backlogMm -= options.paperSpeedMmPerSecond * elapsed / 1e9;
+        }
+      } else if (lastPrintedMm < 0 || printed < lastPrintedMm) {
+        // first reading, or the counter started over with the printer
+        lastPrintedMm = printed;
+        printedChangedNanos = now;
+      } else if (printed > lastPrintedMm) {
+        backlogMm -= printed - lastPrintedMm;
+        lastPrintedMm = printed;
+        printedChangedNanos = now;
+      } else if (printerState == STATE_NORMAL
+        && now - printedChangedNanos > TimeUnit.MILLISECONDS.toNanos(options.idleMs)) {
+        // a ready printer that does not move the paper has nothing left to print, the estimate was high
+        backlogMm = 0;
+      }
+      backlogMm = Math.max(0, backlogMm);
+    }
+  }
+
+  /**
+   * A probe interrupted by a shutdown ends the pause at the next sleep
+   */
+  private static void keepInterrupt(Exception e) {
+    if (e instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static byte[] hintBytes(int density, int speed) {
+    final EscPosBuilder builder = new EscPosBuilder(16);
+    if (density >= 0) {
+      builder.raw(new byte[]{ESCUtil.GS, '(', 'K', 2, 0, 0x31, (byte) density});
+    }
+    if (speed >= 0) {
+      builder.raw(new byte[]{ESCUtil.GS, '(', 'K', 2, 0, 0x32, (byte) speed});
+    }
+    return builder.size() == 0 ? null : builder.toByteArray();
+  }
+
+  /**
+   * A paper counter for one job sent in chunks, see sent(double)
+   */
+  static PaperCounter counter() {
+    return new PaperCounter(LINE_DOTS, BARCODE_DOTS);
+  }
+
+  static double paperMm(byte[] data) {
+    return counter().add(data) / DOTS_PER_MM;
+  }
+}
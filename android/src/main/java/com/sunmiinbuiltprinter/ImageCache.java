@@ -0,0 +1,61 @@
+package com.sunmiinbuiltprinter;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Registered images (store logos and the like), prepared once and kept ready to print.
+ * Entries are scaled to their print width and dithered to 1-bit raster images when registered,
+ * and evicted least recently used first once the byte budget is exceeded.
+ */
+class ImageCache {
+
+  static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+  private final LruCache<String, RasterImage> images;
+
+  ImageCache(int maxBytes) {
+    images = new LruCache<String, RasterImage>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, RasterImage value) {
+        return value.data.length;
+      }
+    };
+  }
+
+  /**
+   * Decode, scale and dither an image and store it under key, replacing any previous image
+   * @return the prepared image
+   */
+  synchronized RasterImage register(String key, byte[] data, int width, int dither, BitmapDecoder decoder) {
+    final Bitmap decoded = decoder.decode(data, width);
+    final RasterImage prepared = BitmapDecoder.toRaster(decoded, dither);
+    decoder.release(decoded);
+    images.put(key, prepared);
+    return prepared;
+  }
+
+  synchronized RasterImage get(String key) {
+    return images.get(key);
+  }
+
+  synchronized void remove(String key) {
+    images.remove(key);
+  }
+
+  synchronized void clear() {
+    images.evictAll();
+  }
+
+  synchronized void resize(int maxBytes) {
+    images.resize(maxBytes);
+  }
+
+  synchronized int size() {
+    return images.size();
+  }
+
+  synchronized int maxSize() {
+    return images.maxSize();
+  }
+}
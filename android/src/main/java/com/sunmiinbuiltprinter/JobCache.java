@@ -0,0 +1,54 @@
+package com.sunmiinbuiltprinter;
+
+import android.util.LruCache;
+
+/**
+ * Encoded ESC/POS jobs kept after they were built, so copies and reprints are sent again byte for byte
+ * without rebuilding them. Evicted least recently used first once the byte budget is exceeded.
+ * The most recent job is remembered as the last one, for "reprint last receipt".
+ */
+class JobCache {
+
+  static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+  private final LruCache<String, byte[]> jobs;
+  private String lastId;
+
+  JobCache(int maxBytes) {
+    jobs = new LruCache<String, byte[]>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, byte[] value) {
+        return value.length;
+      }
+    };
+  }
+
+  /**
+   * Keep an encoded job under id, replacing any previous one, and make it the last job
+   */
+  synchronized void put(String id, byte[] data) {
+    lastId = id;
+    jobs.put(id, data);
+  }
+
+  /**
+   * @param id job id, null for the last job
+   * @return the encoded job, null if it was never cached or was evicted
+   */
+  synchronized byte[] get(String id) {
+    final String key = id == null ? lastId : id;
+    return key == null ? null : jobs.get(key);
+  }
+
+  synchronized void resize(int maxBytes) {
+    jobs.resize(maxBytes);
+  }
+
+  synchronized int size() {
+    return jobs.size();
+  }
+
+  synchronized int maxSize() {
+    return jobs.maxSize();
+  }
+}
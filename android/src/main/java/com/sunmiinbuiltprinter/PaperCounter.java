@@ -0,0 +1,158 @@
+package com.sunmiinbuiltprinter;
+
+/**
+ * Measures how far ESC/POS data advances the paper: line feeds, feed commands, raster images and barcodes.
+ * Data can be fed in chunks: a command cut by the end of a chunk is completed with the next one, and the pixels
+ * of a raster image or the content of a barcode or QR code are passed over wherever they end, so their bytes are
+ * never read as commands. One counter follows one job from its first byte.
+ */
+final class PaperCounter {
+
+  private final int lineDots;
+  private final int defaultBarcodeDots;
+  private int barcodeDots;
+
+  // the start of a command the previous chunk ended in
+  private final byte[] command = new byte[8];
+  private int commandLength;
+
+  // bytes of image or symbol data still to pass over, or a NUL terminated barcode that has not ended yet
+  private long skip;
+  private boolean skipToNul;
+
+  /**
+   * @param lineDots paper advance of a line feed
+   * @param barcodeDots barcode height until GS h sets one
+   */
+  PaperCounter(int lineDots, int barcodeDots) {
+    this.lineDots = lineDots;
+    this.defaultBarcodeDots = barcodeDots;
+    this.barcodeDots = barcodeDots;
+  }
+
+  /**
+   * Start over for the next job
+   */
+  PaperCounter reset() {
+    barcodeDots = defaultBarcodeDots;
+    commandLength = 0;
+    skip = 0;
+    skipToNul = false;
+    return this;
+  }
+
+  long add(byte[] data) {
+    return add(data, 0, data.length);
+  }
+
+  /**
+   * @return dots the data advances the paper by, counting commands it completes
+   */
+  long add(byte[] data, int offset, int length) {
+    long dots = 0;
+    final int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      if (skip > 0) {
+        final int n = (int) Math.min(skip, end - i);
+        skip -= n;
+        i += n;
+        continue;
+      }
+      final byte b = data[i++];
+      if (skipToNul) {
+        skipToNul = b != 0;
+        continue;
+      }
+      if (commandLength == 0) {
+        if (b == ESCUtil.LF) {
+          dots += lineDots;
+        } else if (b == ESCUtil.ESC || b == ESCUtil.GS) {
+          command[commandLength++] = b;
+        }
+        continue;
+      }
+      command[commandLength++] = b;
+      final int needed = needed();
+      if (needed < 0) {
+        // not a command that moves the paper or carries data
+        commandLength = 0;
+      } else if (commandLength == needed) {
+        dots += execute();
+        commandLength = 0;
+      }
+    }
+    return dots;
+  }
+
+  /**
+   * Length of the command started in command[], as far as its bytes so far tell, -1 if it does not matter here
+   */
+  private int needed() {
+    final int c = command[1];
+    if (command[0] == ESCUtil.ESC) {
+      switch (c) {
+        case 'd': case 'J': case 'a': case 'E': case '-': case '!': case 't': case 'M': case 'G': case '3':
+          return 3;
+        case 'p':
+          return 5;
+        default:
+          return -1;
+      }
+    }
+    switch (c) {
+      case 'h': case 'w': case 'H': case '!': case 'B': case 'f':
+        return 3;
+      case 'V':
+      case 'k':
+        // GS V m n and GS k m n carry one more byte in their m >= 65 forms
+        return commandLength < 3 || (command[2] & 0xFF) < 65 ? 3 : 4;
+      case 'L': case 'W':
+        return 4;
+      case '(':
+        return 5;
+      case 'v':
+        return commandLength >= 3 && command[2] != '0' ? -1 : 8;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Apply the complete command in command[]
+   * @return dots it feeds
+   */
+  private long execute() {
+    final int c = command[1];
+    if (command[0] == ESCUtil.ESC) {
+      if (c == 'd') {
+        return (long) (command[2] & 0xFF) * lineDots;
+      }
+      return c == 'J' ? command[2] & 0xFF : 0;
+    }
+    switch (c) {
+      case 'h':
+        barcodeDots = command[2] & 0xFF;
+        return 0;
+      case 'k':
+        if ((command[2] & 0xFF) >= 65) {
+          skip = command[3] & 0xFF;
+        } else {
+          skipToNul = true;
+        }
+        return barcodeDots;
+      case '(':
+        // GS ( k and the other function commands, pL pH bytes of parameters follow
+        skip = (command[3] & 0xFF) | (command[4] & 0xFF) << 8;
+        return 0;
+      case 'v': {
+        final int bytesPerRow = (command[4] & 0xFF) | (command[5] & 0xFF) << 8;
+        final int rows = (command[6] & 0xFF) | (command[7] & 0xFF) << 8;
+        skip = (long) bytesPerRow * rows;
+        return rows;
+      }
+      default:
+        return 0;
+    }
+  }
+}
@@ -0,0 +1,789 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+import android.util.Base64;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+import com.sunmi.peripheral.printer.WoyouConsts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single decoded receipt operation.
+ * Receipts arrive from JS as an array of maps ({ type: 'text', text: '...' }, { type: 'cut' }, ...),
+ * they are decoded once into these objects and then applied to the printer service in order.
+ */
+abstract class PrintOp {
+
+  /**
+   * what a receipt is decoded for: printer service calls, ESC/POS data or a rendered raster receipt
+   */
+  static final int TARGET_SERVICE = 0;
+  static final int TARGET_ESC_POS = 1;
+  static final int TARGET_RENDERED = 2;
+
+  abstract void apply(SunmiPrinterService service) throws RemoteException;
+
+  /**
+   * Append the ESC/POS equivalent of this operation
+   */
+  void encode(EscPosBuilder builder) {
+    throw new IllegalArgumentException(getClass().getSimpleName() + " has no ESC/POS equivalent");
+  }
+
+  /**
+   * Whether encode() supports this operation
+   */
+  boolean hasEscPos() {
+    return true;
+  }
+
+  /**
+   * Whether render() supports this operation, by default it is encoded between the pages
+   */
+  boolean renderable() {
+    return hasEscPos();
+  }
+
+  /**
+   * Draw this operation with a receipt renderer, by default it stays an ESC/POS command between the pages
+   */
+  void render(ReceiptRenderer renderer) {
+    renderer.escPos(this);
+  }
+
+  /**
+   * Decode a whole receipt, failing before anything is sent to the printer
+   * @param ops array of operation maps
+   */
+  static List<PrintOp> decodeAll(ReadableArray ops) {
+    return decodeAll(ops, TARGET_SERVICE);
+  }
+
+  /**
+   * Decode a whole receipt, failing on operations the target does not support before anything is queued
+   * @param target TARGET_SERVICE, TARGET_ESC_POS or TARGET_RENDERED
+   */
+  static List<PrintOp> decodeAll(ReadableArray ops, int target) {
+    List<PrintOp> result = new ArrayList<>(ops.size());
+    for (int i = 0; i < ops.size(); ++i) {
+      try {
+        result.add(decode(ops.getMap(i), target));
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid operation at index " + i + ": " + e.getMessage(), e);
+      }
+    }
+    return result;
+  }
+
+  static PrintOp decode(ReadableMap op, int target) {
+    final PrintOp decoded = decode(op);
+    if (target == TARGET_ESC_POS && !decoded.hasEscPos()) {
+      throw new IllegalArgumentException("'" + op.getString("type") + "' has no ESC/POS equivalent");
+    }
+    if (target == TARGET_RENDERED && !decoded.renderable()) {
+      throw new IllegalArgumentException("'" + op.getString("type") + "' is not supported in rendered receipts");
+    }
+    return decoded;
+  }
+
+  static PrintOp decode(ReadableMap op) {
+    final String type = op.getString("type");
+    if (type == null) {
+      throw new IllegalArgumentException("missing type");
+    }
+    switch (type) {
+      case "text":
+        return new Text(op.getString("text"));
+      case "textWithFont":
+        return new TextWithFont(op.getString("text"), op.getString("typeface"), (float) op.getDouble("fontSize"));
+      case "originalText":
+        return new OriginalText(op.getString("text"));
+      case "align":
+        return new Align(op.getInt("value"));
+      case "fontSize":
+        return new FontSize((float) op.getDouble("value"));
+      case "fontName":
+        return new FontName(op.getString("value"));
+      case "bold":
+        return new Bold(op.getBoolean("value"));
+      case "style":
+        return new Style(op.getInt("key"), op.getInt("value"));
+      case "columns":
+        return new Columns(toStringArray(op.getArray("texts")), toIntArray(op.getArray("widths")),
+          toIntArray(op.getArray("aligns")));
+      case "table":
+        return Table.decode(op.getArray("columns"), op.getArray("rows"), op.hasKey("gap") ? op.getInt("gap") : 1);
+      case "lineWrap":
+        return new LineWrap(op.hasKey("lines") ? op.getInt("lines") : 1);
+      case "bitmap":
+        return new Image(op.getString("data"), op.getInt("width"));
+      case "rasterImage":
+        return new Raster(op.getString("data"), op.getInt("width"),
+          RasterImage.parseDither(op.hasKey("dither") ? op.getString("dither") : null));
+      case "registeredImage":
+        return new RegisteredImage(op.getString("key"));
+      case "barCode":
+        return new BarCode(op.getString("data"), op.getInt("symbology"), op.getInt("height"), op.getInt("width"),
+          op.getInt("textPosition"));
+      case "qrCode":
+        return new QRCode(op.getString("data"), op.getInt("moduleSize"), op.getInt("errorLevel"));
+      case "raw":
+        return new Raw(Base64.decode(op.getString("data"), Base64.DEFAULT));
+      case "codepage":
+        return new Codepage(TextEncoder.codepage(op.getString("value")));
+      case "cut":
+        return new Cut();
+      case "openDrawer":
+        return new OpenDrawer();
+      default:
+        throw new IllegalArgumentException("unknown type '" + type + "'");
+    }
+  }
+
+  static String[] toStringArray(ReadableArray array) {
+    String[] result = new String[array.size()];
+    for (int j = 0; j < array.size(); ++j) {
+      result[j] = array.getString(j);
+    }
+    return result;
+  }
+
+  static int[] toIntArray(ReadableArray array) {
+    int[] result = new int[array.size()];
+    for (int j = 0; j < array.size(); ++j) {
+      result[j] = array.getInt(j);
+    }
+    return result;
+  }
+
+  static final class Text extends PrintOp {
+    final String text;
+
+    Text(String text) {
+      this.text = text;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printText(text, null);
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.text(text);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.text(text);
+    }
+  }
+
+  static final class TextWithFont extends PrintOp {
+    final String text;
+    final String typeface;
+    final float fontSize;
+
+    TextWithFont(String text, String typeface, float fontSize) {
+      this.text = text;
+      this.typeface = typeface;
+      this.fontSize = fontSize;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printTextWithFont(text, typeface, fontSize, null);
+    }
+
+    @Override
+    boolean hasEscPos() {
+      return false;
+    }
+
+    @Override
+    boolean renderable() {
+      return true;
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.text(text, typeface, fontSize);
+    }
+  }
+
+  static final class OriginalText extends PrintOp {
+    final String text;
+
+    OriginalText(String text) {
+      this.text = text;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printOriginalText(text, null);
+    }
+
+    @Override
+    boolean hasEscPos() {
+      return false;
+    }
+
+    @Override
+    boolean renderable() {
+      return true;
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.text(text);
+    }
+  }
+
+  static final class Align extends PrintOp {
+    final int alignment;
+
+    Align(int alignment) {
+      this.alignment = alignment;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.setAlignment(alignment, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.align(alignment);
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.align(alignment);
+    }
+  }
+
+  static final class FontSize extends PrintOp {
+    final float size;
+
+    FontSize(float size) {
+      this.size = size;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.setFontSize(size, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      // the service sizes fonts in pixels with 24 as the normal size, ESC/POS only has whole multiples
+      final int scale = Math.max(1, Math.round(size / 24f));
+      builder.size(scale, scale);
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.fontSize(size);
+    }
+  }
+
+  static final class FontName extends PrintOp {
+    final String typeface;
+
+    FontName(String typeface) {
+      this.typeface = typeface;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.setFontName(typeface, null);
+    }
+
+    @Override
+    boolean hasEscPos() {
+      return false;
+    }
+
+    @Override
+    boolean renderable() {
+      return true;
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.typeface(typeface);
+    }
+  }
+
+  static final class Bold extends PrintOp {
+    final boolean on;
+
+    Bold(boolean on) {
+      this.on = on;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.sendRAWData(on ? EscPosBuilder.BOLD_ON : EscPosBuilder.BOLD_OFF, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.bold(on);
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.bold(on);
+    }
+  }
+
+  static final class Style extends PrintOp {
+    final int key;
+    final int value;
+
+    Style(int key, int value) {
+      this.key = key;
+      this.value = value;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.setPrinterStyle(key, value);
+    }
+
+    @Override
+    boolean hasEscPos() {
+      switch (key) {
+        case WoyouConsts.ENABLE_DOUBLE_WIDTH:
+        case WoyouConsts.ENABLE_DOUBLE_HEIGHT:
+        case WoyouConsts.ENABLE_BOLD:
+        case WoyouConsts.ENABLE_UNDERLINE:
+        case WoyouConsts.ENABLE_ANTI_WHITE:
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    @Override
+    boolean renderable() {
+      return key == WoyouConsts.ENABLE_BOLD;
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      final boolean enable = value == WoyouConsts.ENABLE;
+      switch (key) {
+        case WoyouConsts.ENABLE_DOUBLE_WIDTH:
+          builder.doubleWidth(enable);
+          break;
+        case WoyouConsts.ENABLE_DOUBLE_HEIGHT:
+          builder.doubleHeight(enable);
+          break;
+        case WoyouConsts.ENABLE_BOLD:
+          builder.bold(enable);
+          break;
+        case WoyouConsts.ENABLE_UNDERLINE:
+          builder.underline(enable ? 1 : 0);
+          break;
+        case WoyouConsts.ENABLE_ANTI_WHITE:
+          builder.invert(enable);
+          break;
+        default:
+          super.encode(builder);
+      }
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      if (key != WoyouConsts.ENABLE_BOLD) {
+        throw new IllegalArgumentException("style key " + key + " is not supported in rendered receipts");
+      }
+      renderer.bold(value == WoyouConsts.ENABLE);
+    }
+  }
+
+  static final class Columns extends PrintOp {
+    final String[] texts;
+    final int[] widths;
+    final int[] aligns;
+
+    Columns(String[] texts, int[] widths, int[] aligns) {
+      if (texts.length != widths.length || texts.length != aligns.length) {
+        throw new IllegalArgumentException("texts, widths and aligns must have the same length");
+      }
+      this.texts = texts;
+      this.widths = widths;
+      this.aligns = aligns;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printColumnsString(texts, widths, aligns, null);
+    }
+
+    /**
+     * The widths are weights sharing the line like printColumnsString, cells that do not fit wrap
+     */
+    @Override
+    void encode(EscPosBuilder builder) {
+      final StringBuilder lines = new StringBuilder(builder.lineChars() + 1);
+      new ColumnLayout(widths, aligns, null, 0).layoutRow(texts, builder.lineChars(), lines);
+      builder.text(lines.toString());
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      final StringBuilder lines = new StringBuilder(renderer.gridChars() + 1);
+      new ColumnLayout(widths, aligns, null, 0).layoutRow(texts, renderer.gridChars(), lines);
+      renderer.grid(lines);
+    }
+  }
+
+  static final class Table extends PrintOp {
+    final ColumnLayout layout;
+    final String[][] rows;
+
+    Table(ColumnLayout layout, String[][] rows) {
+      this.layout = layout;
+      this.rows = rows;
+    }
+
+    /**
+     * @param columns [{ width, align, overflow: 'wrap' | 'truncate' | 'ellipsis' }]
+     * @param rows one array of cells per row, strings or numbers
+     * @param gap spaces between columns
+     */
+    static Table decode(ReadableArray columns, ReadableArray rows, int gap) {
+      final int[] widths = new int[columns.size()];
+      final int[] aligns = new int[columns.size()];
+      final int[] overflows = new int[columns.size()];
+      for (int c = 0; c < widths.length; ++c) {
+        final ReadableMap column = columns.getMap(c);
+        widths[c] = column.hasKey("width") ? column.getInt("width") : 1;
+        aligns[c] = column.hasKey("align") ? column.getInt("align") : EscPosBuilder.ALIGN_LEFT;
+        overflows[c] = ColumnLayout.parseOverflow(column.hasKey("overflow") ? column.getString("overflow") : null);
+      }
+      final ColumnLayout layout = new ColumnLayout(widths, aligns, overflows, gap);
+      final String[][] cells = new String[rows.size()][];
+      for (int r = 0; r < cells.length; ++r) {
+        final ReadableArray row = rows.getArray(r);
+        if (row.size() != widths.length) {
+          throw new IllegalArgumentException("row " + r + " has " + row.size() + " cells, expected " + widths.length);
+        }
+        cells[r] = new String[row.size()];
+        for (int c = 0; c < row.size(); ++c) {
+          cells[r][c] = cellText(row, c);
+        }
+      }
+      return new Table(layout, cells);
+    }
+
+    private static String cellText(ReadableArray row, int c) {
+      switch (row.getType(c)) {
+        case Null:
+          return "";
+        case Number: {
+          final double number = row.getDouble(c);
+          return number == Math.rint(number) && Math.abs(number) < 1e15 ? Long.toString((long) number) : Double.toString(number);
+        }
+        case Boolean:
+          return Boolean.toString(row.getBoolean(c));
+        default:
+          return row.getString(c);
+      }
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      final EscPosBuilder builder = new EscPosBuilder().paperChars(EscPosBuilder.paperCharsFor(service.getPrinterPaper()));
+      encode(builder);
+      service.sendRAWData(builder.toByteArray(), null);
+    }
+
+    /**
+     * All rows laid out into one block of text
+     */
+    @Override
+    void encode(EscPosBuilder builder) {
+      final int lineChars = builder.lineChars();
+      final StringBuilder lines = new StringBuilder(rows.length * (lineChars + 1));
+      for (String[] row : rows) {
+        layout.layoutRow(row, lineChars, lines);
+      }
+      builder.text(lines.toString());
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      final int lineChars = renderer.gridChars();
+      final StringBuilder lines = new StringBuilder(rows.length * (lineChars + 1));
+      for (String[] row : rows) {
+        layout.layoutRow(row, lineChars, lines);
+      }
+      renderer.grid(lines);
+    }
+  }
+
+  static final class LineWrap extends PrintOp {
+    final int lines;
+
+    LineWrap(int lines) {
+      this.lines = lines;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.lineWrap(lines, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.feed(lines);
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.feed(lines);
+    }
+  }
+
+  static final class Image extends PrintOp {
+    final String encodedString;
+    final int pixelWidth;
+
+    Image(String encodedString, int pixelWidth) {
+      this.encodedString = encodedString;
+      this.pixelWidth = pixelWidth;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      final android.graphics.Bitmap bitmap = SunmiInbuiltPrinterModule.decodeBitmap(encodedString, pixelWidth);
+      try {
+        service.printBitmap(bitmap, null);
+      } finally {
+        SunmiInbuiltPrinterModule.bitmapDecoder.release(bitmap);
+      }
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.raster(toRaster());
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.image(toRaster());
+    }
+
+    private RasterImage toRaster() {
+      final android.graphics.Bitmap bitmap = SunmiInbuiltPrinterModule.decodeBitmap(encodedString, pixelWidth);
+      try {
+        return BitmapDecoder.toRaster(bitmap, RasterImage.DITHER_THRESHOLD);
+      } finally {
+        SunmiInbuiltPrinterModule.bitmapDecoder.release(bitmap);
+      }
+    }
+  }
+
+  static final class Raster extends PrintOp {
+    final String encodedString;
+    final int pixelWidth;
+    final int dither;
+
+    Raster(String encodedString, int pixelWidth, int dither) {
+      this.encodedString = encodedString;
+      this.pixelWidth = pixelWidth;
+      this.dither = dither;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      final android.graphics.Bitmap bitmap = SunmiInbuiltPrinterModule.decodeBitmap(encodedString, pixelWidth);
+      final RasterImage image;
+      try {
+        image = BitmapDecoder.toRaster(bitmap, dither);
+      } finally {
+        SunmiInbuiltPrinterModule.bitmapDecoder.release(bitmap);
+      }
+      service.sendRAWData(image.toEscPos(), null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.raster(toRaster());
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.image(toRaster());
+    }
+
+    private RasterImage toRaster() {
+      final android.graphics.Bitmap bitmap = SunmiInbuiltPrinterModule.decodeBitmap(encodedString, pixelWidth);
+      try {
+        return BitmapDecoder.toRaster(bitmap, dither);
+      } finally {
+        SunmiInbuiltPrinterModule.bitmapDecoder.release(bitmap);
+      }
+    }
+  }
+
+  static final class RegisteredImage extends PrintOp {
+    final String key;
+
+    RegisteredImage(String key) {
+      this.key = key;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.sendRAWData(registered().toEscPos(), null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.raster(registered());
+    }
+
+    @Override
+    void render(ReceiptRenderer renderer) {
+      renderer.image(registered());
+    }
+
+    private RasterImage registered() {
+      final RasterImage image = SunmiInbuiltPrinterModule.imageCache.get(key);
+      if (image == null) {
+        throw new IllegalArgumentException("no image registered as '" + key + "'");
+      }
+      return image;
+    }
+  }
+
+  static final class BarCode extends PrintOp {
+    final String data;
+    final int symbology;
+    final int height;
+    final int width;
+    final int textPosition;
+
+    BarCode(String data, int symbology, int height, int width, int textPosition) {
+      this.data = data;
+      this.symbology = symbology;
+      this.height = height;
+      this.width = width;
+      this.textPosition = textPosition;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printBarCode(data, symbology, height, width, textPosition, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.barcode(data, symbology, height, width, textPosition);
+    }
+  }
+
+  static final class QRCode extends PrintOp {
+    final String data;
+    final int moduleSize;
+    final int errorLevel;
+
+    QRCode(String data, int moduleSize, int errorLevel) {
+      this.data = data;
+      this.moduleSize = moduleSize;
+      this.errorLevel = errorLevel;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.printQRCode(data, moduleSize, errorLevel, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.qrCode(data, moduleSize, errorLevel);
+    }
+  }
+
+  static final class Raw extends PrintOp {
+    final byte[] data;
+
+    Raw(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.sendRAWData(data, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.raw(data);
+    }
+  }
+
+  /**
+   * Selects a code page for the text that follows in an ESC/POS receipt.
+   * Sent to the service it only switches the printer, the service keeps encoding its own text calls.
+   */
+  static final class Codepage extends PrintOp {
+    final TextEncoder.Codepage codepage;
+
+    Codepage(TextEncoder.Codepage codepage) {
+      // look the charset up now so an unsupported one fails while decoding
+      codepage.charset();
+      this.codepage = codepage;
+    }
+
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.sendRAWData(codepage.select, null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.codepage(codepage);
+    }
+
+    /**
+     * Rendered text is drawn, not encoded
+     */
+    @Override
+    void render(ReceiptRenderer renderer) {
+    }
+  }
+
+  static final class Cut extends PrintOp {
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.cutPaper(null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.cut(true);
+    }
+  }
+
+  static final class OpenDrawer extends PrintOp {
+    @Override
+    void apply(SunmiPrinterService service) throws RemoteException {
+      service.openDrawer(null);
+    }
+
+    @Override
+    void encode(EscPosBuilder builder) {
+      builder.drawerKick();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The path of every printer call: the print queue, the wait for the printer service, the jobs the service has
+ * not acknowledged yet, replayed when it dies, and raw data sent in one call or chunks.
+ * The service comes from a PrinterBackend, the module passes its PrinterConnection and the load test a
+ * simulated printer.
+ */
+final class PrintPipeline {
+
+  /**
+   * how long queued calls wait for the printer service before all of them are rejected
+   */
+  static final long CONNECT_TIMEOUT_MS = 30000;
+
+  final PrintQueue queue;
+  private final PrinterBackend backend;
+  private final FlowControl flowControl;
+  private final PrinterMetrics metrics;
+
+  /**
+   * jobs that ran but whose callbacks have not all arrived, replayed if the service dies before they do
+   */
+  private final Set<PrinterJob> unacknowledged = new LinkedHashSet<>();
+
+  private final PrinterJob.Host jobHost = new PrinterJob.Host() {
+    @Override
+    public SunmiPrinterService awaitService() throws InterruptedException {
+      // the queue waited for the service before it started the job
+      return backend.awaitService(0);
+    }
+
+    @Override
+    public void onUnacknowledged(PrinterJob job) {
+      synchronized (unacknowledged) {
+        unacknowledged.add(job);
+      }
+    }
+
+    @Override
+    public void onAcknowledged(PrinterJob job) {
+      synchronized (unacknowledged) {
+        unacknowledged.remove(job);
+      }
+    }
+
+    @Override
+    public void replay(PrinterJob job) {
+      queue.resubmit(job);
+    }
+  };
+
+  /**
+   * @param flowControl paces the raw data sends
+   */
+  PrintPipeline(PrinterBackend backend, PrintQueue queue, FlowControl flowControl, PrinterMetrics metrics) {
+    this.backend = backend;
+    this.queue = queue;
+    this.flowControl = flowControl;
+    this.metrics = metrics;
+    queue.gate(timeoutMs -> backend.awaitService(timeoutMs) != null, CONNECT_TIMEOUT_MS,
+      PrinterJob.ERROR_NOT_CONNECTED, "printer service is not connected");
+  }
+
+  /**
+   * Run a printer call on the print queue once the service is available, rejecting the promise if the queue is
+   * full, the service does not come up within CONNECT_TIMEOUT_MS of the first call waiting for it or the call throws
+   * @param operation name the call is recorded under in the printer metrics
+   * @param priority one of the PrintQueue.PRIORITY_ constants
+   * @param id to cancel the job by, null for none
+   * @param deadlineMs reject the job if it has not started within this many milliseconds, 0 for no deadline
+   */
+  void enqueue(String operation, Promise promise, PrinterJob.Call call, int priority, @Nullable String id,
+               long deadlineMs) {
+    queue.submit(new PrinterJob(operation, promise, call, jobHost, metrics), priority, id, deadlineMs);
+    metrics.recordQueueDepth(queue.size());
+  }
+
+  /**
+   * Put the jobs the dead service never acknowledged back at the head of the queue, in their original order
+   */
+  void replayUnacknowledged() {
+    final List<PrinterJob> jobs;
+    synchronized (unacknowledged) {
+      jobs = new ArrayList<>(unacknowledged);
+      unacknowledged.clear();
+    }
+    for (int i = jobs.size() - 1; i >= 0; i--) {
+      final PrinterJob job = jobs.get(i);
+      if (job.canReplay()) {
+        queue.resubmit(job);
+      } else {
+        job.fail(PrinterJob.ERROR_NOT_CONNECTED, "printer service disconnected");
+      }
+    }
+  }
+
+  /**
+   * Send encoded data with one sendRAWData call, in chunks if it is larger than ChunkedSend.MAX_CHUNK_SIZE
+   * or while flow control is on, so it is paced like every other chunked job
+   */
+  void sendData(SunmiPrinterService service, PrinterJob job, final byte[] data) throws RemoteException {
+    if (data.length <= ChunkedSend.MAX_CHUNK_SIZE && !flowControl.enabled()) {
+      service.sendRAWData(job.sent(data), job.callback());
+      return;
+    }
+    new ChunkedSend(new ChunkedSend.Source() {
+      @Override
+      public InputStream open() {
+        return new ByteArrayInputStream(data);
+      }
+    }, flowControl.enabled() ? 0 : ChunkedSend.MAX_CHUNK_SIZE, flowControl).run(service, job);
+  }
+}
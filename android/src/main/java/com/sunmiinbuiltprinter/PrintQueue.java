@@ -0,0 +1,643 @@
+package com.sunmiinbuiltprinter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single consumer print executor with a bounded job queue.
+ * Jobs run one at a time on a dedicated thread so the React Native native-modules thread never waits on
+ * the printer service. Waiting jobs are taken by priority class, in submission order within a class, so a
+ * high priority job overtakes the queued bulk work at the next job boundary. A job can have an id to cancel
+ * it by and a deadline, it is failed if it has not started by then. Submitting never blocks: with POLICY_WAIT a
+ * job that finds the queue full is parked and admitted once there is room, or failed when the wait times out.
+ * With a gate, e.g. the printer service being bound, the worker waits for it before taking the next job. Jobs
+ * stay queued meanwhile, so they can still be cancelled or miss their deadline, and all of them share one gate
+ * timeout: the clock starts when the first job finds the gate closed and every job queued by then fails at once
+ * when it runs out, instead of each job waiting the whole timeout in turn.
+ */
+class PrintQueue {
+
+  /**
+   * reject new jobs immediately while the queue is full
+   */
+  static final int POLICY_REJECT = 0;
+
+  /**
+   * park new jobs while the queue is full, admit them in submission order as room frees up and fail them with
+   * ERROR_QUEUE_FULL once the wait timeout expires
+   */
+  static final int POLICY_WAIT = 1;
+
+  /**
+   * customer facing jobs, e.g. receipts
+   */
+  static final int PRIORITY_HIGH = 0;
+
+  /**
+   * every call that does not ask for a priority
+   */
+  static final int PRIORITY_NORMAL = 1;
+
+  /**
+   * bulk work, e.g. end of day reports
+   */
+  static final int PRIORITY_LOW = 2;
+
+  private static final int PRIORITIES = 3;
+
+  static final String ERROR_QUEUE_FULL = "QUEUE_FULL";
+  static final String ERROR_SHUTDOWN = "QUEUE_SHUTDOWN";
+  static final String ERROR_CANCELLED = "JOB_CANCELLED";
+  static final String ERROR_DEADLINE_EXCEEDED = "DEADLINE_EXCEEDED";
+  static final String ERROR_DUPLICATE_ID = "DUPLICATE_JOB_ID";
+
+  interface Gate {
+    /**
+     * Block until jobs may start, for at most timeoutMs
+     * @return whether they may, false once the timeout passed
+     */
+    boolean await(long timeoutMs) throws InterruptedException;
+  }
+
+  interface Job {
+    void run() throws Exception;
+
+    /**
+     * Called instead of (or after a failed) run
+     * @param code
+     * @param message
+     */
+    void fail(String code, String message);
+  }
+
+  /**
+   * A waiting job with its scheduling options
+   */
+  private static final class Entry {
+    final Job job;
+    final int priority;
+    final String id;
+    // System.nanoTime() by which the job must have started, 0 for none
+    final long deadlineNanos;
+    ScheduledFuture<?> expiry;
+    // fails the job while it is parked, see POLICY_WAIT
+    ScheduledFuture<?> admission;
+
+    Entry(Job job, int priority, String id, long deadlineNanos) {
+      this.job = job;
+      this.priority = priority;
+      this.id = id;
+      this.deadlineNanos = deadlineNanos;
+    }
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  // one queue per priority class
+  private final List<ArrayDeque<Entry>> queues = new ArrayList<>();
+  // jobs waiting for room on the queue, oldest first
+  private final ArrayDeque<Entry> parked = new ArrayDeque<>();
+  private final Map<String, Entry> byId = new HashMap<>();
+  private final Thread worker;
+
+  // fails jobs whose deadline or admission wait passed, created when first needed
+  private ScheduledExecutorService timer;
+
+  private int size;
+
+  private Gate gate;
+  private long gateTimeoutMs;
+  private String gateErrorCode;
+  private String gateErrorMessage;
+  // System.nanoTime() by which the gate has to open for the jobs waiting now, 0 while the queue is empty
+  private long gateDeadlineNanos;
+  // the worker waits for the gate, emptying the queue interrupts it
+  private boolean gating;
+
+  private int capacity;
+  private int policy = POLICY_REJECT;
+  private long waitTimeoutMs = 5000;
+  private boolean shutdown;
+
+  PrintQueue(int capacity, String threadName) {
+    this.capacity = capacity;
+    for (int i = 0; i < PRIORITIES; ++i) {
+      queues.add(new ArrayDeque<Entry>());
+    }
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * @param capacity maximum number of queued (not yet running) jobs
+   * @param policy POLICY_REJECT or POLICY_WAIT
+   * @param waitTimeoutMs how long POLICY_WAIT parks a job before rejecting it
+   */
+  void configure(int capacity, int policy, long waitTimeoutMs) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    lock.lock();
+    try {
+      this.capacity = capacity;
+      this.policy = policy;
+      this.waitTimeoutMs = waitTimeoutMs;
+      admitParked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Let jobs start only once gate opens
+   * @param timeoutMs how long queued jobs wait for the gate together before all of them fail
+   * @param errorCode failure code of jobs the gate timed out
+   */
+  void gate(Gate gate, long timeoutMs, String errorCode, String errorMessage) {
+    lock.lock();
+    try {
+      this.gate = gate;
+      this.gateTimeoutMs = timeoutMs;
+      this.gateErrorCode = errorCode;
+      this.gateErrorMessage = errorMessage;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Queue a job with normal priority, or fail it right away when the queue is full or shut down
+   * @return whether the job was accepted
+   */
+  boolean submit(Job job) {
+    return submit(job, PRIORITY_NORMAL, null, 0);
+  }
+
+  /**
+   * Queue a job, or fail it right away when the queue is full or shut down
+   * With POLICY_WAIT a job that finds the queue full is parked instead, it counts as accepted and is failed
+   * with ERROR_QUEUE_FULL if no room frees up within the wait timeout.
+   * @param priority PRIORITY_HIGH, PRIORITY_NORMAL or PRIORITY_LOW
+   * @param id to cancel the job by, null for none
+   * @param deadlineMs fail the job if it has not started this many milliseconds from now, 0 for no deadline
+   * @return whether the job was accepted
+   */
+  boolean submit(Job job, int priority, String id, long deadlineMs) {
+    if (priority < PRIORITY_HIGH || priority > PRIORITY_LOW) {
+      throw new IllegalArgumentException("unknown priority " + priority);
+    }
+    final long deadlineNanos = deadlineMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : 0;
+    final Entry entry = new Entry(job, priority, id, deadlineNanos);
+    lock.lock();
+    try {
+      if (shutdown) {
+        job.fail(ERROR_SHUTDOWN, "print queue is shut down");
+        return false;
+      }
+      final boolean full = size >= capacity || !parked.isEmpty();
+      if (full && policy != POLICY_WAIT) {
+        job.fail(ERROR_QUEUE_FULL, "print queue is full (" + capacity + " jobs)");
+        return false;
+      }
+      if (id != null && byId.containsKey(id)) {
+        job.fail(ERROR_DUPLICATE_ID, "a job with id '" + id + "' is already queued");
+        return false;
+      }
+      if (id != null) {
+        byId.put(id, entry);
+      }
+      if (deadlineMs > 0) {
+        entry.expiry = schedule(new Runnable() {
+          @Override
+          public void run() {
+            expire(entry);
+          }
+        }, deadlineMs);
+      }
+      if (full) {
+        // behind the jobs parked before it, so they are admitted in submission order
+        parked.addLast(entry);
+        entry.admission = schedule(new Runnable() {
+          @Override
+          public void run() {
+            admissionTimedOut(entry);
+          }
+        }, waitTimeoutMs);
+      } else {
+        admit(entry);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Put a job back at the head of the queue, ahead of every priority class and ignoring the capacity
+   * Used to replay jobs that were interrupted by a service restart.
+   */
+  void resubmit(Job job) {
+    lock.lock();
+    try {
+      if (shutdown) {
+        job.fail(ERROR_SHUTDOWN, "print queue is shut down");
+        return;
+      }
+      queues.get(PRIORITY_HIGH).addFirst(new Entry(job, PRIORITY_HIGH, null, 0));
+      ++size;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Fail a waiting or parked job with ERROR_CANCELLED, a job that already started runs to its end
+   * @return whether the job was still waiting
+   */
+  boolean cancel(String id) {
+    final Entry entry;
+    lock.lock();
+    try {
+      entry = remove(id);
+    } finally {
+      lock.unlock();
+    }
+    if (entry == null) {
+      return false;
+    }
+    entry.job.fail(ERROR_CANCELLED, "job '" + id + "' was cancelled");
+    return true;
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Number of waiting jobs of one priority class
+   */
+  int size(int priority) {
+    lock.lock();
+    try {
+      return queues.get(priority).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int capacity() {
+    lock.lock();
+    try {
+      return capacity;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  static int parsePriority(String priority) {
+    if (priority == null || "normal".equals(priority)) {
+      return PRIORITY_NORMAL;
+    }
+    if ("high".equals(priority)) {
+      return PRIORITY_HIGH;
+    }
+    if ("low".equals(priority)) {
+      return PRIORITY_LOW;
+    }
+    throw new IllegalArgumentException("unknown priority '" + priority + "'");
+  }
+
+  /**
+   * Stop the worker and fail every job that has not started yet
+   */
+  void shutdown() {
+    final List<Entry> pending = new ArrayList<>();
+    lock.lock();
+    try {
+      shutdown = true;
+      for (ArrayDeque<Entry> queue : queues) {
+        pending.addAll(queue);
+        queue.clear();
+      }
+      pending.addAll(parked);
+      parked.clear();
+      byId.clear();
+      size = 0;
+      if (timer != null) {
+        timer.shutdownNow();
+      }
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    for (Entry entry : pending) {
+      entry.job.fail(ERROR_SHUTDOWN, "print queue is shut down");
+    }
+    worker.interrupt();
+  }
+
+  /**
+   * Run task on the timer thread after delayMs, with the lock held
+   * @return the scheduled task, null once shut down
+   */
+  private ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          final Thread thread = new Thread(runnable, worker.getName() + "Timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    try {
+      return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ignored) {
+      // shut down, take() still checks the deadline
+      return null;
+    }
+  }
+
+  private void expire(Entry entry) {
+    lock.lock();
+    try {
+      if (!unlinkWaiting(entry)) {
+        // started or cancelled meanwhile
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    failExpired(entry);
+  }
+
+  private void admissionTimedOut(Entry entry) {
+    final int capacity;
+    lock.lock();
+    try {
+      if (!parked.contains(entry) || !unlinkWaiting(entry)) {
+        // admitted or cancelled meanwhile
+        return;
+      }
+      capacity = this.capacity;
+    } finally {
+      lock.unlock();
+    }
+    entry.job.fail(ERROR_QUEUE_FULL, "print queue stayed full (" + capacity + " jobs) for the wait timeout");
+  }
+
+  /**
+   * Put an entry on the queue of its priority, with the lock held
+   */
+  private void admit(Entry entry) {
+    queues.get(entry.priority).addLast(entry);
+    ++size;
+    notEmpty.signal();
+  }
+
+  /**
+   * Move parked jobs onto the queue while there is room, with the lock held
+   */
+  private void admitParked() {
+    while (size < capacity && !parked.isEmpty()) {
+      final Entry entry = parked.pollFirst();
+      if (entry.admission != null) {
+        entry.admission.cancel(false);
+      }
+      admit(entry);
+    }
+  }
+
+  private static void failExpired(Entry entry) {
+    entry.job.fail(ERROR_DEADLINE_EXCEEDED, "job " + (entry.id != null ? "'" + entry.id + "' " : "") + "did not start before its deadline");
+  }
+
+  /**
+   * Remove a waiting or parked job by id, with the lock held
+   */
+  private Entry remove(String id) {
+    final Entry entry = byId.get(id);
+    if (entry == null || !unlinkWaiting(entry)) {
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Take an entry off its queue or the parked jobs and forget it, with the lock held
+   * @return false if it is on neither, it started or was removed already
+   */
+  private boolean unlinkWaiting(Entry entry) {
+    if (queues.get(entry.priority).remove(entry)) {
+      unlink(entry);
+      return true;
+    }
+    if (parked.remove(entry)) {
+      forget(entry);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Forget an entry taken off its queue, with the lock held
+   */
+  private void unlink(Entry entry) {
+    --size;
+    forget(entry);
+    admitParked();
+    if (size == 0 && gating) {
+      // nobody is left to wait for the gate
+      worker.interrupt();
+    }
+  }
+
+  private void forget(Entry entry) {
+    if (entry.id != null) {
+      byId.remove(entry.id);
+    }
+    if (entry.expiry != null) {
+      entry.expiry.cancel(false);
+    }
+    if (entry.admission != null) {
+      entry.admission.cancel(false);
+    }
+  }
+
+  /**
+   * Block until a job is waiting
+   * @return false once shut down
+   */
+  private boolean awaitJob() throws InterruptedException {
+    lock.lock();
+    try {
+      if (size == 0) {
+        // the jobs that come next get the whole gate timeout
+        gateDeadlineNanos = 0;
+      }
+      while (size == 0 && !shutdown) {
+        notEmpty.await();
+      }
+      return !shutdown;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait until the gate lets the waiting jobs start
+   * @return false if it stayed closed until the shared deadline, every job waiting by then has failed
+   */
+  private boolean openGate() throws InterruptedException {
+    final Gate gate;
+    final long remainingNanos;
+    lock.lock();
+    try {
+      gate = this.gate;
+      if (gate == null || shutdown) {
+        return true;
+      }
+      if (gateDeadlineNanos == 0) {
+        gateDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(gateTimeoutMs);
+      }
+      remainingNanos = gateDeadlineNanos - System.nanoTime();
+      gating = true;
+    } finally {
+      lock.unlock();
+    }
+    boolean open = false;
+    try {
+      open = gate.await(Math.max(0, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+    } finally {
+      lock.lock();
+      try {
+        gating = false;
+        if (open) {
+          // the next time the gate closes the clock starts over
+          gateDeadlineNanos = 0;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    // an interrupt that came after the gate opened is not meant for the job
+    Thread.interrupted();
+    if (open) {
+      return true;
+    }
+    final List<Entry> failed = new ArrayList<>();
+    final String code;
+    final String message;
+    lock.lock();
+    try {
+      code = gateErrorCode;
+      message = gateErrorMessage;
+      for (ArrayDeque<Entry> queue : queues) {
+        failed.addAll(queue);
+        queue.clear();
+      }
+      size = 0;
+      for (Entry entry : failed) {
+        forget(entry);
+      }
+      gateDeadlineNanos = 0;
+      admitParked();
+    } finally {
+      lock.unlock();
+    }
+    for (Entry entry : failed) {
+      entry.job.fail(code, message);
+    }
+    return false;
+  }
+
+  /**
+   * The next job by priority, null if the queue was emptied meanwhile or shut down
+   */
+  private Entry take() {
+    lock.lock();
+    try {
+      if (shutdown) {
+        return null;
+      }
+      for (ArrayDeque<Entry> queue : queues) {
+        final Entry entry = queue.pollFirst();
+        if (entry != null) {
+          unlink(entry);
+          return entry;
+        }
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isShutdown() {
+    lock.lock();
+    try {
+      return shutdown;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void loop() {
+    while (true) {
+      final Entry entry;
+      try {
+        if (!awaitJob()) {
+          return;
+        }
+        if (!openGate()) {
+          continue;
+        }
+      } catch (InterruptedException e) {
+        if (isShutdown()) {
+          return;
+        }
+        // the queue emptied while waiting for the gate
+        continue;
+      }
+      entry = take();
+      if (entry == null) {
+        continue;
+      }
+      if (entry.deadlineNanos != 0 && System.nanoTime() - entry.deadlineNanos > 0) {
+        // the expiry timer did not get to it first
+        failExpired(entry);
+        continue;
+      }
+      final Job job = entry.job;
+      try {
+        job.run();
+      } catch (Exception e) {
+        job.fail("" + 0, String.valueOf(e.getMessage()));
+      }
+    }
+  }
+}
@@ -0,0 +1,331 @@
+package com.sunmiinbuiltprinter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Print jobs kept on disk until the printer confirmed them, keyed by a caller supplied idempotency key.
+ * Every change is one record appended to a journal and synced before the call returns, so a job accepted
+ * here survives the app being killed and is printed again on the next start. The keys of the last
+ * MAX_DONE_KEYS printed jobs are remembered, spooling one of them again does not print it twice.
+ * The journal is rewritten with only the live records once most of it is obsolete.
+ */
+final class PrintSpool {
+
+  static final int MAX_DONE_KEYS = 512;
+
+  /**
+   * compact once the journal is this large and at least twice the size of its live records
+   */
+  static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_DONE = 2;
+
+  // length, type and crc around every record body
+  private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+  static final class Entry {
+    final String key;
+    final byte[] data;
+    final long spooledAt;
+
+    Entry(String key, byte[] data, long spooledAt) {
+      this.key = key;
+      this.data = data;
+      this.spooledAt = spooledAt;
+    }
+  }
+
+  private final File file;
+  private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+  private final LinkedHashSet<String> done = new LinkedHashSet<>();
+  private final CRC32 crc = new CRC32();
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+  private RandomAccessFile journal;
+  private FileChannel channel;
+  private long liveBytes;
+
+  /**
+   * Open the journal, creating it if needed, and load the jobs that were not printed yet
+   * A record cut short by a crash ends the journal, it is dropped.
+   */
+  PrintSpool(File file) throws IOException {
+    this.file = file;
+    final File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("could not create " + parent);
+    }
+    final boolean existed = file.exists();
+    final long valid = existed ? load() : 0;
+    journal = new RandomAccessFile(file, "rw");
+    channel = journal.getChannel();
+    if (!existed) {
+      syncDirectory();
+    }
+    if (channel.size() > valid) {
+      channel.truncate(valid);
+    }
+    channel.position(valid);
+    compactIfNeeded();
+  }
+
+  synchronized boolean isPending(String key) {
+    return pending.containsKey(key);
+  }
+
+  synchronized boolean isDone(String key) {
+    return done.contains(key);
+  }
+
+  /**
+   * Journal a job, it is on disk when this returns
+   * @return the new entry, or null if the key is already pending or was printed
+   */
+  synchronized Entry add(String key, byte[] data) throws IOException {
+    if (pending.containsKey(key) || done.contains(key)) {
+      return null;
+    }
+    final Entry entry = new Entry(key, data, System.currentTimeMillis());
+    append(RECORD_ADD, entry);
+    liveBytes += recordSize(RECORD_ADD, entry);
+    pending.put(key, entry);
+    return entry;
+  }
+
+  /**
+   * Journal that a job was printed (or given up on), it is never printed again
+   */
+  synchronized void done(String key) throws IOException {
+    final Entry entry = pending.remove(key);
+    if (entry == null) {
+      return;
+    }
+    liveBytes -= recordSize(RECORD_ADD, entry);
+    append(RECORD_DONE, new Entry(key, null, System.currentTimeMillis()));
+    remember(key);
+    compactIfNeeded();
+  }
+
+  /**
+   * Jobs not printed yet, oldest first
+   */
+  synchronized List<Entry> pending() {
+    return new ArrayList<>(pending.values());
+  }
+
+  synchronized int pendingCount() {
+    return pending.size();
+  }
+
+  synchronized long journalBytes() throws IOException {
+    return channel.size();
+  }
+
+  synchronized void close() {
+    try {
+      journal.close();
+    } catch (IOException ignored) {
+      // nothing left to write
+    }
+  }
+
+  private void remember(String key) {
+    done.remove(key);
+    done.add(key);
+    if (done.size() > MAX_DONE_KEYS) {
+      final Iterator<String> oldest = done.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+  }
+
+  private void append(byte type, Entry entry) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(encode(type, entry));
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    // fdatasync: the data and the file length, without the other metadata
+    channel.force(false);
+  }
+
+  private byte[] encode(byte type, Entry entry) throws IOException {
+    record.reset();
+    final DataOutputStream out = new DataOutputStream(record);
+    out.writeInt(0);
+    out.writeByte(type);
+    out.writeLong(entry.spooledAt);
+    out.writeUTF(entry.key);
+    if (type == RECORD_ADD) {
+      out.writeInt(entry.data.length);
+      out.write(entry.data);
+    }
+    out.writeInt(0);
+    final byte[] bytes = record.toByteArray();
+    final int bodyLength = bytes.length - RECORD_OVERHEAD;
+    putInt(bytes, 0, bodyLength);
+    crc.reset();
+    crc.update(bytes, 4, bodyLength + 1);
+    putInt(bytes, bytes.length - 4, (int) crc.getValue());
+    return bytes;
+  }
+
+  private static long recordSize(byte type, Entry entry) {
+    // spooledAt, the key as modified UTF-8 (close enough with the UTF-16 length for the compaction estimate)
+    long size = RECORD_OVERHEAD + 8 + 2 + entry.key.length();
+    if (type == RECORD_ADD) {
+      size += 4 + entry.data.length;
+    }
+    return size;
+  }
+
+  /**
+   * Read the journal into pending and done
+   * @return the length of the part that holds complete records
+   */
+  private long load() throws IOException {
+    long valid = 0;
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      while (true) {
+        final int bodyLength;
+        try {
+          bodyLength = in.readInt();
+        } catch (EOFException end) {
+          break;
+        }
+        if (bodyLength < 0 || bodyLength > file.length()) {
+          break;
+        }
+        final byte[] body = new byte[bodyLength + 1];
+        final int checksum;
+        try {
+          in.readFully(body);
+          checksum = in.readInt();
+        } catch (EOFException torn) {
+          break;
+        }
+        crc.reset();
+        crc.update(body, 0, body.length);
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        apply(body);
+        valid += RECORD_OVERHEAD + bodyLength;
+      }
+    } finally {
+      in.close();
+    }
+    return valid;
+  }
+
+  private void apply(byte[] body) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+    final byte type = in.readByte();
+    final long at = in.readLong();
+    final String key = in.readUTF();
+    if (type == RECORD_ADD) {
+      final byte[] data = new byte[in.readInt()];
+      in.readFully(data);
+      final Entry entry = new Entry(key, data, at);
+      pending.put(key, entry);
+      done.remove(key);
+      liveBytes += recordSize(RECORD_ADD, entry);
+    } else if (type == RECORD_DONE) {
+      final Entry entry = pending.remove(key);
+      if (entry != null) {
+        liveBytes -= recordSize(RECORD_ADD, entry);
+      }
+      remember(key);
+    }
+  }
+
+  private void compactIfNeeded() throws IOException {
+    final long size = channel.size();
+    final long live = liveBytes + done.size() * (long) (RECORD_OVERHEAD + 8 + 2 + 16);
+    if (size < COMPACT_MIN_BYTES || size < live * 2) {
+      return;
+    }
+    compact();
+  }
+
+  /**
+   * Rewrite the journal with the pending jobs and the remembered keys, then swap it in atomically
+   */
+  private void compact() throws IOException {
+    final File compacted = new File(file.getPath() + ".compact");
+    final RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+    try {
+      out.setLength(0);
+      for (String key : done) {
+        out.write(encode(RECORD_DONE, new Entry(key, null, 0)));
+      }
+      for (Entry entry : pending.values()) {
+        out.write(encode(RECORD_ADD, entry));
+      }
+      out.getChannel().force(true);
+    } finally {
+      out.close();
+    }
+    // the old journal stays open until the compacted one replaced it, so a failed swap leaves it in use
+    if (!compacted.renameTo(file)) {
+      compacted.delete();
+      throw new IOException("could not replace " + file);
+    }
+    syncDirectory();
+    final RandomAccessFile old = journal;
+    journal = new RandomAccessFile(file, "rw");
+    channel = journal.getChannel();
+    channel.position(channel.size());
+    try {
+      old.close();
+    } catch (IOException ignored) {
+      // it was replaced
+    }
+  }
+
+  /**
+   * Sync the directory of the journal, so a created or renamed journal survives a power loss
+   * Directories can only be opened for that with java.nio.file, from Android 8 on. Older devices skip it.
+   */
+  @SuppressWarnings("NewApi")
+  private void syncDirectory() throws IOException {
+    final File parent = file.getAbsoluteFile().getParentFile();
+    final FileChannel directory;
+    try {
+      directory = FileChannel.open(parent.toPath(), StandardOpenOption.READ);
+    } catch (LinkageError unsupported) {
+      return;
+    }
+    try {
+      directory.force(true);
+    } finally {
+      directory.close();
+    }
+  }
+
+  private static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+}
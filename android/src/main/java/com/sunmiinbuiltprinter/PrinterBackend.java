@@ -0,0 +1,16 @@
+package com.sunmiinbuiltprinter;
+
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+/**
+ * Where the print pipeline gets the printer service from: PrinterConnection on a device, a simulated printer in
+ * the load test, so the test runs the same queue, jobs, callbacks, chunked sends and replays the module does.
+ */
+interface PrinterBackend {
+
+  /**
+   * Block until the service is available
+   * @return the service, or null if it was not available within timeoutMs
+   */
+  SunmiPrinterService awaitService(long timeoutMs) throws InterruptedException;
+}
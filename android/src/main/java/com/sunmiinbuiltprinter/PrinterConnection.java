@@ -0,0 +1,257 @@
+package com.sunmiinbuiltprinter;
+
+import android.content.Context;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.sunmi.peripheral.printer.InnerPrinterCallback;
+import com.sunmi.peripheral.printer.InnerPrinterManager;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the printer service bound.
+ * Binds on connect(), rebinds with exponential backoff when the service goes away (e.g. after it crashed or
+ * was updated) and lets callers wait until the service is available instead of failing on a null service.
+ */
+class PrinterConnection extends InnerPrinterCallback implements PrinterBackend {
+
+  private static final String TAG = "SunmiPrinter_Error";
+
+  static final int STATE_DISCONNECTED = 0;
+  static final int STATE_CONNECTING = 1;
+  static final int STATE_CONNECTED = 2;
+
+  private static final long MIN_BACKOFF_MS = 500;
+  private static final long MAX_BACKOFF_MS = 30000;
+
+  interface Listener {
+    /**
+     * Called whenever the state changes, on the thread that observed the change
+     */
+    void onStateChanged(int state);
+  }
+
+  private final Context context;
+  private final Listener listener;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final List<Runnable> readyWaiters = new ArrayList<>();
+
+  private SunmiPrinterService service;
+  private int state = STATE_DISCONNECTED;
+  private int attempt;
+  private boolean bound;
+  private boolean closed;
+
+  PrinterConnection(Context context, Listener listener) {
+    this.context = context;
+    this.listener = listener;
+  }
+
+  static String stateName(int state) {
+    switch (state) {
+      case STATE_CONNECTED:
+        return "connected";
+      case STATE_CONNECTING:
+        return "connecting";
+      default:
+        return "disconnected";
+    }
+  }
+
+  synchronized int getState() {
+    return state;
+  }
+
+  synchronized SunmiPrinterService getService() {
+    return service;
+  }
+
+  /**
+   * Start binding, safe to call in any state
+   */
+  void connect() {
+    scheduler.execute(new Runnable() {
+      @Override
+      public void run() {
+        bind();
+      }
+    });
+  }
+
+  /**
+   * Block until the service is bound
+   * @return the service, or null if it was not bound within timeoutMs
+   */
+  @Override
+  public synchronized SunmiPrinterService awaitService(long timeoutMs) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMs;
+    long remaining = timeoutMs;
+    while (service == null && !closed && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return service;
+  }
+
+  /**
+   * Run onReady once the service is bound, or onTimeout if that takes longer than timeoutMs
+   * Neither callback blocks a thread while waiting.
+   */
+  void whenReady(long timeoutMs, final Runnable onReady, final Runnable onTimeout) {
+    final Runnable once = new Runnable() {
+      private boolean done;
+
+      @Override
+      public void run() {
+        synchronized (this) {
+          if (done) {
+            return;
+          }
+          done = true;
+        }
+        onReady.run();
+      }
+    };
+    synchronized (this) {
+      if (service == null) {
+        readyWaiters.add(once);
+        scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            synchronized (PrinterConnection.this) {
+              if (!readyWaiters.remove(once)) {
+                return;
+              }
+            }
+            onTimeout.run();
+          }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return;
+      }
+    }
+    once.run();
+  }
+
+  /**
+   * Unbind and stop reconnecting
+   */
+  void close() {
+    synchronized (this) {
+      closed = true;
+      service = null;
+      state = STATE_DISCONNECTED;
+      readyWaiters.clear();
+      notifyAll();
+    }
+    scheduler.shutdownNow();
+    unbind();
+  }
+
+  @Override
+  protected void onConnected(SunmiPrinterService connected) {
+    final List<Runnable> waiters;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      service = connected;
+      attempt = 0;
+      waiters = new ArrayList<>(readyWaiters);
+      readyWaiters.clear();
+      notifyAll();
+    }
+    setState(STATE_CONNECTED);
+    for (Runnable waiter : waiters) {
+      waiter.run();
+    }
+  }
+
+  @Override
+  protected void onDisconnected() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      service = null;
+    }
+    Log.i(TAG, "ERROR: printer service disconnected, reconnecting");
+    setState(STATE_CONNECTING);
+    scheduleRebind();
+  }
+
+  private void bind() {
+    synchronized (this) {
+      if (closed || service != null) {
+        return;
+      }
+    }
+    setState(STATE_CONNECTING);
+    // drop the stale binding of a crashed service before binding again
+    unbind();
+    boolean success;
+    try {
+      success = InnerPrinterManager.getInstance().bindService(context, this);
+    } catch (RemoteException e) {
+      Log.i(TAG, "ERROR: " + e.getMessage());
+      success = false;
+    }
+    synchronized (this) {
+      bound = success;
+    }
+    if (!success) {
+      scheduleRebind();
+    }
+  }
+
+  private void unbind() {
+    synchronized (this) {
+      if (!bound) {
+        return;
+      }
+      bound = false;
+    }
+    try {
+      InnerPrinterManager.getInstance().unBindService(context, this);
+    } catch (RemoteException | RuntimeException e) {
+      Log.i(TAG, "ERROR: " + e.getMessage());
+    }
+  }
+
+  private void scheduleRebind() {
+    final long delay;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      delay = Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << Math.min(attempt, 16));
+      ++attempt;
+    }
+    try {
+      scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          bind();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ignored) {
+      // closed in the meantime
+    }
+  }
+
+  private void setState(int newState) {
+    synchronized (this) {
+      if (state == newState) {
+        return;
+      }
+      state = newState;
+    }
+    listener.onStateChanged(newState);
+  }
+}
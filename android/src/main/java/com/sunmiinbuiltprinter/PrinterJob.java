@@ -0,0 +1,229 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.DeadObjectException;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.facebook.react.bridge.Promise;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+/**
+ * A call queued on the print queue.
+ * It waits for the printer service to be bound before running, and stays unacknowledged until every
+ * result callback it handed out has settled. Unacknowledged jobs are replayed when the service restarts.
+ */
+class PrinterJob implements PrintQueue.Job {
+
+  private static final String TAG = "SunmiPrinter_Error";
+
+  static final String ERROR_NOT_CONNECTED = "PRINTER_NOT_CONNECTED";
+
+  /**
+   * how many times a job is attempted before it is failed for good
+   */
+  static final int MAX_ATTEMPTS = 3;
+
+  interface Call {
+    void run(SunmiPrinterService service, PrinterJob job) throws RemoteException;
+  }
+
+  interface Host {
+    /**
+     * @return the bound service, or null if it went away after the queue started the job
+     */
+    SunmiPrinterService awaitService() throws InterruptedException;
+
+    /**
+     * The job ran but still waits for some of its callbacks
+     */
+    void onUnacknowledged(PrinterJob job);
+
+    /**
+     * The job and all of its callbacks completed
+     */
+    void onAcknowledged(PrinterJob job);
+
+    /**
+     * The service died under the job, run it again once it is back
+     */
+    void replay(PrinterJob job);
+  }
+
+  final Promise promise;
+  private final Call call;
+  private final Host host;
+  private final PrinterMetrics metrics;
+  private final PrinterMetrics.Operation operation;
+  private final long submittedNanos = System.nanoTime();
+
+  // when the current attempt called the printer service
+  private volatile long callNanos;
+
+  private int attempts;
+  private int pendingCallbacks;
+  private boolean running;
+
+  // callbacks from an earlier attempt no longer count towards this one
+  private int generation;
+
+  private volatile Runnable onError;
+
+  /**
+   * @param operation name the job is recorded under in metrics
+   */
+  PrinterJob(String operation, Promise promise, Call call, Host host, PrinterMetrics metrics) {
+    this.promise = promise;
+    this.call = call;
+    this.host = host;
+    this.metrics = metrics;
+    this.operation = metrics.operation(operation);
+  }
+
+  /**
+   * A result callback settling this job's promise
+   */
+  PromiseCallback callback() {
+    return callback(PromiseCallback.MODE_RESULT);
+  }
+
+  synchronized PromiseCallback callback(int mode) {
+    ++pendingCallbacks;
+    final int callbackGeneration = generation;
+    return new PromiseCallback(promise, mode, new PromiseCallback.Listener() {
+      @Override
+      public void onSettled(PromiseCallback callback, String errorCode) {
+        callbackSettled(callbackGeneration, callback, errorCode);
+      }
+    });
+  }
+
+  /**
+   * Count data sent to the printer
+   * @return data, so it can wrap the argument of the service call
+   */
+  byte[] sent(byte[] data) {
+    operation.bytes.addAndGet(data.length);
+    return data;
+  }
+
+  /**
+   * Run action if the job fails once its call started: the call threw, or one of its callbacks reported an error
+   */
+  void onError(Runnable action) {
+    onError = action;
+  }
+
+  /**
+   * Count a call answered without calling the printer service
+   */
+  void skipped() {
+    operation.skipped.incrementAndGet();
+  }
+
+  @Override
+  public void run() throws Exception {
+    final SunmiPrinterService service = host.awaitService();
+    if (service == null) {
+      // back to the head of the queue, which waits for the service again
+      host.replay(this);
+      return;
+    }
+    synchronized (this) {
+      ++attempts;
+      ++generation;
+      pendingCallbacks = 0;
+      running = true;
+    }
+    callNanos = System.nanoTime();
+    if (attempts == 1) {
+      operation.queue.recordNanos(callNanos - submittedNanos);
+    }
+    operation.calls.incrementAndGet();
+    boolean failed = false;
+    try {
+      call.run(service, this);
+    } catch (DeadObjectException e) {
+      Log.i(TAG, "ERROR: printer service died, attempt " + attempts);
+      errored();
+      synchronized (this) {
+        running = false;
+      }
+      if (attempts < MAX_ATTEMPTS) {
+        host.replay(this);
+      } else {
+        fail("" + 0, "printer service died");
+      }
+      return;
+    } catch (RemoteException e) {
+      e.printStackTrace();
+      Log.i(TAG, "ERROR: " + e.getMessage());
+      metrics.recordError(operation, "" + 0);
+      promise.reject("" + 0, e.getMessage());
+      errored();
+      failed = true;
+    }
+    synchronized (this) {
+      running = false;
+      if (pendingCallbacks > 0) {
+        // under the lock, so a callback settling right now is reported after this
+        host.onUnacknowledged(this);
+        return;
+      }
+    }
+    if (!failed) {
+      // a call without result callbacks is complete once it returns
+      operation.callback.recordNanos(System.nanoTime() - callNanos);
+    }
+    host.onAcknowledged(this);
+  }
+
+  /**
+   * Whether the job may be run again after the service restarted
+   */
+  synchronized boolean canReplay() {
+    return attempts < MAX_ATTEMPTS;
+  }
+
+  @Override
+  public void fail(String code, String message) {
+    Log.i(TAG, "ERROR: " + message);
+    metrics.recordError(operation, code);
+    promise.reject(code, message);
+    errored();
+    host.onAcknowledged(this);
+  }
+
+  private void errored() {
+    final Runnable action = onError;
+    if (action != null) {
+      action.run();
+    }
+  }
+
+  private void callbackSettled(int callbackGeneration, PromiseCallback callback, String errorCode) {
+    final long now = System.nanoTime();
+    if (errorCode != null) {
+      metrics.recordError(operation, errorCode);
+      errored();
+    } else {
+      final long runResult = callback.runResultNanos;
+      if (callback.mode == PromiseCallback.MODE_PRINT && runResult != 0) {
+        // the result callback came when printing started, settling waited for the print to complete
+        operation.callback.recordNanos(runResult - callNanos);
+        operation.print.recordNanos(now - runResult);
+      } else {
+        operation.callback.recordNanos(now - callNanos);
+      }
+    }
+    final boolean acknowledged;
+    synchronized (this) {
+      if (callbackGeneration != generation) {
+        return;
+      }
+      acknowledged = --pendingCallbacks == 0 && !running;
+    }
+    if (acknowledged) {
+      host.onAcknowledged(this);
+    }
+  }
+}
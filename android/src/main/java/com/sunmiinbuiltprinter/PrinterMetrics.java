@@ -0,0 +1,217 @@
+package com.sunmiinbuiltprinter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters for every printer operation.
+ * Per operation it records the time from the bridge call to the printer service call (queue), from the service call
+ * to its result callback (callback) and, for buffered prints, from that callback to the print result (print),
+ * plus calls, errors and bytes sent. Recording is lock free so it can stay on in production.
+ */
+final class PrinterMetrics {
+
+  /**
+   * Log-linear histogram of microsecond values, four buckets per power of two (about 25% wide)
+   */
+  static final class Histogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void recordNanos(long nanos) {
+      record(Math.max(0, nanos / 1000));
+    }
+
+    void record(long micros) {
+      counts.incrementAndGet(bucket(micros));
+      count.incrementAndGet();
+      sum.addAndGet(micros);
+      long current;
+      while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+        // retry
+      }
+    }
+
+    static int bucket(long value) {
+      if (value < SUB_BUCKETS) {
+        return (int) value;
+      }
+      final int magnitude = Math.min(MAX_MAGNITUDE, 63 - Long.numberOfLeadingZeros(value));
+      final int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+      return Math.min(BUCKETS - 1, (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub);
+    }
+
+    /**
+     * Smallest value that falls in a bucket
+     */
+    static long lowerBound(int bucket) {
+      if (bucket < SUB_BUCKETS) {
+        return bucket;
+      }
+      final int magnitude = bucket / SUB_BUCKETS + SUB_BITS - 1;
+      return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (magnitude - SUB_BITS);
+    }
+
+    long count() {
+      return count.get();
+    }
+
+    /**
+     * @param quantile 0..1
+     * @return the approximate value in microseconds, the middle of the bucket holding the quantile
+     */
+    long percentile(double quantile) {
+      final long total = count.get();
+      if (total == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+        seen += counts.get(i);
+        if (seen >= rank) {
+          final long low = lowerBound(i);
+          final long high = i + 1 < BUCKETS ? lowerBound(i + 1) : low;
+          return Math.min(max.get(), (low + high) / 2);
+        }
+      }
+      return max.get();
+    }
+
+    void reset() {
+      for (int i = 0; i < BUCKETS; ++i) {
+        counts.set(i, 0);
+      }
+      count.set(0);
+      sum.set(0);
+      max.set(0);
+    }
+
+    /**
+     * count, mean, p50, p90, p99 and max, in milliseconds
+     */
+    Map<String, Object> snapshot() {
+      final Map<String, Object> out = new LinkedHashMap<>();
+      final long n = count.get();
+      out.put("count", (double) n);
+      out.put("mean", n == 0 ? 0.0 : sum.get() / (double) n / 1000.0);
+      out.put("p50", percentile(0.5) / 1000.0);
+      out.put("p90", percentile(0.9) / 1000.0);
+      out.put("p99", percentile(0.99) / 1000.0);
+      out.put("max", max.get() / 1000.0);
+      return out;
+    }
+  }
+
+  static final class Operation {
+    final Histogram queue = new Histogram();
+    final Histogram callback = new Histogram();
+    final Histogram print = new Histogram();
+    final AtomicLong calls = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    // calls answered without calling the printer service, e.g. style setters that would not change anything
+    final AtomicLong skipped = new AtomicLong();
+
+    void reset() {
+      queue.reset();
+      callback.reset();
+      print.reset();
+      calls.set(0);
+      errors.set(0);
+      bytes.set(0);
+      skipped.set(0);
+    }
+
+    Map<String, Object> snapshot() {
+      final Map<String, Object> out = new LinkedHashMap<>();
+      out.put("calls", (double) calls.get());
+      out.put("errors", (double) errors.get());
+      out.put("bytes", (double) bytes.get());
+      out.put("skipped", (double) skipped.get());
+      out.put("queueMs", queue.snapshot());
+      out.put("callbackMs", callback.snapshot());
+      out.put("printMs", print.snapshot());
+      return out;
+    }
+  }
+
+  private final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, AtomicLong> errorCodes = new ConcurrentHashMap<>();
+  private final AtomicLong maxQueueDepth = new AtomicLong();
+  private volatile long since = System.currentTimeMillis();
+
+  Operation operation(String name) {
+    Operation operation = operations.get(name);
+    if (operation == null) {
+      final Operation created = new Operation();
+      operation = operations.putIfAbsent(name, created);
+      if (operation == null) {
+        operation = created;
+      }
+    }
+    return operation;
+  }
+
+  void recordError(Operation operation, String code) {
+    operation.errors.incrementAndGet();
+    AtomicLong counter = errorCodes.get(code);
+    if (counter == null) {
+      final AtomicLong created = new AtomicLong();
+      counter = errorCodes.putIfAbsent(code, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  void recordQueueDepth(int depth) {
+    long current;
+    while (depth > (current = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(current, depth)) {
+      // retry
+    }
+  }
+
+  void reset() {
+    for (Operation operation : operations.values()) {
+      operation.reset();
+    }
+    errorCodes.clear();
+    maxQueueDepth.set(0);
+    since = System.currentTimeMillis();
+  }
+
+  /**
+   * Plain maps, lists and numbers for the bridge
+   */
+  Map<String, Object> snapshot() {
+    final Map<String, Object> out = new LinkedHashMap<>();
+    out.put("since", (double) since);
+    out.put("maxQueueDepth", (double) maxQueueDepth.get());
+    final Map<String, Object> codes = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> entry : errorCodes.entrySet()) {
+      codes.put(entry.getKey(), (double) entry.getValue().get());
+    }
+    out.put("errors", codes);
+    final Map<String, Object> ops = new TreeMap<>();
+    for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+      if (entry.getValue().calls.get() > 0 || entry.getValue().errors.get() > 0) {
+        ops.put(entry.getKey(), entry.getValue().snapshot());
+      }
+    }
+    out.put("operations", ops);
+    return out;
+  }
+}
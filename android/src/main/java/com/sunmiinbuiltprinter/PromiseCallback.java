@@ -0,0 +1,132 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.facebook.react.bridge.Promise;
+import com.sunmi.peripheral.printer.InnerResultCallback;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Result callback bound to the promise of a single request.
+ * Every call gets its own instance, so any number of calls can be in flight and each one settles its own promise.
+ */
+class PromiseCallback extends InnerResultCallback {
+
+  private static final String TAG = "SunmiPrinter_Error";
+
+  private static final AtomicInteger nextRequestId = new AtomicInteger();
+
+  /**
+   * settle on onRunResult
+   */
+  static final int MODE_RESULT = 0;
+
+  /**
+   * settle on onReturnString, e.g. getPrintedLength
+   */
+  static final int MODE_STRING = 1;
+
+  /**
+   * settle on onPrintResult, used for transaction (buffer) printing
+   */
+  static final int MODE_PRINT = 2;
+
+  interface Listener {
+    /**
+     * Called once the promise has been resolved, or rejected with errorCode
+     * @param errorCode null on success
+     */
+    void onSettled(PromiseCallback callback, String errorCode);
+  }
+
+  final int requestId = nextRequestId.incrementAndGet();
+
+  final int mode;
+
+  /**
+   * System.nanoTime() of a successful onRunResult, 0 before it, for buffered prints this is when printing started
+   */
+  volatile long runResultNanos;
+
+  private final Promise promise;
+
+  private final AtomicBoolean settled = new AtomicBoolean();
+
+  private final Listener listener;
+
+  PromiseCallback(Promise promise) {
+    this(promise, MODE_RESULT);
+  }
+
+  PromiseCallback(Promise promise, int mode) {
+    this(promise, mode, null);
+  }
+
+  PromiseCallback(Promise promise, int mode, Listener listener) {
+    this.promise = promise;
+    this.mode = mode;
+    this.listener = listener;
+  }
+
+  @Override
+  public void onRunResult(boolean isSuccess) throws RemoteException {
+    if (!isSuccess) {
+      reject("" + 0, "request " + requestId + " failed");
+      return;
+    }
+    runResultNanos = System.nanoTime();
+    if (mode == MODE_RESULT) {
+      resolve(200);
+    }
+  }
+
+  @Override
+  public void onReturnString(String result) throws RemoteException {
+    if (mode == MODE_STRING) {
+      resolve(result);
+    }
+  }
+
+  @Override
+  public void onRaiseException(int code, String msg) throws RemoteException {
+    reject("" + code, msg);
+  }
+
+  @Override
+  public void onPrintResult(int code, String msg) throws RemoteException {
+    if (mode != MODE_PRINT) {
+      return;
+    }
+    if (code == 0) {
+      resolve(200);
+    } else {
+      reject("" + code, msg);
+    }
+  }
+
+  boolean isSettled() {
+    return settled.get();
+  }
+
+  void resolve(Object value) {
+    if (settled.compareAndSet(false, true)) {
+      promise.resolve(value);
+      if (listener != null) {
+        listener.onSettled(this, null);
+      }
+    }
+  }
+
+  void reject(String code, String msg) {
+    if (settled.compareAndSet(false, true)) {
+      Log.i(TAG, "ERROR: request " + requestId + ": " + msg);
+      promise.reject(code, msg);
+      if (listener != null) {
+        listener.onSettled(this, code);
+      }
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package com.sunmiinbuiltprinter;
+
+/**
+ * A 1-bit image packed for the print head, one bit per dot, most significant bit first,
+ * each row padded to whole bytes. Converts ARGB pixels with the selected dithering and
+ * encodes the result as ESC/POS raster commands (GS v 0).
+ */
+final class RasterImage {
+
+  /**
+   * plain threshold, sharpest for logos, text and line art
+   */
+  static final int DITHER_THRESHOLD = 0;
+
+  /**
+   * 8x8 Bayer ordered dithering, stable patterns and cheap
+   */
+  static final int DITHER_ORDERED = 1;
+
+  /**
+   * Floyd-Steinberg error diffusion, best for photos
+   */
+  static final int DITHER_FLOYD_STEINBERG = 2;
+
+  /**
+   * Rows per GS v 0 command, keeps each command well inside the printer's receive buffer
+   */
+  static final int BAND_HEIGHT = 256;
+
+  private static final int[] BAYER_8X8 = {
+    0, 32, 8, 40, 2, 34, 10, 42,
+    48, 16, 56, 24, 50, 18, 58, 26,
+    12, 44, 4, 36, 14, 46, 6, 38,
+    60, 28, 52, 20, 62, 30, 54, 22,
+    3, 35, 11, 43, 1, 33, 9, 41,
+    51, 19, 59, 27, 49, 17, 57, 25,
+    15, 47, 7, 39, 13, 45, 5, 37,
+    63, 31, 55, 23, 61, 29, 53, 21,
+  };
+
+  final int width;
+  final int height;
+  final int bytesPerRow;
+  final byte[] data;
+
+  RasterImage(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.bytesPerRow = (width + 7) / 8;
+    this.data = new byte[bytesPerRow * height];
+  }
+
+  static int parseDither(String dither) {
+    if (dither == null || "threshold".equals(dither)) {
+      return DITHER_THRESHOLD;
+    }
+    switch (dither) {
+      case "ordered":
+        return DITHER_ORDERED;
+      case "floydSteinberg":
+        return DITHER_FLOYD_STEINBERG;
+      default:
+        throw new IllegalArgumentException("unknown dither '" + dither + "'");
+    }
+  }
+
+  /**
+   * Convert ARGB pixels (transparent is paper white) to a 1-bit image
+   * @param argb width * height pixels, row by row
+   * @param dither one of the DITHER_ constants
+   */
+  static RasterImage fromArgb(int[] argb, int width, int height, int dither) {
+    RasterImage image = new RasterImage(width, height);
+    Rows rows = new Rows() {
+      @Override
+      public void row(int y, int[] out) {
+        System.arraycopy(argb, y * width, out, 0, width);
+      }
+    };
+    image.fill(rows, 0, height, dither);
+    return image;
+  }
+
+  /**
+   * Source of pixel rows, lets callers feed a bitmap row by row without copying it whole
+   */
+  interface Rows {
+    void row(int y, int[] out);
+  }
+
+  /**
+   * Dither rows [from, to) of the source into this image
+   */
+  void fill(Rows rows, int from, int to, int dither) {
+    final int[] row = new int[width];
+    // Floyd-Steinberg error of the current and next row, offset by one so x - 1 and x + 1 need no bounds checks
+    int[] error = dither == DITHER_FLOYD_STEINBERG ? new int[width + 2] : null;
+    int[] nextError = dither == DITHER_FLOYD_STEINBERG ? new int[width + 2] : null;
+    for (int y = from; y < to; ++y) {
+      rows.row(y, row);
+      final int rowStart = y * bytesPerRow;
+      for (int i = rowStart; i < rowStart + bytesPerRow; ++i) {
+        data[i] = 0;
+      }
+      for (int x = 0; x < width; ++x) {
+        int l = luminance(row[x]);
+        boolean black;
+        switch (dither) {
+          case DITHER_ORDERED:
+            black = l < BAYER_8X8[((y & 7) << 3) | (x & 7)] * 4 + 2;
+            break;
+          case DITHER_FLOYD_STEINBERG:
+            l += error[x + 1] >> 4;
+            black = l < 128;
+            final int e = black ? l : l - 255;
+            error[x + 2] += e * 7;
+            nextError[x] += e * 3;
+            nextError[x + 1] += e * 5;
+            nextError[x + 2] += e;
+            break;
+          default:
+            black = l < 128;
+        }
+        if (black) {
+          data[rowStart + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+        }
+      }
+      if (error != null) {
+        int[] swap = error;
+        error = nextError;
+        nextError = swap;
+        for (int i = 0; i < nextError.length; ++i) {
+          nextError[i] = 0;
+        }
+      }
+    }
+  }
+
+  /**
+   * Luminance 0..255 of an ARGB pixel composited onto white paper
+   */
+  static int luminance(int argb) {
+    final int a = argb >>> 24;
+    final int r = (argb >> 16) & 0xFF;
+    final int g = (argb >> 8) & 0xFF;
+    final int b = argb & 0xFF;
+    final int l = (r * 77 + g * 150 + b * 29) >> 8;
+    return (l * a + 255 * (255 - a)) / 255;
+  }
+
+  /**
+   * Size of the ESC/POS encoding produced by toEscPos
+   */
+  int escPosLength() {
+    final int bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    return bands * 8 + data.length;
+  }
+
+  /**
+   * Encode as GS v 0 raster bit image commands, one per band of BAND_HEIGHT rows
+   */
+  byte[] toEscPos() {
+    final byte[] out = new byte[escPosLength()];
+    writeEscPos(out, 0);
+    return out;
+  }
+
+  /**
+   * @return offset after the last byte written
+   */
+  int writeEscPos(byte[] out, int offset) {
+    int pos = offset;
+    for (int y = 0; y < height; y += BAND_HEIGHT) {
+      final int rows = Math.min(BAND_HEIGHT, height - y);
+      out[pos++] = ESCUtil.GS;
+      out[pos++] = 'v';
+      out[pos++] = '0';
+      out[pos++] = 0;
+      out[pos++] = (byte) bytesPerRow;
+      out[pos++] = (byte) (bytesPerRow >> 8);
+      out[pos++] = (byte) rows;
+      out[pos++] = (byte) (rows >> 8);
+      final int length = rows * bytesPerRow;
+      System.arraycopy(data, y * bytesPerRow, out, pos, length);
+      pos += length;
+    }
+    return pos;
+  }
+}
@@ -0,0 +1,455 @@
+package com.sunmiinbuiltprinter;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders a whole receipt onto printer-width pages on a background thread and encodes them as raster images.
+ * Text is laid out and drawn here instead of by the printer service, so the output does not depend on the
+ * fonts or the firmware of the model it is printed on. Text is drawn without anti-aliasing, so pages are
+ * already black and white and threshold to exactly what was drawn; images are dithered on their own first.
+ * Barcodes, QR codes and raw commands stay native ESC/POS between the pages.
+ * Typefaces, paints and glyph widths are cached across receipts, one instance only runs on its render thread.
+ */
+final class ReceiptRenderer {
+
+  /**
+   * the service default font size in pixels, 32 characters per line on 58mm paper
+   */
+  static final float DEFAULT_FONT_SIZE = 24;
+
+  /**
+   * rows of the page bitmap, a full page is encoded as one raster command and drawing starts over
+   */
+  static final int PAGE_HEIGHT = 1024;
+
+  private static final ExecutorService renderExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "SunmiPrinterRender");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final Map<String, Typeface> typefaces = new HashMap<>();
+  private final Map<String, Font> fonts = new HashMap<>();
+  private final EscPosBuilder builder = new EscPosBuilder();
+
+  private Bitmap page;
+  private Canvas canvas;
+  private int[] pixels;
+  private int[] rasterRow;
+
+  // state of the receipt being rendered
+  private int width;
+  private int y;
+  private int align;
+  private float fontSize;
+  private String typeface;
+  private boolean bold;
+  private Font font;
+
+  // text waiting for the end of its line, and the pieces of the printed line being assembled
+  private final List<Run> line = new ArrayList<>();
+  private final List<Run> pieces = new ArrayList<>();
+
+  /**
+   * Render on the render thread
+   * @param width printer width in pixels
+   * @return the ESC/POS encoding of the receipt
+   */
+  Future<byte[]> submit(final List<PrintOp> ops, final int width) {
+    return renderExecutor.submit(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return render(ops, width);
+      }
+    });
+  }
+
+  byte[] render(List<PrintOp> ops, int width) {
+    start(width);
+    try {
+      for (PrintOp op : ops) {
+        op.render(this);
+      }
+      if (!line.isEmpty()) {
+        endLine();
+      }
+      flushPage();
+      return builder.toByteArray();
+    } finally {
+      line.clear();
+      page.eraseColor(Color.WHITE);
+    }
+  }
+
+  private void start(int width) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be positive");
+    }
+    if (page == null || this.width != width) {
+      if (page != null) {
+        page.recycle();
+      }
+      page = Bitmap.createBitmap(width, PAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+      page.eraseColor(Color.WHITE);
+      canvas = new Canvas(page);
+      pixels = new int[width * PAGE_HEIGHT];
+      rasterRow = new int[width];
+      this.width = width;
+    }
+    builder.reset();
+    y = 0;
+    align = EscPosBuilder.ALIGN_LEFT;
+    fontSize = DEFAULT_FONT_SIZE;
+    typeface = null;
+    bold = false;
+    font = null;
+  }
+
+  void align(int alignment) {
+    align = alignment;
+  }
+
+  void fontSize(float size) {
+    fontSize = size;
+    font = null;
+  }
+
+  void typeface(String name) {
+    typeface = name;
+    font = null;
+  }
+
+  void bold(boolean on) {
+    bold = on;
+    font = null;
+  }
+
+  /**
+   * Text like printText: it is printed once a '\n' or a line feed ends its line
+   */
+  void text(String text) {
+    text(text, font());
+  }
+
+  /**
+   * Text like printTextWithFont, the font only applies to this text
+   */
+  void text(String text, String typeface, float size) {
+    text(text, font(typeface, size, bold));
+  }
+
+  private void text(String text, Font font) {
+    int start = 0;
+    for (int newline = text.indexOf('\n'); newline >= 0; newline = text.indexOf('\n', start)) {
+      if (newline > start) {
+        line.add(new Run(text, start, newline, font));
+      }
+      endLine();
+      start = newline + 1;
+    }
+    if (start < text.length()) {
+      line.add(new Run(text, start, text.length(), font));
+    }
+  }
+
+  /**
+   * Like lineWrap, ends the pending line and feeds blank ones
+   */
+  void feed(int lines) {
+    for (int i = 0; i < lines; ++i) {
+      endLine();
+    }
+  }
+
+  /**
+   * Characters per line at the current font size for column layouts, two per CJK character
+   */
+  int gridChars() {
+    return Math.max(1, (int) (width / (fontSize / 2)));
+  }
+
+  /**
+   * Lines laid out by ColumnLayout for gridChars() columns, drawn on a fixed grid so the columns line up
+   * whatever the glyph widths of the font
+   */
+  void grid(CharSequence lines) {
+    if (!line.isEmpty()) {
+      endLine();
+    }
+    final Font font = font();
+    final float cell = (float) width / gridChars();
+    final String text = lines.toString();
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      if (end < 0) {
+        end = text.length();
+      }
+      room(font.height);
+      final float baseline = y + font.ascent;
+      int column = 0;
+      for (int i = start; i < end; ) {
+        final int cp = text.codePointAt(i);
+        final int next = i + Character.charCount(cp);
+        if (cp != ' ') {
+          canvas.drawText(text, i, next, column * cell, baseline, font.paint);
+        }
+        column += ColumnLayout.charWidth(cp);
+        i = next;
+      }
+      y += font.height;
+      start = end + 1;
+    }
+  }
+
+  /**
+   * A 1-bit image at the current alignment, on the page or as its own raster command if it is taller
+   */
+  void image(RasterImage image) {
+    if (!line.isEmpty()) {
+      endLine();
+    }
+    if (image.height > PAGE_HEIGHT || image.width > width) {
+      flushPage();
+      builder.align(align).raster(image);
+      return;
+    }
+    room(image.height);
+    final int left = left(image.width);
+    for (int row = 0; row < image.height; ++row) {
+      final int offset = row * image.bytesPerRow;
+      for (int x = 0; x < image.width; ++x) {
+        final boolean black = (image.data[offset + (x >> 3)] & (0x80 >> (x & 7))) != 0;
+        rasterRow[x] = black ? Color.BLACK : Color.WHITE;
+      }
+      page.setPixels(rasterRow, 0, image.width, left, y + row, image.width, 1);
+    }
+    y += image.height;
+  }
+
+  /**
+   * An operation the printer draws itself, a barcode, a QR code or raw commands, between two pages
+   */
+  void escPos(PrintOp op) {
+    if (!line.isEmpty()) {
+      endLine();
+    }
+    flushPage();
+    builder.align(align);
+    op.encode(builder);
+  }
+
+  private int left(int contentWidth) {
+    switch (align) {
+      case EscPosBuilder.ALIGN_CENTER:
+        return Math.max(0, (width - contentWidth) / 2);
+      case EscPosBuilder.ALIGN_RIGHT:
+        return Math.max(0, width - contentWidth);
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Start a new page if the current one has less than rows left
+   */
+  private void room(int rows) {
+    if (y + rows > PAGE_HEIGHT) {
+      flushPage();
+    }
+  }
+
+  private void flushPage() {
+    if (y == 0) {
+      return;
+    }
+    page.getPixels(pixels, 0, width, 0, 0, width, y);
+    builder.align(EscPosBuilder.ALIGN_LEFT).raster(RasterImage.fromArgb(pixels, width, y, RasterImage.DITHER_THRESHOLD));
+    page.eraseColor(Color.WHITE);
+    y = 0;
+  }
+
+  /**
+   * Print the pending text, wrapped at the paper width, breaking after the last space that fits if any
+   */
+  private void endLine() {
+    if (line.isEmpty()) {
+      final Font font = font();
+      room(font.height);
+      y += font.height;
+      return;
+    }
+    float x = 0;
+    for (Run run : line) {
+      final String text = run.text;
+      int start = run.start;
+      int lastSpace = -1;
+      int i = start;
+      while (i < run.end) {
+        final float w = run.font.width(text.charAt(i));
+        if (x + w > width && (x > 0 || i > start)) {
+          // break after the last space, else before this character; when end == start the earlier runs filled
+          // the line and this one starts over on the next
+          final int end = lastSpace >= start ? lastSpace + 1 : i;
+          if (end > start) {
+            pieces.add(new Run(text, start, end, run.font));
+          }
+          printPieces();
+          x = 0;
+          start = i = end;
+          lastSpace = -1;
+          continue;
+        }
+        if (text.charAt(i) == ' ') {
+          lastSpace = i;
+        }
+        x += w;
+        ++i;
+      }
+      if (start < run.end) {
+        pieces.add(new Run(text, start, run.end, run.font));
+      }
+    }
+    printPieces();
+    line.clear();
+  }
+
+  private void printPieces() {
+    int height = 0;
+    float ascent = 0;
+    float lineWidth = 0;
+    for (Run piece : pieces) {
+      height = Math.max(height, piece.font.height);
+      ascent = Math.max(ascent, piece.font.ascent);
+      lineWidth += piece.width();
+    }
+    if (pieces.isEmpty()) {
+      height = font().height;
+    }
+    room(height);
+    float x = left((int) Math.ceil(lineWidth));
+    for (Run piece : pieces) {
+      canvas.drawText(piece.text, piece.start, piece.end, x, y + ascent, piece.font.paint);
+      x += piece.width();
+    }
+    y += height;
+    pieces.clear();
+  }
+
+  private Font font() {
+    if (font == null) {
+      font = font(typeface, fontSize, bold);
+    }
+    return font;
+  }
+
+  private Font font(String typefaceName, float size, boolean bold) {
+    final String key = typefaceName + '|' + size + '|' + bold;
+    Font cached = fonts.get(key);
+    if (cached == null) {
+      cached = new Font(typeface(typefaceName, bold), size);
+      fonts.put(key, cached);
+    }
+    return cached;
+  }
+
+  private Typeface typeface(String name, boolean bold) {
+    final String key = name + '|' + bold;
+    Typeface cached = typefaces.get(key);
+    if (cached == null) {
+      final int style = bold ? Typeface.BOLD : Typeface.NORMAL;
+      cached = name == null ? Typeface.create(Typeface.DEFAULT, style) : Typeface.create(name, style);
+      typefaces.put(key, cached);
+    }
+    return cached;
+  }
+
+  /**
+   * A typeface at one size with its paint, line metrics and the advance of every glyph measured so far
+   */
+  private static final class Font {
+    final Paint paint;
+    final float ascent;
+    final int height;
+
+    // advances of the Latin-1 glyphs, measured together on first use, and of the others one by one
+    private float[] latin;
+    private final HashMap<Character, Float> others = new HashMap<>();
+    private final float[] measured = new float[1];
+
+    Font(Typeface typeface, float size) {
+      paint = new Paint();
+      // anti-aliased edges would be thresholded differently depending on the renderer, plain pixels are exact
+      paint.setAntiAlias(false);
+      paint.setColor(Color.BLACK);
+      paint.setTypeface(typeface);
+      paint.setTextSize(size);
+      final Paint.FontMetrics metrics = paint.getFontMetrics();
+      ascent = -metrics.ascent;
+      height = (int) Math.ceil(metrics.descent - metrics.ascent + metrics.leading);
+    }
+
+    float width(char c) {
+      if (c < 256) {
+        if (latin == null) {
+          final StringBuilder chars = new StringBuilder(256);
+          for (char l = 0; l < 256; ++l) {
+            chars.append(l);
+          }
+          latin = new float[256];
+          paint.getTextWidths(chars.toString(), 0, 256, latin);
+        }
+        return latin[c];
+      }
+      Float cached = others.get(c);
+      if (cached == null) {
+        paint.getTextWidths(String.valueOf(c), 0, 1, measured);
+        cached = measured[0];
+        others.put(c, cached);
+      }
+      return cached;
+    }
+  }
+
+  /**
+   * Text [start, end) drawn in one font
+   */
+  private static final class Run {
+    final String text;
+    final int start;
+    final int end;
+    final Font font;
+
+    Run(String text, int start, int end, Font font) {
+      this.text = text;
+      this.start = start;
+      this.end = end;
+      this.font = font;
+    }
+
+    float width() {
+      float width = 0;
+      for (int i = start; i < end; ++i) {
+        width += font.width(text.charAt(i));
+      }
+      return width;
+    }
+  }
+}
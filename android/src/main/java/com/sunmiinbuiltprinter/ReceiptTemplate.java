@@ -0,0 +1,370 @@
+package com.sunmiinbuiltprinter;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A receipt layout compiled once into ESC/POS.
+ * The definition uses the printEscPos operations; text, columns, qrCode and barCode strings may contain
+ * {{field}} placeholders and { type: 'each', field, ops } repeats its operations for every entry of a list field.
+ * Everything without a placeholder is encoded when the template is registered, so printing only encodes the fields.
+ */
+final class ReceiptTemplate {
+
+  private interface Part {
+    void write(EscPosBuilder builder, Fields fields);
+  }
+
+  final String id;
+
+  /**
+   * number of pre-encoded segments and their total size
+   */
+  final int segments;
+  final int staticBytes;
+
+  private final Part[] parts;
+
+  private ReceiptTemplate(String id, List<Part> parts) {
+    this.id = id;
+    this.parts = parts.toArray(new Part[0]);
+    final int[] totals = new int[2];
+    countStatic(this.parts, totals);
+    this.segments = totals[0];
+    this.staticBytes = totals[1];
+  }
+
+  /**
+   * @param ops template definition
+   */
+  static ReceiptTemplate compile(String id, ReadableArray ops) {
+    final EscPosBuilder pending = new EscPosBuilder();
+    final List<Part> parts = compileAll(ops, pending);
+    return new ReceiptTemplate(id, parts);
+  }
+
+  /**
+   * Append the receipt for one set of field values
+   * @param data field values, strings, numbers, booleans or lists of maps for 'each'
+   */
+  void write(EscPosBuilder builder, Map<String, Object> data) {
+    writeAll(parts, builder, new Fields(data, null));
+  }
+
+  private static void writeAll(Part[] parts, EscPosBuilder builder, Fields fields) {
+    for (Part part : parts) {
+      part.write(builder, fields);
+    }
+  }
+
+  private static List<Part> compileAll(ReadableArray ops, EscPosBuilder pending) {
+    final List<Part> parts = new ArrayList<>();
+    for (int i = 0; i < ops.size(); ++i) {
+      try {
+        compile(ops.getMap(i), pending, parts);
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid operation at index " + i + ": " + e.getMessage(), e);
+      }
+    }
+    flush(pending, parts);
+    return parts;
+  }
+
+  private static void compile(ReadableMap op, EscPosBuilder pending, List<Part> parts) {
+    final String type = op.getString("type");
+    if ("each".equals(type)) {
+      flush(pending, parts);
+      final String field = op.getString("field");
+      final List<Part> body = compileAll(op.getArray("ops"), pending);
+      parts.add(new Each(field, body.toArray(new Part[0])));
+      return;
+    }
+    final Part dynamic = dynamicPart(type, op);
+    if (dynamic != null) {
+      flush(pending, parts);
+      parts.add(dynamic);
+      return;
+    }
+    PrintOp.decode(op, PrintOp.TARGET_ESC_POS).encode(pending);
+  }
+
+  /**
+   * @return the part to encode at print time, or null if the operation can be encoded right away
+   */
+  private static Part dynamicPart(String type, ReadableMap op) {
+    if (type == null) {
+      return null;
+    }
+    switch (type) {
+      case "text": {
+        final Pattern text = Pattern.parse(op.getString("text"));
+        return text.isConstant() ? null : new TextPart(text);
+      }
+      case "columns": {
+        // the layout depends on the paper width and character size, so columns are always laid out when printing
+        final ReadableArray texts = op.getArray("texts");
+        final Pattern[] patterns = new Pattern[texts.size()];
+        for (int i = 0; i < patterns.length; ++i) {
+          patterns[i] = Pattern.parse(texts.getString(i));
+        }
+        final int[] widths = PrintOp.toIntArray(op.getArray("widths"));
+        final int[] aligns = PrintOp.toIntArray(op.getArray("aligns"));
+        if (patterns.length != widths.length || patterns.length != aligns.length) {
+          throw new IllegalArgumentException("texts, widths and aligns must have the same length");
+        }
+        return new ColumnsPart(patterns, widths, aligns);
+      }
+      case "qrCode": {
+        final Pattern data = Pattern.parse(op.getString("data"));
+        return data.isConstant() ? null : new QRCodePart(data, op.getInt("moduleSize"), op.getInt("errorLevel"));
+      }
+      case "barCode": {
+        final Pattern data = Pattern.parse(op.getString("data"));
+        return data.isConstant() ? null : new BarCodePart(data, op.getInt("symbology"), op.getInt("height"),
+          op.getInt("width"), op.getInt("textPosition"));
+      }
+      case "registeredImage": {
+        // looked up when printing so re-registering the image updates the template
+        final PrintOp image = PrintOp.decode(op, PrintOp.TARGET_ESC_POS);
+        return new Part() {
+          @Override
+          public void write(EscPosBuilder builder, Fields fields) {
+            image.encode(builder);
+          }
+        };
+      }
+      default:
+        return null;
+    }
+  }
+
+  private static void flush(EscPosBuilder pending, List<Part> parts) {
+    if (pending.size() == 0) {
+      return;
+    }
+    final int charSize = pending.charSize();
+    final Charset charset = pending.charset();
+    parts.add(new Static(pending.toByteArray(), charSize, charset));
+    pending.reset().assumeCharSize(charSize).charset(charset);
+  }
+
+  private static void countStatic(Part[] parts, int[] totals) {
+    for (Part part : parts) {
+      if (part instanceof Static) {
+        ++totals[0];
+        totals[1] += ((Static) part).bytes.length;
+      } else if (part instanceof Each) {
+        countStatic(((Each) part).body, totals);
+      }
+    }
+  }
+
+  /**
+   * Field values for one print, an 'each' entry sees its own fields and those of the enclosing scopes
+   */
+  private static final class Fields {
+    final Map<String, Object> values;
+    final Fields parent;
+
+    Fields(Map<String, Object> values, Fields parent) {
+      this.values = values;
+      this.parent = parent;
+    }
+
+    Object get(String name) {
+      for (Fields scope = this; scope != null; scope = scope.parent) {
+        if (scope.values != null && scope.values.containsKey(name)) {
+          return scope.values.get(name);
+        }
+      }
+      return null;
+    }
+
+    String getString(String name) {
+      final Object value = get(name);
+      if (value == null) {
+        throw new IllegalArgumentException("missing field '" + name + "'");
+      }
+      if (value instanceof Double) {
+        final double number = (Double) value;
+        // JS numbers arrive as doubles, print whole numbers without ".0"
+        if (number == Math.rint(number) && !Double.isInfinite(number) && Math.abs(number) < 1e15) {
+          return Long.toString((long) number);
+        }
+      }
+      return String.valueOf(value);
+    }
+  }
+
+  /**
+   * A string with {{field}} placeholders, split into literal pieces and field names
+   */
+  private static final class Pattern {
+    // literals at even indexes, field names at odd ones
+    private final String[] pieces;
+
+    private Pattern(String[] pieces) {
+      this.pieces = pieces;
+    }
+
+    static Pattern parse(String text) {
+      if (text == null) {
+        throw new IllegalArgumentException("missing text");
+      }
+      final List<String> pieces = new ArrayList<>();
+      int from = 0;
+      while (true) {
+        final int open = text.indexOf("{{", from);
+        final int close = open < 0 ? -1 : text.indexOf("}}", open + 2);
+        if (close < 0) {
+          pieces.add(text.substring(from));
+          break;
+        }
+        pieces.add(text.substring(from, open));
+        final String name = text.substring(open + 2, close).trim();
+        if (name.isEmpty()) {
+          throw new IllegalArgumentException("empty placeholder in '" + text + "'");
+        }
+        pieces.add(name);
+        from = close + 2;
+      }
+      return new Pattern(pieces.toArray(new String[0]));
+    }
+
+    boolean isConstant() {
+      return pieces.length == 1;
+    }
+
+    String fill(Fields fields) {
+      if (pieces.length == 1) {
+        return pieces[0];
+      }
+      final StringBuilder out = new StringBuilder();
+      for (int i = 0; i < pieces.length; ++i) {
+        out.append((i & 1) == 0 ? pieces[i] : fields.getString(pieces[i]));
+      }
+      return out.toString();
+    }
+  }
+
+  private static final class Static implements Part {
+    final byte[] bytes;
+    // character size and code page in effect at the end of the segment
+    final int charSize;
+    final Charset charset;
+
+    Static(byte[] bytes, int charSize, Charset charset) {
+      this.bytes = bytes;
+      this.charSize = charSize;
+      this.charset = charset;
+    }
+
+    @Override
+    public void write(EscPosBuilder builder, Fields fields) {
+      builder.raw(bytes).assumeCharSize(charSize).charset(charset);
+    }
+  }
+
+  private static final class Each implements Part {
+    final String field;
+    final Part[] body;
+
+    Each(String field, Part[] body) {
+      this.field = field;
+      this.body = body;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(EscPosBuilder builder, Fields fields) {
+      final Object value = fields.get(field);
+      if (value == null) {
+        return;
+      }
+      if (!(value instanceof List)) {
+        throw new IllegalArgumentException("field '" + field + "' must be a list");
+      }
+      for (Object entry : (List<Object>) value) {
+        final Map<String, Object> values = entry instanceof Map ? (Map<String, Object>) entry : null;
+        writeAll(body, builder, new Fields(values, fields));
+      }
+    }
+  }
+
+  private static final class TextPart implements Part {
+    final Pattern text;
+
+    TextPart(Pattern text) {
+      this.text = text;
+    }
+
+    @Override
+    public void write(EscPosBuilder builder, Fields fields) {
+      builder.text(text.fill(fields));
+    }
+  }
+
+  private static final class ColumnsPart implements Part {
+    final Pattern[] texts;
+    final int[] widths;
+    final int[] aligns;
+
+    ColumnsPart(Pattern[] texts, int[] widths, int[] aligns) {
+      this.texts = texts;
+      this.widths = widths;
+      this.aligns = aligns;
+    }
+
+    @Override
+    public void write(EscPosBuilder builder, Fields fields) {
+      final String[] filled = new String[texts.length];
+      for (int i = 0; i < filled.length; ++i) {
+        filled[i] = texts[i].fill(fields);
+      }
+      new PrintOp.Columns(filled, widths, aligns).encode(builder);
+    }
+  }
+
+  private static final class QRCodePart implements Part {
+    final Pattern data;
+    final int moduleSize;
+    final int errorLevel;
+
+    QRCodePart(Pattern data, int moduleSize, int errorLevel) {
+      this.data = data;
+      this.moduleSize = moduleSize;
+      this.errorLevel = errorLevel;
+    }
+
+    @Override
+    public void write(EscPosBuilder builder, Fields fields) {
+      builder.qrCode(data.fill(fields), moduleSize, errorLevel);
+    }
+  }
+
+  private static final class BarCodePart implements Part {
+    final Pattern data;
+    final int symbology;
+    final int height;
+    final int width;
+    final int textPosition;
+
+    BarCodePart(Pattern data, int symbology, int height, int width, int textPosition) {
+      this.data = data;
+      this.symbology = symbology;
+      this.height = height;
+      this.width = width;
+      this.textPosition = textPosition;
+    }
+
+    @Override
+    public void write(EscPosBuilder builder, Fields fields) {
+      builder.barcode(data.fill(fields), symbology, height, width, textPosition);
+    }
+  }
+}
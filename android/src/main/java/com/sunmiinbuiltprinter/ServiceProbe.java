@@ -0,0 +1,68 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+
+import com.sunmi.peripheral.printer.InnerResultCallback;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The flow control probe of the bound printer service: updatePrinterState and getPrintedLength.
+ */
+final class ServiceProbe implements FlowControl.Probe {
+
+  /**
+   * how long to wait for getPrintedLength to answer
+   */
+  static final long PRINTED_LENGTH_TIMEOUT_MS = 1000;
+
+  private final SunmiPrinterService service;
+
+  ServiceProbe(SunmiPrinterService service) {
+    this.service = service;
+  }
+
+  @Override
+  public int state() throws RemoteException {
+    return service.updatePrinterState();
+  }
+
+  /**
+   * @return the printed length in millimetres, -1 if the printer does not answer in time or not with a number
+   */
+  @Override
+  public double printedMm() throws RemoteException, InterruptedException {
+    final CountDownLatch answered = new CountDownLatch(1);
+    final String[] length = new String[1];
+    service.getPrintedLength(new InnerResultCallback() {
+      @Override
+      public void onRunResult(boolean isSuccess) throws RemoteException {
+      }
+
+      @Override
+      public void onReturnString(String result) throws RemoteException {
+        length[0] = result;
+        answered.countDown();
+      }
+
+      @Override
+      public void onRaiseException(int code, String msg) throws RemoteException {
+        answered.countDown();
+      }
+
+      @Override
+      public void onPrintResult(int code, String msg) throws RemoteException {
+      }
+    });
+    if (!answered.await(PRINTED_LENGTH_TIMEOUT_MS, TimeUnit.MILLISECONDS) || length[0] == null) {
+      return -1;
+    }
+    try {
+      return Double.parseDouble(length[0].trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
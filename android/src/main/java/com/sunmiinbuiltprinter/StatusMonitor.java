@@ -0,0 +1,260 @@
+package com.sunmiinbuiltprinter;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the printer and cash drawer state natively and reports only changes.
+ * The printer service status broadcasts trigger an immediate check; between them the state is polled,
+ * quickly right after a change or while the printer is not ready and backing off while nothing happens.
+ */
+class StatusMonitor {
+
+  private static final String TAG = "SunmiPrinter_Error";
+
+  /**
+   * reported while the printer service is not bound
+   */
+  static final int STATE_DISCONNECTED = 0;
+  static final int STATE_NORMAL = 1;
+
+  static final long DEFAULT_MIN_INTERVAL_MS = 250;
+  static final long DEFAULT_MAX_INTERVAL_MS = 5000;
+
+  // broadcasts sent by the printer service, the misspelled ACITON actions are the real names
+  private static final String[] STATUS_ACTIONS = {
+    "woyou.aidlservice.jiuv5.INIT_ACTION",
+    "woyou.aidlservice.jiuv5.FIRMWARE_UPDATING_ACITON",
+    "woyou.aidlservice.jiuv5.NORMAL_ACTION",
+    "woyou.aidlservice.jiuv5.ERROR_ACTION",
+    "woyou.aidlservice.jiuv5.OUT_OF_PAPER_ACTION",
+    "woyou.aidlservice.jiuv5.OVER_HEATING_ACITON",
+    "woyou.aidlservice.jiuv5.NORMAL_HEATING_ACITON",
+    "woyou.aidlservice.jiuv5.COVER_OPEN_ACTION",
+    "woyou.aidlservice.jiuv5.COVER_ERROR_ACTION",
+    "woyou.aidlservice.jiuv5.KNIFE_ERROR_1_ACTION",
+    "woyou.aidlservice.jiuv5.KNIFE_ERROR_2_ACTION",
+    "woyou.aidlservice.jiuv5.PRINTER_NON_EXISTENT_ACITON",
+    "woyou.aidlservice.jiuv5.BLACKLABEL_NON_EXISTENT_ACITON",
+  };
+
+  interface Listener {
+    /**
+     * Called on the monitor thread, only when the printer state or the drawer state changed
+     */
+    void onStatusChanged(int printerState, boolean drawerOpen);
+  }
+
+  private final Context context;
+  private final PrinterConnection connection;
+  private final Listener listener;
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private final BroadcastReceiver receiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context c, Intent intent) {
+      checkNow();
+    }
+  };
+
+  private long minIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+  private long maxIntervalMs = DEFAULT_MAX_INTERVAL_MS;
+  private boolean running;
+  private ScheduledFuture<?> nextCheck;
+  private boolean reportNext;
+  private boolean fast;
+  private long interval = DEFAULT_MIN_INTERVAL_MS;
+  private int lastState = -1;
+  private boolean lastDrawerOpen;
+
+  // only touched on the monitor thread
+  private boolean drawerSupported = true;
+
+  StatusMonitor(Context context, PrinterConnection connection, Listener listener) {
+    this.context = context;
+    this.connection = connection;
+    this.listener = listener;
+  }
+
+  static String stateName(int state) {
+    switch (state) {
+      case STATE_DISCONNECTED:
+        return "disconnected";
+      case STATE_NORMAL:
+        return "normal";
+      case 2:
+        return "preparing";
+      case 3:
+        return "communicationError";
+      case 4:
+        return "outOfPaper";
+      case 5:
+        return "overheated";
+      case 6:
+        return "coverOpen";
+      case 7:
+        return "cutterError";
+      case 8:
+        return "cutterRecovered";
+      case 9:
+        return "blackMarkNotFound";
+      case 505:
+        return "noPrinter";
+      case 507:
+        return "firmwareUpdateFailed";
+      default:
+        return "unknown";
+    }
+  }
+
+  /**
+   * @param minIntervalMs poll interval right after a change and while the printer is not ready
+   * @param maxIntervalMs poll interval the monitor backs off to while nothing changes
+   */
+  synchronized void setIntervals(long minIntervalMs, long maxIntervalMs) {
+    if (minIntervalMs < 1 || maxIntervalMs < minIntervalMs) {
+      throw new IllegalArgumentException("expected 0 < minIntervalMs <= maxIntervalMs");
+    }
+    this.minIntervalMs = minIntervalMs;
+    this.maxIntervalMs = maxIntervalMs;
+  }
+
+  synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    final IntentFilter filter = new IntentFilter();
+    for (String action : STATUS_ACTIONS) {
+      filter.addAction(action);
+    }
+    context.registerReceiver(receiver, filter);
+    // the first check always reports, so a new listener learns the current state
+    reportNext = true;
+    schedule(0);
+  }
+
+  synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    if (nextCheck != null) {
+      nextCheck.cancel(false);
+      nextCheck = null;
+    }
+    try {
+      context.unregisterReceiver(receiver);
+    } catch (IllegalArgumentException ignored) {
+      // not registered
+    }
+  }
+
+  void close() {
+    stop();
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Check right away and poll quickly again, e.g. after a status broadcast or a connection change
+   */
+  synchronized void checkNow() {
+    if (!running) {
+      return;
+    }
+    fast = true;
+    schedule(0);
+  }
+
+  private void check() {
+    boolean drawerOpen;
+    synchronized (this) {
+      // this check is running, a checkNow() from here on schedules another one
+      nextCheck = null;
+      drawerOpen = lastDrawerOpen;
+    }
+    final SunmiPrinterService service = connection.getService();
+    int state = STATE_DISCONNECTED;
+    if (service != null) {
+      try {
+        state = service.updatePrinterState();
+        if (drawerSupported) {
+          drawerOpen = readDrawer(service);
+        }
+      } catch (RemoteException e) {
+        Log.i(TAG, "ERROR: " + e.getMessage());
+        state = STATE_DISCONNECTED;
+      }
+    }
+
+    final boolean changed;
+    synchronized (this) {
+      if (!running) {
+        return;
+      }
+      changed = reportNext || state != lastState || drawerOpen != lastDrawerOpen;
+      if (changed || fast || state != STATE_NORMAL) {
+        interval = minIntervalMs;
+      } else {
+        interval = Math.min(maxIntervalMs, interval * 2);
+      }
+      reportNext = false;
+      fast = false;
+      lastState = state;
+      lastDrawerOpen = drawerOpen;
+    }
+    if (changed) {
+      listener.onStatusChanged(state, drawerOpen);
+    }
+    synchronized (this) {
+      schedule(interval);
+    }
+  }
+
+  private boolean readDrawer(SunmiPrinterService service) throws RemoteException {
+    try {
+      return service.getDrawerStatus();
+    } catch (RuntimeException e) {
+      // devices without a drawer port do not implement getDrawerStatus
+      drawerSupported = false;
+      return false;
+    }
+  }
+
+  /**
+   * Keep at most one check pending, the earlier one wins
+   */
+  private void schedule(long delayMs) {
+    if (!running) {
+      return;
+    }
+    if (nextCheck != null && !nextCheck.isDone()) {
+      if (nextCheck.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+        return;
+      }
+      nextCheck.cancel(false);
+    }
+    try {
+      nextCheck = scheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          check();
+        }
+      }, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException ignored) {
+      // closed
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.sunmiinbuiltprinter;
+
+import com.sunmi.peripheral.printer.WoyouConsts;
+
+import java.util.HashMap;
+
+/**
+ * Shadow copy of the style the module last set on the printer: alignment, font size, typeface, bold and
+ * every setPrinterStyle key. Setters that would not change it are answered without calling the printer service.
+ * A value is unknown until it was set, and everything goes back to unknown whenever something else may have
+ * changed the printer state: printerInit, raw ESC/POS data, buffer mode and a service restart. A setter whose
+ * call fails makes its own value unknown again.
+ */
+final class StyleState {
+
+  // the setPrinterStyle keys (WoyouConsts) are positive, so the other settings use negative keys
+  static final int ALIGNMENT = -1;
+  static final int FONT_SIZE = -2;
+  static final int TYPEFACE = -3;
+  static final int BOLD = -4;
+
+  /**
+   * setFontWeight and setPrinterStyle(ENABLE_BOLD) both switch bold, setting one makes the other unknown
+   */
+  private void forgetOtherBold(int key) {
+    if (key == BOLD) {
+      known.remove(WoyouConsts.ENABLE_BOLD);
+    } else if (key == WoyouConsts.ENABLE_BOLD) {
+      known.remove(BOLD);
+    }
+  }
+
+  private final HashMap<Integer, Object> known = new HashMap<>();
+
+  /**
+   * Record a setting that is about to be sent
+   * @return false if the printer already has this value and the call can be skipped
+   */
+  synchronized boolean update(int key, Object value) {
+    if (value.equals(known.get(key))) {
+      return false;
+    }
+    known.put(key, value);
+    forgetOtherBold(key);
+    return true;
+  }
+
+  /**
+   * Forget one setting, e.g. after the call that set it failed, the next setter of its kind goes to the printer
+   */
+  synchronized void forget(int key) {
+    known.remove(key);
+  }
+
+  /**
+   * Forget everything, the next setter of every kind goes to the printer
+   */
+  synchronized void reset() {
+    known.clear();
+  }
+}
@@ -1,13 +1,19 @@
 package com.sunmiinbuiltprinter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.PromiseImpl;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.module.annotations.ReactModule;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -27,61 +33,167 @@ import com.sunmi.peripheral.printer.SunmiPrinterService;
 import com.sunmi.peripheral.printer.TransBean;
 import com.sunmi.peripheral.printer.WoyouConsts;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 @ReactModule(name = SunmiInbuiltPrinterModule.NAME)
-public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
+public class SunmiInbuiltPrinterModule extends SunmiInbuiltPrinterSpec {
   public static final String NAME = "SunmiInbuiltPrinter";
 
-  private Promise p;
+  private static final String TAG = "SunmiPrinter_Error";
 
-  private SunmiPrinterService printerService;
+  private static final int DEFAULT_QUEUE_CAPACITY = 512;
 
-  private static final String TAG = "SunmiPrinter_Error";
+  static final BitmapDecoder bitmapDecoder = new BitmapDecoder();
 
-  private InnerResultCallback innerResultCallback = new InnerResultCallback() {
-    @Override
-    public void onRunResult(boolean isSuccess) throws RemoteException {
-      if (isSuccess) {
-        p.resolve(200);
-      } else {
-        p.reject("" + 0);
-      }
-    }
-    
-    @Override
-    public void onReturnString(String result) throws RemoteException {
+  static final ImageCache imageCache = new ImageCache(ImageCache.DEFAULT_MAX_BYTES);
 
-    }
+  static final String ERROR_IMAGE_NOT_REGISTERED = "IMAGE_NOT_REGISTERED";
 
-    @Override
-    public void onRaiseException(int code, String msg) throws RemoteException {
+  static final String ERROR_TEMPLATE_NOT_REGISTERED = "TEMPLATE_NOT_REGISTERED";
 
-    }
+  static final String ERROR_JOB_NOT_CACHED = "JOB_NOT_CACHED";
 
-    @Override
-    public void onPrintResult(int code, String msg) throws RemoteException {
+  /**
+   * templates compiled by registerTemplate, by id
+   */
+  static final Map<String, ReceiptTemplate> templates = new ConcurrentHashMap<>();
 
-    }
-  };
+  /**
+   * every call that reaches the printer service runs on this queue, in call order
+   */
+  private final PrintQueue printQueue = new PrintQueue(DEFAULT_QUEUE_CAPACITY, "SunmiPrinterQueue");
 
-  InnerPrinterCallback innerPrinterCallback = new InnerPrinterCallback() {
-    @Override
-    protected void onConnected(SunmiPrinterService service) {
-      printerService = service;
-    }
+  /**
+   * reused for every ESC/POS job, only touched from the print queue
+   */
+  private final EscPosBuilder escPosBuilder = new EscPosBuilder();
+
+  /**
+   * encoded receipts by job id for printCopies and reprint, receipts without an id under ANONYMOUS_JOB_ID
+   */
+  private final JobCache jobCache = new JobCache(JobCache.DEFAULT_MAX_BYTES);
+
+  private static final String ANONYMOUS_JOB_ID = "";
+
+  /**
+   * lays out printRenderedReceipt receipts, only touched from its render thread
+   */
+  private final ReceiptRenderer renderer = new ReceiptRenderer();
+
+  // characters per line of the paper loaded in the bound printer, asked from the print queue and the spool thread
+  private SunmiPrinterService paperService;
+  private int paperChars;
+
+  /**
+   * queues the calls, waits for the service and replays what it did not acknowledge before it died
+   */
+  private final PrintPipeline pipeline;
+
+  private final PrinterConnection connection;
+
+  /**
+   * the style last set on the printer, setters that would not change it skip the service call
+   */
+  private final StyleState style = new StyleState();
 
+  /**
+   * latency, error and byte counts per operation, see getPrinterMetrics
+   */
+  static final PrinterMetrics metrics = new PrinterMetrics();
+
+  /**
+   * event emitted with { state, status, drawerOpen } whenever the printer or drawer state changes
+   */
+  static final String EVENT_STATUS_CHANGED = "SunmiPrinterStatusChanged";
+
+  private final StatusMonitor statusMonitor;
+
+  /**
+   * paces chunked sends by the printer state and printed length, see setFlowControlOptions
+   */
+  private final FlowControl flowControl = new FlowControl();
+
+  private int statusListenerCount;
+
+  static final String ERROR_SPOOL_UNAVAILABLE = "SPOOL_UNAVAILABLE";
+
+  static final long SPOOL_SHUTDOWN_TIMEOUT_MS = 2000;
+
+  /**
+   * jobs journaled until the printer confirmed them, see spoolRAWData, null if the journal could not be opened
+   */
+  private final PrintSpool spool;
+
+  // keys of spooled jobs that are on the print queue right now
+  private final Set<String> spoolInFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * encodes, journals and queues spooled jobs, so neither the printer paper query nor the journal sync block the
+   * native modules thread; a job is journaled and queued in one task, so a retry never sees it in between
+   */
+  private final ExecutorService spoolExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
     @Override
-    protected void onDisconnected() {
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "SunmiPrinterSpool");
+      thread.setDaemon(true);
+      return thread;
     }
-  };
+  });
 
   public SunmiInbuiltPrinterModule(ReactApplicationContext reactContext) {
     super(reactContext);
+    connection = new PrinterConnection(reactContext, new PrinterConnection.Listener() {
+      @Override
+      public void onStateChanged(int state) {
+        // a restarted service starts from its defaults
+        style.reset();
+        if (state != PrinterConnection.STATE_CONNECTED) {
+          pipeline.replayUnacknowledged();
+        } else {
+          // spooled jobs that failed while the service was away
+          retrySpooledLater();
+        }
+        statusMonitor.checkNow();
+      }
+    });
+    statusMonitor = new StatusMonitor(reactContext, connection, new StatusMonitor.Listener() {
+      @Override
+      public void onStatusChanged(int printerState, boolean drawerOpen) {
+        flowControl.onPrinterState(printerState);
+        emitStatus(printerState, drawerOpen);
+      }
+    });
+    pipeline = new PrintPipeline(connection, printQueue, flowControl, metrics);
+    spool = openSpool(reactContext);
+    connection.connect();
+    retrySpooledLater();
+  }
+
+  private static PrintSpool openSpool(Context context) {
     try {
-      InnerPrinterManager.getInstance().bindService(reactContext, innerPrinterCallback);
-    } catch (RemoteException e) {
-      Log.i(TAG, "ERROR: " + e.getMessage());
+      return new PrintSpool(new File(context.getFilesDir(), "sunmi-printer/spool.journal"));
+    } catch (IOException e) {
+      Log.i(TAG, "ERROR: could not open the print spool: " + e.getMessage());
+      return null;
     }
   }
 
@@ -91,6 +203,290 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
     return NAME;
   }
 
+  @Override
+  public void invalidate() {
+    statusMonitor.close();
+    connection.close();
+    printQueue.shutdown();
+    spoolExecutor.shutdown();
+    try {
+      // a job being journaled finishes before the journal is closed
+      spoolExecutor.awaitTermination(SPOOL_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (spool != null) {
+      spool.close();
+    }
+    bitmapDecoder.trim();
+    super.invalidate();
+  }
+
+  /**
+   * Run a printer call on the print queue once the service is bound, rejecting the promise if the queue is full,
+   * the service does not come up in time or the call throws
+   * @param operation name the call is recorded under in the printer metrics
+   * @param promise
+   * @param call
+   */
+  private void enqueue(String operation, final Promise promise, final PrinterJob.Call call) {
+    enqueue(operation, promise, call, PrintQueue.PRIORITY_NORMAL, null, 0);
+  }
+
+  /**
+   * enqueue with scheduling options
+   * @param priority one of the PrintQueue.PRIORITY_ constants
+   * @param id to cancel the job by with cancelJob, null for none
+   * @param deadlineMs reject the job if it has not started within this many milliseconds, 0 for no deadline
+   */
+  private void enqueue(String operation, final Promise promise, final PrinterJob.Call call, int priority,
+                       @Nullable String id, long deadlineMs) {
+    pipeline.enqueue(operation, promise, call, priority, id, deadlineMs);
+  }
+
+  /**
+   * Wrap a call that sends raw ESC/POS or otherwise changes the style behind the shadow state's back
+   */
+  private PrinterJob.Call rawCall(final PrinterJob.Call call) {
+    return (service, job) -> {
+      style.reset();
+      call.run(service, job);
+    };
+  }
+
+  /**
+   * Answer a style setter that would not change the printer state without calling the service
+   * The value is recorded as sent, and forgotten again if the call fails.
+   * @return whether the call was skipped
+   */
+  private boolean skipUnchanged(PrinterJob job, int key, Object value) {
+    if (style.update(key, value)) {
+      // the printer keeps its old value if the call fails
+      job.onError(() -> style.forget(key));
+      return false;
+    }
+    job.skipped();
+    job.promise.resolve(200);
+    return true;
+  }
+
+  /**
+   * Current state of the printer service binding: 'connected', 'connecting' or 'disconnected'
+   */
+  @ReactMethod
+  public void getConnectionState(Promise promise) {
+    promise.resolve(PrinterConnection.stateName(connection.getState()));
+  }
+
+  /**
+   * Synchronous variant of hasPrinter, answered from the cached connection state without a queue round trip
+   */
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public boolean hasPrinterSync() {
+    return connection.getService() != null;
+  }
+
+  /**
+   * Synchronous variant of getConnectionState
+   */
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public String getConnectionStateSync() {
+    return PrinterConnection.stateName(connection.getState());
+  }
+
+  /**
+   * Synchronous variant of getQueueDepth
+   */
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public double getQueueDepthSync() {
+    return printQueue.size();
+  }
+
+  /**
+   * Resolve true once the printer service is bound, reject if that takes longer than timeoutMs
+   */
+  @ReactMethod
+  public void awaitReady(double timeoutMs, final Promise promise) {
+    connection.whenReady((long) timeoutMs, new Runnable() {
+      @Override
+      public void run() {
+        promise.resolve(true);
+      }
+    }, new Runnable() {
+      @Override
+      public void run() {
+        promise.reject(PrinterJob.ERROR_NOT_CONNECTED, "printer service not bound after " + (long) timeoutMs + "ms");
+      }
+    });
+  }
+
+  private void emitStatus(int printerState, boolean drawerOpen) {
+    final ReactApplicationContext context = getReactApplicationContext();
+    if (!context.hasActiveCatalystInstance()) {
+      return;
+    }
+    final WritableMap status = Arguments.createMap();
+    status.putInt("state", printerState);
+    status.putString("status", StatusMonitor.stateName(printerState));
+    status.putBoolean("drawerOpen", drawerOpen);
+    context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(EVENT_STATUS_CHANGED, status);
+  }
+
+  /**
+   * Called by NativeEventEmitter, the status monitor runs while there are listeners
+   */
+  @ReactMethod
+  public void addListener(String eventName) {
+    synchronized (statusMonitor) {
+      if (statusListenerCount++ == 0) {
+        statusMonitor.start();
+      }
+    }
+  }
+
+  @ReactMethod
+  public void removeListeners(double count) {
+    synchronized (statusMonitor) {
+      statusListenerCount = Math.max(0, statusListenerCount - (int) count);
+      if (statusListenerCount == 0) {
+        statusMonitor.stop();
+      }
+    }
+  }
+
+  /**
+   * Configure the status monitor polling
+   * @param options { minIntervalMs, maxIntervalMs } the monitor polls every minIntervalMs after a change and
+   *                while the printer is not ready, and backs off to maxIntervalMs while nothing changes
+   */
+  @ReactMethod
+  public void setStatusMonitorOptions(ReadableMap options, Promise promise) {
+    try {
+      final long minIntervalMs = options.hasKey("minIntervalMs")
+        ? (long) options.getDouble("minIntervalMs") : StatusMonitor.DEFAULT_MIN_INTERVAL_MS;
+      final long maxIntervalMs = options.hasKey("maxIntervalMs")
+        ? (long) options.getDouble("maxIntervalMs") : StatusMonitor.DEFAULT_MAX_INTERVAL_MS;
+      statusMonitor.setIntervals(minIntervalMs, maxIntervalMs);
+      promise.resolve(200);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+    }
+  }
+
+  /**
+   * Latency histograms (queueMs, callbackMs, printMs), calls, errors and bytes sent per operation,
+   * error counts per code and the queue depth, since the last reset
+   */
+  @ReactMethod
+  public void getPrinterMetrics(Promise promise) {
+    final Map<String, Object> snapshot = metrics.snapshot();
+    snapshot.put("queueDepth", (double) printQueue.size());
+    promise.resolve(Arguments.makeNativeMap(snapshot));
+  }
+
+  /**
+   * Start the metrics over, resolves the snapshot taken just before
+   */
+  @ReactMethod
+  public void resetPrinterMetrics(Promise promise) {
+    final Map<String, Object> snapshot = metrics.snapshot();
+    snapshot.put("queueDepth", (double) printQueue.size());
+    metrics.reset();
+    promise.resolve(Arguments.makeNativeMap(snapshot));
+  }
+
+  /**
+   * Configure the print queue
+   * @param options { capacity, policy: 'reject' | 'wait', waitTimeoutMs }
+   *                with 'wait' a call that finds the queue full is held back until there is room, its promise is
+   *                rejected with QUEUE_FULL if none frees up within waitTimeoutMs
+   */
+  @ReactMethod
+  public void setQueueOptions(ReadableMap options, Promise promise) {
+    try {
+      final int capacity = options.hasKey("capacity") ? options.getInt("capacity") : printQueue.capacity();
+      final int policy = options.hasKey("policy") && "wait".equals(options.getString("policy"))
+        ? PrintQueue.POLICY_WAIT : PrintQueue.POLICY_REJECT;
+      final long waitTimeoutMs = options.hasKey("waitTimeoutMs") ? (long) options.getDouble("waitTimeoutMs") : 5000;
+      printQueue.configure(capacity, policy, waitTimeoutMs);
+      promise.resolve(200);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+    }
+  }
+
+  /**
+   * Number of calls waiting on the print queue
+   */
+  @ReactMethod
+  public void getQueueDepth(Promise promise) {
+    promise.resolve(printQueue.size());
+  }
+
+  /**
+   * Pace raw data by what the printer actually printed, so long reports pause instead of failing mid-report
+   * While enabled, every ESC/POS job is sent in chunks. Before each chunk the printer state and printed length
+   * are checked every pollIntervalMs: sending pauses while the printer is overheated or more than highWaterMm of
+   * paper is sent but not printed, and resumes once it is normal again and below lowWaterMm. A chunk the service
+   * refused because its buffer was full is sent again after the pause.
+   * @param options { enabled, highWaterMm, lowWaterMm, pollIntervalMs, maxPauseMs, idleMs, paperSpeed,
+   *                coolDensity, coolSpeed, normalDensity, normalSpeed, coolDownMs } the density and speed
+   *                (GS ( K) values are sent after an overheat and restored coolDownMs after the last one, -1 for none
+   */
+  @ReactMethod
+  public void setFlowControlOptions(ReadableMap options, Promise promise) {
+    final FlowControl.Options flow = new FlowControl.Options();
+    flow.enabled = !options.hasKey("enabled") || options.getBoolean("enabled");
+    if (options.hasKey("highWaterMm")) {
+      flow.highWaterMm = options.getDouble("highWaterMm");
+    }
+    if (options.hasKey("lowWaterMm")) {
+      flow.lowWaterMm = options.getDouble("lowWaterMm");
+    }
+    if (options.hasKey("pollIntervalMs")) {
+      flow.pollIntervalMs = (long) options.getDouble("pollIntervalMs");
+    }
+    if (options.hasKey("maxPauseMs")) {
+      flow.maxPauseMs = (long) options.getDouble("maxPauseMs");
+    }
+    if (options.hasKey("idleMs")) {
+      flow.idleMs = (long) options.getDouble("idleMs");
+    }
+    if (options.hasKey("paperSpeed")) {
+      flow.paperSpeedMmPerSecond = options.getDouble("paperSpeed");
+    }
+    if (options.hasKey("coolDensity")) {
+      flow.coolDensity = options.getInt("coolDensity");
+    }
+    if (options.hasKey("coolSpeed")) {
+      flow.coolSpeed = options.getInt("coolSpeed");
+    }
+    if (options.hasKey("normalDensity")) {
+      flow.normalDensity = options.getInt("normalDensity");
+    }
+    if (options.hasKey("normalSpeed")) {
+      flow.normalSpeed = options.getInt("normalSpeed");
+    }
+    if (options.hasKey("coolDownMs")) {
+      flow.coolDownMs = (long) options.getDouble("coolDownMs");
+    }
+    try {
+      flowControl.configure(flow);
+      promise.resolve(200);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+    }
+  }
+
+  /**
+   * Flow control state: { enabled, paused, reason: 'overheated' | 'bufferFull' | null, backlogMm, pauses,
+   * pausedMs, timeouts }
+   */
+  @ReactMethod
+  public void getFlowControlState(Promise promise) {
+    promise.resolve(Arguments.makeNativeMap(flowControl.snapshot()));
+  }
+
 
   @ReactMethod
   public void multiply(double a, double b, Promise promise) {
@@ -103,16 +499,19 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * so Unfinished print jobs will continue after reset
    */
   @ReactMethod
-  public void printerInit() throws RemoteException {
-    printerService.printerInit(innerResultCallback);
+  public void printerInit(Promise promise) {
+    enqueue("printerInit", promise, (service, job) -> {
+      style.reset();
+      service.printerInit(job.callback());
+    });
   }
 
   /**
    * self checking
    */
   @ReactMethod
-  public void printerSelfChecking() throws RemoteException {
-    printerService.printerSelfChecking(innerResultCallback);
+  public void printerSelfChecking(Promise promise) {
+    enqueue("printerSelfChecking", promise, rawCall((service, job) -> service.printerSelfChecking(job.callback())));
   }
 
   /**
@@ -120,13 +519,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getPrinterSerialNo(Promise promise) {
-    try {
-      promise.resolve(printerService.getPrinterSerialNo());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getPrinterSerialNo", promise, (service, job) -> promise.resolve(service.getPrinterSerialNo()));
   }
 
   /**
@@ -134,13 +527,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getPrinterVersion(Promise promise) {
-    try {
-      promise.resolve(printerService.getPrinterVersion());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getPrinterVersion", promise, (service, job) -> promise.resolve(service.getPrinterVersion()));
   }
 
   /**
@@ -148,13 +535,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getPrinterModal(Promise promise) {
-    try {
-      promise.resolve(printerService.getPrinterModal());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getPrinterModal", promise, (service, job) -> promise.resolve(service.getPrinterModal()));
   }
 
   /**
@@ -164,13 +545,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getPrinterPaper(Promise promise) {
-    try {
-      promise.resolve(printerService.getPrinterPaper());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getPrinterPaper", promise, (service, job) -> promise.resolve(service.getPrinterPaper()));
   }
 
   /**
@@ -178,13 +553,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void updatePrinterState(Promise promise) {
-    try {
-      promise.resolve(printerService.updatePrinterState());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("updatePrinterState", promise, (service, job) -> promise.resolve(service.updatePrinterState()));
   }
 
   /**
@@ -194,13 +563,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getServiceVersion(Promise promise) {
-    try {
-      promise.resolve(printerService.getServiceVersion());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getServiceVersion", promise, (service, job) -> promise.resolve(service.getServiceVersion()));
   }
 
   /**
@@ -209,8 +572,8 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * Different, that is, the mobile phone obtains the printing length through the ICallback callback interface, and the desktop directly obtains the length through the return value.
    */
   @ReactMethod
-  public void getPrintedLength() throws RemoteException {
-    printerService.getPrintedLength(innerResultCallback);
+  public void getPrintedLength(Promise promise) {
+    enqueue("getPrintedLength", promise, (service, job) -> service.getPrintedLength(job.callback(PromiseCallback.MODE_STRING)));
   }
 
   /**
@@ -218,26 +581,106 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void hasPrinter(Promise promise) {
-    final boolean hasPrinterService = printerService != null;
+    final boolean hasPrinterService = connection.getService() != null;
     promise.resolve(hasPrinterService);
   }
 
   /**
    * Print ESC/POS format instructions
    * data byte[]
+   * Payloads larger than ChunkedSend.MAX_CHUNK_SIZE are sent like sendRAWDataChunked, a single binder
+   * transaction that size would risk a TransactionTooLargeException.
+   */
+  @ReactMethod
+  public void sendRAWData(String base64Data, Promise promise) {
+    if (base64Data.length() / 4 * 3 > ChunkedSend.MAX_CHUNK_SIZE) {
+      sendRAWDataChunked(base64Data, 0, promise);
+      return;
+    }
+    enqueue("sendRAWData", promise, rawCall((service, job) -> {
+      final byte[] d = Base64.decode(base64Data, Base64.DEFAULT);
+      pipeline.sendData(service, job, d);
+    }));
+  }
+
+  /**
+   * Send raw ESC/POS data in chunks, decoding the base64 string one chunk at a time
+   * @param base64Data base64 or data URI
+   * @param chunkSize bytes per sendRAWData call, 0 for the default of 16KB
+   */
+  @ReactMethod
+  public void sendRAWDataChunked(final String base64Data, double chunkSize, Promise promise) {
+    enqueue("sendRAWDataChunked", promise, rawCall(new ChunkedSend(new ChunkedSend.Source() {
+      @Override
+      public InputStream open() {
+        return new DataUri.Stream(base64Data);
+      }
+    }, (int) chunkSize, flowControl)));
+  }
+
+  /**
+   * Send raw ESC/POS data from a file in chunks, e.g. a long report written by the app
+   * @param path absolute path or file:// URI
+   * @param chunkSize bytes per sendRAWData call, 0 for the default of 16KB
    */
   @ReactMethod
-  public void sendRAWData(String base64Data) throws RemoteException {
-    final byte[] d = Base64.decode(base64Data, Base64.DEFAULT);
-    printerService.sendRAWData(d, innerResultCallback);
+  public void sendRAWFile(String path, double chunkSize, Promise promise) {
+    final File file = new File(path.startsWith("file://") ? path.substring("file://".length()) : path);
+    if (!file.isFile()) {
+      promise.reject("" + 0, "no file at '" + path + "'");
+      return;
+    }
+    enqueue("sendRAWFile", promise, rawCall(new ChunkedSend(new ChunkedSend.Source() {
+      @Override
+      public InputStream open() throws IOException {
+        return new FileInputStream(file);
+      }
+    }, (int) chunkSize, flowControl)));
+  }
+
+  /**
+   * Print plain text encoded natively to a printer code page, for reports of thousands of lines
+   * The whole text becomes one ESC/POS block sent with a single sendRAWData call (chunked past
+   * ChunkedSend.MAX_CHUNK_SIZE) instead of one printText call per line. The printer is switched back
+   * to GB18030 afterwards.
+   * @param text lines separated by '\n'
+   * @param codepage 'gb18030' (default), 'cp437', 'cp850', 'cp852', 'cp857', 'cp858', 'cp860', 'cp863',
+   *                 'cp865', 'cp866', 'cp737' or 'cp1252'
+   * @param promise
+   */
+  @ReactMethod
+  public void printRawText(String text, @Nullable String codepage, Promise promise) {
+    final byte[] data;
+    try {
+      final TextEncoder.Codepage selected = codepage == null ? TextEncoder.GB18030 : TextEncoder.codepage(codepage);
+      final EscPosBuilder builder = new EscPosBuilder(text.length() + 16);
+      data = builder.codepage(selected).text(text).restoreCodepage().toByteArray();
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    if (data.length > ChunkedSend.MAX_CHUNK_SIZE) {
+      enqueue("printRawText", promise, rawCall(new ChunkedSend(new ChunkedSend.Source() {
+        @Override
+        public InputStream open() {
+          return new ByteArrayInputStream(data);
+        }
+      }, ChunkedSend.MAX_CHUNK_SIZE, flowControl)));
+      return;
+    }
+    enqueue("printRawText", promise, rawCall((service, job) -> pipeline.sendData(service, job, data)));
   }
 
   /**
    * Set custom font
    */
   @ReactMethod
-  public void setFontName(String typeface) throws RemoteException {
-    printerService.setFontName(typeface, innerResultCallback);
+  public void setFontName(String typeface, Promise promise) {
+    enqueue("setFontName", promise, (service, job) -> {
+      if (!skipUnchanged(job, StyleState.TYPEFACE, typeface)) {
+        service.setFontName(typeface, job.callback());
+      }
+    });
   }
 
   /**
@@ -245,8 +688,13 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param value
    */
   @ReactMethod
-  public void setPrinterStyle(int key, int value) throws RemoteException {
-    printerService.setPrinterStyle(key, value);
+  public void setPrinterStyle(double key, double value, Promise promise) {
+    enqueue("setPrinterStyle", promise, (service, job) -> {
+      if (!skipUnchanged(job, (int) key, (int) value)) {
+        service.setPrinterStyle((int) key, (int) value);
+        promise.resolve(200);
+      }
+    });
   }
 
   /**
@@ -254,8 +702,12 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * Global method, affecting subsequent execution, canceling related settings when printer is initialized.
    */
   @ReactMethod
-  public void setAlignment(int alignment) throws RemoteException {
-    printerService.setAlignment(alignment, innerResultCallback);
+  public void setAlignment(double alignment, Promise promise) {
+    enqueue("setAlignment", promise, (service, job) -> {
+      if (!skipUnchanged(job, StyleState.ALIGNMENT, (int) alignment)) {
+        service.setAlignment((int) alignment, job.callback());
+      }
+    });
   }
 
   /**
@@ -267,8 +719,12 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param fontSize
    */
   @ReactMethod
-  public void setFontSize(float fontSize) throws RemoteException {
-    printerService.setFontSize(fontSize, innerResultCallback);
+  public void setFontSize(double fontSize, Promise promise) {
+    enqueue("setFontSize", promise, (service, job) -> {
+      if (!skipUnchanged(job, StyleState.FONT_SIZE, (float) fontSize)) {
+        service.setFontSize((float) fontSize, job.callback());
+      }
+    });
   }
 
   /**
@@ -276,12 +732,18 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param isWeight
    */
   @ReactMethod
-  public void setFontWeight(boolean isWeight) throws RemoteException {
-    if (isWeight) {
-      printerService.sendRAWData(ESCUtil.boldOn(), null);
-    } else {
-      printerService.sendRAWData(ESCUtil.boldOff(), null);
-    }
+  public void setFontWeight(boolean isWeight, Promise promise) {
+    enqueue("setFontWeight", promise, (service, job) -> {
+      if (skipUnchanged(job, StyleState.BOLD, isWeight)) {
+        return;
+      }
+      if (isWeight) {
+        service.sendRAWData(EscPosBuilder.BOLD_ON, null);
+      } else {
+        service.sendRAWData(EscPosBuilder.BOLD_OFF, null);
+      }
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -291,8 +753,11 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param text
    */
   @ReactMethod
-  public void printerText(String text) throws RemoteException {
-    printerService.printText(text, null);
+  public void printerText(String text, Promise promise) {
+    enqueue("printerText", promise, (service, job) -> {
+      service.printText(text, null);
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -303,8 +768,11 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param fontsize
    */
   @ReactMethod
-  public void printTextWithFont(String text, String typeface, float fontsize) throws RemoteException {
-    printerService.printTextWithFont(text, typeface, fontsize, null);
+  public void printTextWithFont(String text, String typeface, double fontsize, Promise promise) {
+    enqueue("printTextWithFont", promise, (service, job) -> {
+      service.printTextWithFont(text, typeface, (float) fontsize, null);
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -313,8 +781,11 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param text
    */
   @ReactMethod
-  public void printOriginalText(String text) throws RemoteException {
-    printerService.printOriginalText(text, null);
+  public void printOriginalText(String text, Promise promise) {
+    enqueue("printOriginalText", promise, (service, job) -> {
+      service.printOriginalText(text, null);
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -351,24 +822,37 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param colsAlign
    */
   @ReactMethod
-  public void printColumnsString(ReadableArray colsTextArr, ReadableArray colsWidthArr, ReadableArray colsAlign) throws
-    RemoteException {
-    String[] texts = new String[colsTextArr.size()];
-
-    for (int j = 0; j < colsTextArr.size(); ++j) {
-      texts[j] = colsTextArr.getString(j);
-    }
-
-    int[] widths = new int[colsWidthArr.size()];
-    for (int j = 0; j < colsWidthArr.size(); ++j) {
-      widths[j] = colsWidthArr.getInt(j);
-    }
+  public void printColumnsString(ReadableArray colsTextArr, ReadableArray colsWidthArr, ReadableArray colsAlign, Promise promise) {
+    final String[] texts = PrintOp.toStringArray(colsTextArr);
+    final int[] widths = PrintOp.toIntArray(colsWidthArr);
+    final int[] aligns = PrintOp.toIntArray(colsAlign);
+    enqueue("printColumnsString", promise, (service, job) -> {
+      service.printColumnsString(texts, widths, aligns, null);
+      promise.resolve(200);
+    });
+  }
 
-    int[] aligns = new int[colsAlign.size()];
-    for (int j = 0; j < colsAlign.size(); ++j) {
-      aligns[j] = colsAlign.getInt(j);
+  /**
+   * Print a whole table in one call
+   * The rows are laid out natively, wide (CJK) characters count as two columns and cells that do not fit are
+   * wrapped, truncated or cut with an ellipsis, then everything is sent as one block of ESC/POS text.
+   * @param columns [{ width, align, overflow: 'wrap' | 'truncate' | 'ellipsis' }], widths are weights like printColumnsString
+   * @param rows one array of cells per row
+   */
+  @ReactMethod
+  public void printTable(ReadableArray columns, ReadableArray rows, final Promise promise) {
+    final PrintOp.Table table;
+    try {
+      table = PrintOp.Table.decode(columns, rows, 1);
+    } catch (RuntimeException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
     }
-    printerService.printColumnsString(texts, widths, aligns, null);
+    enqueue("printTable", promise, rawCall((service, job) -> {
+      escPosBuilder.reset().paperChars(paperChars(service));
+      table.encode(escPosBuilder);
+      service.sendRAWData(job.sent(escPosBuilder.toByteArray()), job.callback());
+    }));
   }
 
   /**
@@ -379,14 +863,25 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param pixelWidth
    */
   @ReactMethod
-  public void printBitmap(String encodedString, int pixelWidth) throws RemoteException {
-    final String pureBase64Encoded = encodedString.substring(encodedString.indexOf(",")  + 1);
-    final byte[] decodedBytes = Base64.decode(pureBase64Encoded, Base64.DEFAULT);
-    Bitmap decodedBitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
-    int w = decodedBitmap.getWidth();
-    Integer h = decodedBitmap.getHeight();
-    Bitmap scaledImage = Bitmap.createScaledBitmap(decodedBitmap, pixelWidth, (pixelWidth / w) * h, false);
-    printerService.printBitmap(scaledImage, innerResultCallback);
+  public void printBitmap(String encodedString, double pixelWidth, Promise promise) {
+    enqueue("printBitmap", promise, (service, job) -> {
+      final Bitmap bitmap = decodeBitmap(encodedString, (int) pixelWidth);
+      try {
+        service.printBitmap(bitmap, job.callback());
+      } finally {
+        bitmapDecoder.release(bitmap);
+      }
+    });
+  }
+
+  /**
+   * Decode a base64 (or data URI) image to the given pixel width, keeping the aspect ratio
+   * Hand the result back to bitmapDecoder.release once it has been sent to the printer.
+   * @param encodedString
+   * @param pixelWidth
+   */
+  static Bitmap decodeBitmap(String encodedString, int pixelWidth) {
+    return bitmapDecoder.decode(DataUri.decode(encodedString), pixelWidth);
   }
 
   /**
@@ -397,17 +892,139 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param newLine
    */
   @ReactMethod
-  public void printBitmapImage(String encodedString, int w, int h, boolean newLine) throws RemoteException {
-    final String pureBase64Encoded = encodedString.substring(encodedString.indexOf(",")  + 1);
-    final byte[] decodedBytes = Base64.decode(pureBase64Encoded, Base64.DEFAULT);
-    Bitmap decodedBitmap = BitmapFactory.decodeByteArray(decodedBytes, 0, decodedBytes.length);
-    Bitmap scaledImage = Bitmap.createScaledBitmap(decodedBitmap, w, h, false);
-    printerService.printBitmap(scaledImage, innerResultCallback);
-    //go to next line
+  public void printBitmapImage(String encodedString, double w, double h, boolean newLine, Promise promise) {
+    enqueue("printBitmapImage", promise, (service, job) -> {
+      final Bitmap scaledImage = bitmapDecoder.decode(DataUri.decode(encodedString), (int) w, (int) h);
+      try {
+        service.printBitmap(scaledImage, job.callback());
+      } finally {
+        bitmapDecoder.release(scaledImage);
+      }
+      //go to next line
+
+      if (newLine) {
+        service.lineWrap(1, null);
+      }
+    });
+  }
+
+  /**
+   * Print an image as an ESC/POS raster bit image
+   * The image is dithered to 1 bit per dot here and sent with sendRAWData, which is a fraction
+   * of the size of a full bitmap going to the printer service.
+   * @param encodedString base64 or data URI
+   * @param pixelWidth
+   * @param dither 'threshold', 'ordered' or 'floydSteinberg'
+   */
+  @ReactMethod
+  public void printRasterImage(String encodedString, double pixelWidth, @Nullable String dither, Promise promise) {
+    final int ditherMode;
+    try {
+      ditherMode = RasterImage.parseDither(dither);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    enqueue("printRasterImage", promise, (service, job) -> {
+      final Bitmap bitmap = decodeBitmap(encodedString, (int) pixelWidth);
+      final RasterImage image;
+      try {
+        image = BitmapDecoder.toRaster(bitmap, ditherMode);
+      } finally {
+        bitmapDecoder.release(bitmap);
+      }
+      service.sendRAWData(job.sent(image.toEscPos()), job.callback());
+    });
+  }
+
+  /**
+   * Print an image of any height, e.g. a long rendered report or a signed delivery slip
+   * It is decoded in bands of TallImage.BAND_HEIGHT rows with BitmapRegionDecoder and printed as raster data,
+   * so it is not bound by the pixel limit of printBitmap and memory stays at about two bands.
+   * @param source content:// or file:// URI, absolute path, base64 or data URI
+   * @param pixelWidth
+   * @param dither 'threshold', 'ordered' or 'floydSteinberg'
+   */
+  @ReactMethod
+  public void printTallImage(String source, double pixelWidth, @Nullable String dither, Promise promise) {
+    final TallImage image;
+    try {
+      image = new TallImage(getReactApplicationContext(), source, (int) pixelWidth, RasterImage.parseDither(dither));
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    enqueue("printTallImage", promise, new ChunkedSend(image, image.bandBytes(), flowControl));
+  }
 
-    if (newLine) {
-      printerService.lineWrap(1, null);
+  /**
+   * Register an image that is printed often (e.g. the store logo)
+   * It is decoded, scaled and dithered once and kept in the image cache,
+   * print it with printRegisteredImage(key) instead of sending it again.
+   * @param key
+   * @param encodedString base64 or data URI
+   * @param pixelWidth
+   * @param dither 'threshold', 'ordered' or 'floydSteinberg'
+   */
+  @ReactMethod
+  public void registerImage(String key, String encodedString, double pixelWidth, @Nullable String dither, Promise promise) {
+    final int ditherMode;
+    try {
+      ditherMode = RasterImage.parseDither(dither);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
     }
+    enqueue("registerImage", promise, (service, job) -> {
+      final RasterImage prepared = imageCache.register(key, DataUri.decode(encodedString), (int) pixelWidth, ditherMode,
+        bitmapDecoder);
+      WritableMap handle = Arguments.createMap();
+      handle.putString("key", key);
+      handle.putInt("width", prepared.width);
+      handle.putInt("height", prepared.height);
+      handle.putInt("bytes", prepared.data.length);
+      promise.resolve(handle);
+    });
+  }
+
+  /**
+   * Print an image registered with registerImage
+   * @param key
+   */
+  @ReactMethod
+  public void printRegisteredImage(String key, Promise promise) {
+    enqueue("printRegisteredImage", promise, (service, job) -> {
+      final RasterImage image = imageCache.get(key);
+      if (image == null) {
+        promise.reject(ERROR_IMAGE_NOT_REGISTERED, "no image registered as '" + key + "'");
+        return;
+      }
+      service.sendRAWData(job.sent(image.toEscPos()), job.callback());
+    });
+  }
+
+  /**
+   * Remove a registered image from the image cache
+   * @param key
+   */
+  @ReactMethod
+  public void unregisterImage(String key, Promise promise) {
+    enqueue("unregisterImage", promise, (service, job) -> {
+      imageCache.remove(key);
+      promise.resolve(200);
+    });
+  }
+
+  /**
+   * Set the byte budget of the image cache, least recently used images are evicted first
+   * @param maxBytes
+   */
+  @ReactMethod
+  public void setImageCacheSize(double maxBytes, Promise promise) {
+    enqueue("setImageCacheSize", promise, (service, job) -> {
+      imageCache.resize((int) maxBytes);
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -418,8 +1035,8 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param type
    */
   @ReactMethod
-  public void printBitmapCustom(Bitmap bitmap, int type) throws RemoteException {
-    printerService.printBitmapCustom(bitmap, type, innerResultCallback);
+  public void printBitmapCustom(Bitmap bitmap, int type, Promise promise) {
+    enqueue("printBitmapCustom", promise, (service, job) -> service.printBitmapCustom(bitmap, type, job.callback()));
   }
 
   /**
@@ -431,9 +1048,9 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param textPosition
    */
   @ReactMethod
-  public void printBarCode(String data, int symbology, int height, int width, int textPosition) throws
-    RemoteException {
-    printerService.printBarCode(data, symbology, height, width, textPosition, innerResultCallback);
+  public void printBarCode(String data, double symbology, double height, double width, double textPosition, Promise promise) {
+    enqueue("printBarCode", promise, (service, job) -> service.printBarCode(data, (int) symbology, (int) height, (int) width,
+      (int) textPosition, job.callback()));
   }
 
 
@@ -446,8 +1063,8 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param errorlevel
    */
   @ReactMethod
-  public void printQRCode(String data, int modulesize, int errorlevel) throws RemoteException {
-    printerService.printQRCode(data, modulesize, errorlevel, innerResultCallback);
+  public void printQRCode(String data, double modulesize, double errorlevel, Promise promise) {
+    enqueue("printQRCode", promise, (service, job) -> service.printQRCode(data, (int) modulesize, (int) errorlevel, job.callback()));
   }
 
   /**
@@ -458,18 +1075,38 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param errorlevel
    */
   @ReactMethod
-  public void print2DCode(String data, int symbology, int modulesize, int errorlevel) throws
-    RemoteException {
-    printerService.print2DCode(data, symbology, modulesize, errorlevel, innerResultCallback);
+  public void print2DCode(String data, double symbology, double modulesize, double errorlevel, Promise promise) {
+    enqueue("print2DCode", promise, (service, job) -> service.print2DCode(data, (int) symbology, (int) modulesize,
+      (int) errorlevel, job.callback()));
   }
 
   /**
    * Package transaction printing dedicated interface
-   * @param tranBean
+   * The segments are assembled into a TransBean array natively and printed with one commitPrint call:
+   * text segments are printed with the service fonts, the other segments are encoded to ESC/POS data.
+   * @param segments { type: 'text', text }, { type: 'raw', data }, { type: 'image', key } of a registered
+   *                 image or { type: 'style', align, bold, width, height }
+   * @param promise
    */
   @ReactMethod
-  public void commitPrint(TransBean[] tranBean) throws RemoteException {
-    printerService.commitPrint(tranBean, innerResultCallback);
+  public void commitPrint(ReadableArray segments, Promise promise) {
+    final Transaction transaction;
+    try {
+      transaction = Transaction.decode(segments);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    enqueue("commitPrint", promise, rawCall((service, job) -> {
+      final TransBean[] beans;
+      try {
+        beans = transaction.build(escPosBuilder, imageCache);
+      } catch (Transaction.ImageNotRegisteredException e) {
+        promise.reject(ERROR_IMAGE_NOT_REGISTERED, e.getMessage());
+        return;
+      }
+      service.commitPrint(beans, job.callback());
+    }));
   }
 
   /**
@@ -477,8 +1114,13 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param clear
    */
   @ReactMethod
-  public void enterPrinterBuffer(Boolean clear) throws RemoteException {
-    printerService.enterPrinterBuffer(clear);
+  public void enterPrinterBuffer(boolean clear, Promise promise) {
+    enqueue("enterPrinterBuffer", promise, (service, job) -> {
+      // settings made in the buffer only apply if it is committed
+      style.reset();
+      service.enterPrinterBuffer(clear);
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -486,8 +1128,12 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param commit
    */
   @ReactMethod
-  public void exitPrinterBuffer(Boolean commit) throws RemoteException {
-    printerService.exitPrinterBuffer(commit);
+  public void exitPrinterBuffer(boolean commit, Promise promise) {
+    enqueue("exitPrinterBuffer", promise, (service, job) -> {
+      style.reset();
+      service.exitPrinterBuffer(commit);
+      promise.resolve(200);
+    });
   }
 
 
@@ -496,8 +1142,11 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * Commits and prints everything in the transaction queue, and remains in transactional printing mode afterwards
    */
   @ReactMethod
-  public void commitPrinterBuffer() throws RemoteException {
-    printerService.commitPrinterBuffer();
+  public void commitPrinterBuffer(Promise promise) {
+    enqueue("commitPrinterBuffer", promise, (service, job) -> {
+      service.commitPrinterBuffer();
+      promise.resolve(200);
+    });
   }
 
 
@@ -505,8 +1154,516 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * Submit the transaction to print and call back the result
    */
   @ReactMethod
-  public void commitPrinterBufferWithCallbacka() throws RemoteException {
-    printerService.commitPrinterBufferWithCallback(innerResultCallback);
+  public void commitPrinterBufferWithCallbacka(Promise promise) {
+    enqueue("commitPrinterBufferWithCallbacka", promise, (service, job) -> service.commitPrinterBufferWithCallback(job.callback(PromiseCallback.MODE_PRINT)));
+  }
+
+  /**
+   * Print a whole receipt in one call
+   * The operations are decoded in one pass, executed inside a printer buffer and committed together,
+   * the promise resolves once the service reports the committed buffer as printed.
+   * @param ops ordered list of operations, e.g. { type: 'text', text: 'Hello\n' }
+   * @param promise
+   */
+  @ReactMethod
+  public void printReceipt(ReadableArray ops, final Promise promise) {
+    final List<PrintOp> decoded;
+    try {
+      decoded = PrintOp.decodeAll(ops);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    enqueue("printReceipt", promise, rawCall((service, job) -> {
+      service.enterPrinterBuffer(true);
+      try {
+        boolean codepageChanged = false;
+        for (PrintOp op : decoded) {
+          op.apply(service);
+          if (op instanceof PrintOp.Codepage) {
+            codepageChanged = ((PrintOp.Codepage) op).codepage != TextEncoder.GB18030;
+          }
+        }
+        if (codepageChanged) {
+          service.sendRAWData(TextEncoder.GB18030.select, null);
+        }
+        service.commitPrinterBufferWithCallback(job.callback(PromiseCallback.MODE_PRINT));
+      } finally {
+        service.exitPrinterBuffer(false);
+      }
+    }));
+  }
+
+  /**
+   * Print a whole receipt as one block of ESC/POS commands
+   * The operations are encoded natively into a single byte buffer and sent with one sendRAWData call.
+   * Only operations with an ESC/POS equivalent are supported (no fonts or vector text).
+   * @param ops ordered list of operations, same format as printReceipt
+   * @param promise
+   */
+  @ReactMethod
+  public void printEscPos(ReadableArray ops, final Promise promise) {
+    final List<PrintOp> decoded;
+    try {
+      decoded = PrintOp.decodeAll(ops, PrintOp.TARGET_ESC_POS);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    enqueue("printEscPos", promise, escPosCall(decoded, null));
+  }
+
+  /**
+   * Print a whole receipt as pre-rendered raster pages
+   * The receipt is laid out and drawn at the printer width on a background thread as soon as this is called,
+   * while earlier jobs are still printing, and sent as one block of raster data when its turn comes.
+   * Text, columns, tables and images look the same on every model; barcodes, QR codes and raw data stay
+   * native commands between the pages.
+   * @param ops same format as printEscPos, 'style' only supports bold
+   * @param pixelWidth printer width in pixels, 384 for 58mm and 576 for 80mm paper
+   * @param promise
+   */
+  @ReactMethod
+  public void printRenderedReceipt(ReadableArray ops, double pixelWidth, final Promise promise) {
+    final List<PrintOp> decoded;
+    try {
+      decoded = PrintOp.decodeAll(ops, PrintOp.TARGET_RENDERED);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    if (pixelWidth < 1) {
+      promise.reject("" + 0, "pixelWidth must be positive");
+      return;
+    }
+    final Future<byte[]> rendered = renderer.submit(decoded, (int) pixelWidth);
+    enqueue("printRenderedReceipt", promise, rawCall((service, job) -> {
+      final byte[] data;
+      try {
+        data = rendered.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        promise.reject(PrintQueue.ERROR_SHUTDOWN, "interrupted while rendering the receipt");
+        return;
+      } catch (ExecutionException e) {
+        promise.reject("" + 0, "could not render the receipt: " + e.getCause().getMessage());
+        return;
+      }
+      jobCache.put(ANONYMOUS_JOB_ID, data);
+      pipeline.sendData(service, job, data);
+    }));
+  }
+
+  /**
+   * printEscPos with scheduling options
+   * Waiting jobs run by priority, so a receipt scheduled with 'high' runs before queued 'normal' and 'low' work
+   * as soon as the job printing now is done.
+   * @param ops same format as printEscPos
+   * @param options { id, priority: 'high' | 'normal' | 'low', deadlineMs }, a job that has not started
+   *                deadlineMs after the call is rejected with DEADLINE_EXCEEDED
+   * @param promise
+   */
+  @ReactMethod
+  public void scheduleReceipt(ReadableArray ops, ReadableMap options, final Promise promise) {
+    final List<PrintOp> decoded;
+    final int priority;
+    try {
+      decoded = PrintOp.decodeAll(ops, PrintOp.TARGET_ESC_POS);
+      priority = PrintQueue.parsePriority(options.hasKey("priority") ? options.getString("priority") : null);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    final String id = options.hasKey("id") ? options.getString("id") : null;
+    final long deadlineMs = options.hasKey("deadlineMs") ? (long) options.getDouble("deadlineMs") : 0;
+    enqueue("scheduleReceipt", promise, escPosCall(decoded, id), priority, id, deadlineMs);
+  }
+
+  /**
+   * Cancel a job scheduled with an id if it has not started yet, its promise is rejected with JOB_CANCELLED
+   * @param id
+   * @param promise resolves whether the job was still waiting
+   */
+  @ReactMethod
+  public void cancelJob(String id, Promise promise) {
+    promise.resolve(printQueue.cancel(id));
+  }
+
+  /**
+   * @param cacheId id the encoded receipt is cached under for printCopies and reprint, null if it has none
+   */
+  private PrinterJob.Call escPosCall(final List<PrintOp> decoded, @Nullable final String cacheId) {
+    return rawCall((service, job) -> {
+      escPosBuilder.reset().paperChars(paperChars(service));
+      for (PrintOp op : decoded) {
+        op.encode(escPosBuilder);
+      }
+      final byte[] data = escPosBuilder.restoreCodepage().toByteArray();
+      jobCache.put(cacheId == null ? ANONYMOUS_JOB_ID : cacheId, data);
+      pipeline.sendData(service, job, data);
+    });
+  }
+
+  /**
+   * Print more copies of a receipt printed with printEscPos, scheduleReceipt, printTemplate or printRenderedReceipt
+   * The encoded receipt is kept after it was built, so a copy is sent as it is without crossing the bridge
+   * or being encoded again. Receipts are cached least recently used first within setJobCacheSize bytes.
+   * @param jobId id given to scheduleReceipt, null for the last receipt
+   * @param copies
+   * @param promise rejected with JOB_NOT_CACHED if the receipt is not cached (any more)
+   */
+  @ReactMethod
+  public void printCopies(@Nullable String jobId, double copies, Promise promise) {
+    final int count = (int) copies;
+    if (count < 1) {
+      promise.reject("" + 0, "copies must be at least 1");
+      return;
+    }
+    enqueue("printCopies", promise, rawCall((service, job) -> {
+      final byte[] data = jobCache.get(jobId);
+      if (data == null) {
+        promise.reject(ERROR_JOB_NOT_CACHED, jobId == null ? "no receipt printed yet" : "no cached receipt for job '" + jobId + "'");
+        return;
+      }
+      if (data.length <= ChunkedSend.MAX_CHUNK_SIZE && !flowControl.enabled()) {
+        for (int i = 1; i < count; ++i) {
+          service.sendRAWData(job.sent(data), null);
+        }
+        service.sendRAWData(job.sent(data), job.callback());
+        return;
+      }
+      // the copies as one stream, paced or in chunks of at most MAX_CHUNK_SIZE like PrintPipeline.sendData
+      new ChunkedSend(new ChunkedSend.Source() {
+        @Override
+        public InputStream open() {
+          final List<InputStream> copies = new ArrayList<>(count);
+          for (int i = 0; i < count; ++i) {
+            copies.add(new ByteArrayInputStream(data));
+          }
+          return new SequenceInputStream(Collections.enumeration(copies));
+        }
+      }, flowControl.enabled() ? 0 : ChunkedSend.MAX_CHUNK_SIZE, flowControl).run(service, job);
+    }));
+  }
+
+  /**
+   * Print one more copy of a cached receipt
+   * @param jobId id given to scheduleReceipt, null for the last receipt
+   */
+  @ReactMethod
+  public void reprint(@Nullable String jobId, Promise promise) {
+    printCopies(jobId, 1, promise);
+  }
+
+  /**
+   * Set the byte budget of the receipts kept for printCopies and reprint, least recently used receipts
+   * are evicted first
+   * @param maxBytes
+   */
+  @ReactMethod
+  public void setJobCacheSize(double maxBytes, Promise promise) {
+    enqueue("setJobCacheSize", promise, (service, job) -> {
+      jobCache.resize(Math.max(1, (int) maxBytes));
+      promise.resolve(200);
+    });
+  }
+
+  /**
+   * Characters per line at normal size for the paper of the bound printer, asked once per service binding
+   */
+  private synchronized int paperChars(SunmiPrinterService service) throws RemoteException {
+    if (service != paperService) {
+      paperChars = EscPosBuilder.paperCharsFor(service.getPrinterPaper());
+      paperService = service;
+    }
+    return paperChars;
+  }
+
+  /**
+   * Compile a receipt template once, print it with printTemplate(id, data)
+   * The operations are the ones of printEscPos, text, columns, qrCode and barCode strings may contain {{field}}
+   * placeholders and { type: 'each', field, ops } repeats ops for every entry of a list field.
+   * Everything else is encoded to ESC/POS right away.
+   * @param id
+   * @param ops template definition
+   * @param promise resolves { id, segments, staticBytes }
+   */
+  @ReactMethod
+  public void registerTemplate(String id, ReadableArray ops, Promise promise) {
+    final ReceiptTemplate template;
+    try {
+      template = ReceiptTemplate.compile(id, ops);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    templates.put(id, template);
+    WritableMap handle = Arguments.createMap();
+    handle.putString("id", id);
+    handle.putInt("segments", template.segments);
+    handle.putInt("staticBytes", template.staticBytes);
+    promise.resolve(handle);
+  }
+
+  /**
+   * Print a registered template, only the field values cross the bridge
+   * @param id
+   * @param data field values, lists of maps for 'each'
+   */
+  @ReactMethod
+  public void printTemplate(String id, ReadableMap data, final Promise promise) {
+    final ReceiptTemplate template = templates.get(id);
+    if (template == null) {
+      promise.reject(ERROR_TEMPLATE_NOT_REGISTERED, "no template registered as '" + id + "'");
+      return;
+    }
+    final Map<String, Object> fields = data.toHashMap();
+    enqueue("printTemplate", promise, rawCall((service, job) -> {
+      escPosBuilder.reset().paperChars(paperChars(service));
+      try {
+        template.write(escPosBuilder, fields);
+      } catch (IllegalArgumentException e) {
+        promise.reject("" + 0, e.getMessage());
+        return;
+      }
+      final byte[] encoded = escPosBuilder.restoreCodepage().toByteArray();
+      jobCache.put(ANONYMOUS_JOB_ID, encoded);
+      pipeline.sendData(service, job, encoded);
+    }));
+  }
+
+  @ReactMethod
+  public void unregisterTemplate(String id, Promise promise) {
+    templates.remove(id);
+    promise.resolve(200);
+  }
+
+  /**
+   * Print raw ESC/POS data through the spool: it is journaled before the promise can settle and printed
+   * again after a crash until the printer confirmed it. A key that is spooled or was printed already
+   * is not printed a second time.
+   * @param key idempotency key, e.g. the order id
+   * @param base64Data
+   * @param promise resolves 'printed', 'alreadySpooled' or 'alreadyPrinted'
+   */
+  @ReactMethod
+  public void spoolRAWData(String key, String base64Data, Promise promise) {
+    final byte[] data;
+    try {
+      data = DataUri.decode(base64Data);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    onSpoolThread(promise, () -> spool(key, data, promise));
+  }
+
+  /**
+   * Like printEscPos, through the spool
+   * The operations are encoded before they are journaled, for the paper of the bound printer or 58mm paper if
+   * there is none yet.
+   * @param key idempotency key, e.g. the order id
+   * @param ops same format as printEscPos
+   * @param promise resolves 'printed', 'alreadySpooled' or 'alreadyPrinted'
+   */
+  @ReactMethod
+  public void spoolEscPos(String key, ReadableArray ops, Promise promise) {
+    final List<PrintOp> decoded;
+    try {
+      decoded = PrintOp.decodeAll(ops, PrintOp.TARGET_ESC_POS);
+    } catch (IllegalArgumentException e) {
+      promise.reject("" + 0, e.getMessage());
+      return;
+    }
+    onSpoolThread(promise, () -> {
+      final EscPosBuilder builder = new EscPosBuilder();
+      try {
+        final SunmiPrinterService service = connection.getService();
+        builder.paperChars(service != null ? paperChars(service) : EscPosBuilder.DEFAULT_PAPER_CHARS);
+        for (PrintOp op : decoded) {
+          op.encode(builder);
+        }
+      } catch (IllegalArgumentException | RemoteException e) {
+        promise.reject("" + 0, e.getMessage());
+        return;
+      }
+      spool(key, builder.restoreCodepage().toByteArray(), promise);
+    });
+  }
+
+  private void onSpoolThread(Promise promise, Runnable task) {
+    if (spool == null) {
+      promise.reject(ERROR_SPOOL_UNAVAILABLE, "the print spool could not be opened");
+      return;
+    }
+    try {
+      spoolExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      promise.reject(ERROR_SPOOL_UNAVAILABLE, "the print spool is closed");
+    }
+  }
+
+  /**
+   * Journal a job and queue it, on the spool thread
+   */
+  private void spool(String key, byte[] data, Promise promise) {
+    final PrintSpool.Entry entry;
+    try {
+      entry = spool.add(key, data);
+    } catch (IOException e) {
+      promise.reject(ERROR_SPOOL_UNAVAILABLE, "could not journal the job: " + e.getMessage());
+      return;
+    }
+    if (entry == null) {
+      promise.resolve(spool.isDone(key) ? "alreadyPrinted" : "alreadySpooled");
+      return;
+    }
+    enqueueSpooled(entry, promise);
+  }
+
+  /**
+   * Queue a spooled job, it is marked done in the journal once the printer confirmed it and stays
+   * spooled if it fails
+   * @param caller promise of the spool call, null for jobs replayed from the journal
+   */
+  private void enqueueSpooled(final PrintSpool.Entry entry, @Nullable final Promise caller) {
+    if (!spoolInFlight.add(entry.key)) {
+      if (caller != null) {
+        caller.resolve("alreadySpooled");
+      }
+      return;
+    }
+    final Promise promise = new PromiseImpl(new Callback() {
+      @Override
+      public void invoke(Object... args) {
+        try {
+          spool.done(entry.key);
+        } catch (IOException e) {
+          Log.i(TAG, "ERROR: could not journal printed job " + entry.key + ": " + e.getMessage());
+        }
+        spoolInFlight.remove(entry.key);
+        if (caller != null) {
+          caller.resolve("printed");
+        }
+      }
+    }, new Callback() {
+      @Override
+      public void invoke(Object... args) {
+        spoolInFlight.remove(entry.key);
+        String code = "" + 0;
+        String message = "spooled job " + entry.key + " failed";
+        if (args.length > 0 && args[0] instanceof ReadableMap) {
+          final ReadableMap error = (ReadableMap) args[0];
+          if (error.hasKey("code") && error.getString("code") != null) {
+            code = error.getString("code");
+          }
+          if (error.hasKey("message") && error.getString("message") != null) {
+            message = error.getString("message");
+          }
+        }
+        Log.i(TAG, "ERROR: spooled job " + entry.key + " stays spooled: " + message);
+        if (caller != null) {
+          caller.reject(code, message);
+        }
+      }
+    });
+    if (entry.data.length > ChunkedSend.MAX_CHUNK_SIZE) {
+      enqueue("spool", promise, rawCall(new ChunkedSend(new ChunkedSend.Source() {
+        @Override
+        public InputStream open() {
+          return new ByteArrayInputStream(entry.data);
+        }
+      }, 0, flowControl)));
+    } else {
+      enqueue("spool", promise, rawCall((service, job) -> pipeline.sendData(service, job, entry.data)));
+    }
+  }
+
+  /**
+   * retrySpooled on the spool thread
+   */
+  private void retrySpooledLater() {
+    if (spool == null) {
+      return;
+    }
+    try {
+      spoolExecutor.execute(this::retrySpooled);
+    } catch (RejectedExecutionException ignored) {
+      // the module is being torn down
+    }
+  }
+
+  /**
+   * Queue every spooled job that is not on the queue already, on the spool thread
+   * @return how many were queued
+   */
+  private int retrySpooled() {
+    if (spool == null) {
+      return 0;
+    }
+    int queued = 0;
+    for (PrintSpool.Entry entry : spool.pending()) {
+      if (!spoolInFlight.contains(entry.key)) {
+        enqueueSpooled(entry, null);
+        ++queued;
+      }
+    }
+    return queued;
+  }
+
+  /**
+   * Spooled jobs that were not printed yet
+   * @param promise resolves { pending: [{ key, bytes, spooledAt, queued }], journalBytes }
+   */
+  @ReactMethod
+  public void getSpool(Promise promise) {
+    if (spool == null) {
+      promise.reject(ERROR_SPOOL_UNAVAILABLE, "the print spool could not be opened");
+      return;
+    }
+    final List<Object> pending = new ArrayList<>();
+    for (PrintSpool.Entry entry : spool.pending()) {
+      final Map<String, Object> item = new LinkedHashMap<>();
+      item.put("key", entry.key);
+      item.put("bytes", (double) entry.data.length);
+      item.put("spooledAt", (double) entry.spooledAt);
+      item.put("queued", spoolInFlight.contains(entry.key));
+      pending.add(item);
+    }
+    final Map<String, Object> result = new LinkedHashMap<>();
+    result.put("pending", pending);
+    try {
+      result.put("journalBytes", (double) spool.journalBytes());
+    } catch (IOException e) {
+      result.put("journalBytes", 0.0);
+    }
+    promise.resolve(Arguments.makeNativeMap(result));
+  }
+
+  /**
+   * Queue the spooled jobs that failed again
+   * @param promise resolves the number of jobs queued
+   */
+  @ReactMethod
+  public void retrySpool(Promise promise) {
+    onSpoolThread(promise, () -> promise.resolve(retrySpooled()));
+  }
+
+  /**
+   * Give up on a spooled job, it is marked done without printing
+   * @param key
+   */
+  @ReactMethod
+  public void discardSpooled(String key, Promise promise) {
+    onSpoolThread(promise, () -> {
+      try {
+        spool.done(key);
+      } catch (IOException e) {
+        promise.reject(ERROR_SPOOL_UNAVAILABLE, e.getMessage());
+        return;
+      }
+      promise.resolve(200);
+    });
   }
 
   /**
@@ -514,8 +1671,8 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @param n
    */
   @ReactMethod
-  public void lineWrap(int n) throws RemoteException {
-    printerService.lineWrap(n, innerResultCallback);
+  public void lineWrap(double n, Promise promise) {
+    enqueue("lineWrap", promise, (service, job) -> service.lineWrap((int) n, job.callback()));
   }
 
   /**
@@ -523,16 +1680,16 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    * @throws RemoteException
    */
   @ReactMethod
-  public void cutPaper() throws RemoteException {
-    printerService.cutPaper(innerResultCallback);
+  public void cutPaper(Promise promise) {
+    enqueue("cutPaper", promise, (service, job) -> service.cutPaper(job.callback()));
   }
 
   /**
    * open cash drawer
    */
   @ReactMethod
-  public void openDrawer() throws RemoteException {
-    printerService.openDrawer(innerResultCallback);
+  public void openDrawer(Promise promise) {
+    enqueue("openDrawer", promise, (service, job) -> service.openDrawer(job.callback()));
   }
 
   /**
@@ -541,13 +1698,7 @@ public class SunmiInbuiltPrinterModule extends ReactContextBaseJavaModule {
    */
   @ReactMethod
   public void getDrawerStatus(Promise promise) {
-    try {
-      promise.resolve(printerService.getDrawerStatus());
-    } catch (RemoteException e) {
-      e.printStackTrace();
-      Log.i(TAG, "ERROR: " + e.getMessage());
-      promise.reject("" + 0, e.getMessage());
-    }
+    enqueue("getDrawerStatus", promise, (service, job) -> promise.resolve(service.getDrawerStatus()));
   }
 
 }
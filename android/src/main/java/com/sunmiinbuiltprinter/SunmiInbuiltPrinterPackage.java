@@ -1,28 +1,48 @@
 package com.sunmiinbuiltprinter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
-import com.facebook.react.ReactPackage;
+import com.facebook.react.TurboReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.uimanager.ViewManager;
+import com.facebook.react.module.model.ReactModuleInfo;
+import com.facebook.react.module.model.ReactModuleInfoProvider;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
-public class SunmiInbuiltPrinterPackage implements ReactPackage {
-  @NonNull
+/**
+ * Registers the module as a TurboModule when the new architecture is enabled and as a bridge module otherwise
+ */
+public class SunmiInbuiltPrinterPackage extends TurboReactPackage {
+
+  @Nullable
   @Override
-  public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactContext) {
-    List<NativeModule> modules = new ArrayList<>();
-    modules.add(new SunmiInbuiltPrinterModule(reactContext));
-    return modules;
+  public NativeModule getModule(@NonNull String name, @NonNull ReactApplicationContext reactContext) {
+    if (name.equals(SunmiInbuiltPrinterModule.NAME)) {
+      return new SunmiInbuiltPrinterModule(reactContext);
+    }
+    return null;
   }
 
-  @NonNull
   @Override
-  public List<ViewManager> createViewManagers(@NonNull ReactApplicationContext reactContext) {
-    return Collections.emptyList();
+  public ReactModuleInfoProvider getReactModuleInfoProvider() {
+    return new ReactModuleInfoProvider() {
+      @Override
+      public Map<String, ReactModuleInfo> getReactModuleInfos() {
+        final Map<String, ReactModuleInfo> moduleInfos = new HashMap<>();
+        moduleInfos.put(SunmiInbuiltPrinterModule.NAME, new ReactModuleInfo(
+          SunmiInbuiltPrinterModule.NAME,
+          SunmiInbuiltPrinterModule.NAME,
+          false, // canOverrideExistingModule
+          false, // needsEagerInit
+          false, // hasConstants
+          false, // isCxxModule
+          BuildConfig.IS_NEW_ARCHITECTURE_ENABLED // isTurboModule
+        ));
+        return moduleInfos;
+      }
+    };
   }
 }
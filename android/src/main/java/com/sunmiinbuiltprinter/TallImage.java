@@ -0,0 +1,228 @@
+package com.sunmiinbuiltprinter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An image of any height printed as a sequence of raster bands.
+ * BitmapRegionDecoder decodes the source one horizontal band at a time, each band is scaled to the paper width,
+ * dithered and encoded as one GS v 0 command, so only a band or two ever exist in memory and the printer service
+ * never sees the whole picture. The next band is decoded on a background thread while the current one is sent.
+ * Open it as a ChunkedSend source, which adds the flow control and resumes a replayed job where it stopped.
+ */
+final class TallImage implements ChunkedSend.Source {
+
+  /**
+   * printed rows per band, a multiple of 8 so ordered dithering continues seamlessly
+   */
+  static final int BAND_HEIGHT = RasterImage.BAND_HEIGHT;
+
+  private static final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      final Thread thread = new Thread(runnable, "SunmiPrinterDecode");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final Context context;
+  private final String source;
+  private final int width;
+  private final int dither;
+
+  // the decoded base64 source, kept so a replay does not decode it again
+  private byte[] encoded;
+
+  /**
+   * @param source content:// or file:// URI, absolute path, base64 or data URI
+   * @param width printer width in pixels
+   * @param dither one of the RasterImage.DITHER_ constants
+   */
+  TallImage(Context context, String source, int width, int dither) {
+    if (width <= 0) {
+      throw new IllegalArgumentException("width must be positive");
+    }
+    this.context = context;
+    this.source = source;
+    this.width = width;
+    this.dither = dither;
+  }
+
+  /**
+   * ESC/POS size of one full band, a good chunk size for sending the image
+   */
+  int bandBytes() {
+    return 8 + (width + 7) / 8 * BAND_HEIGHT;
+  }
+
+  @Override
+  public InputStream open() throws IOException {
+    return new Bands(newDecoder());
+  }
+
+  private BitmapRegionDecoder newDecoder() throws IOException {
+    final BitmapRegionDecoder decoder;
+    if (source.startsWith("content:") || source.startsWith("file:")) {
+      final InputStream in = context.getContentResolver().openInputStream(Uri.parse(source));
+      if (in == null) {
+        throw new IOException("could not open '" + source + "'");
+      }
+      try {
+        decoder = BitmapRegionDecoder.newInstance(in, false);
+      } finally {
+        in.close();
+      }
+    } else if (source.startsWith("/")) {
+      final InputStream in = new FileInputStream(source);
+      try {
+        decoder = BitmapRegionDecoder.newInstance(in, false);
+      } finally {
+        in.close();
+      }
+    } else {
+      synchronized (this) {
+        if (encoded == null) {
+          encoded = DataUri.decode(source);
+        }
+      }
+      decoder = BitmapRegionDecoder.newInstance(encoded, 0, encoded.length, false);
+    }
+    if (decoder == null || decoder.getWidth() <= 0 || decoder.getHeight() <= 0) {
+      throw new IOException("could not decode image");
+    }
+    return decoder;
+  }
+
+  /**
+   * The ESC/POS encoding of the image, produced band by band with the next band decoded ahead
+   */
+  private final class Bands extends InputStream {
+    private final BitmapRegionDecoder decoder;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int height;
+    private final int bands;
+    private final int sampleSize;
+
+    private int nextBand;
+    private Future<byte[]> prefetch;
+    private byte[] current = new byte[0];
+    private int position;
+
+    Bands(BitmapRegionDecoder decoder) {
+      this.decoder = decoder;
+      sourceWidth = decoder.getWidth();
+      sourceHeight = decoder.getHeight();
+      height = Math.max(1, Math.round((float) sourceHeight * width / sourceWidth));
+      bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+      int sampleSize = 1;
+      while (sourceWidth / (sampleSize * 2) >= width) {
+        sampleSize *= 2;
+      }
+      this.sampleSize = sampleSize;
+      prefetch = submit(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position == current.length && !advance()) {
+        return -1;
+      }
+      return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position == current.length && !advance()) {
+        return -1;
+      }
+      final int count = Math.min(len, current.length - position);
+      System.arraycopy(current, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      if (prefetch != null) {
+        prefetch.cancel(false);
+        prefetch = null;
+      }
+      // waits for a decode that is still running, the region decoder locks around both
+      decoder.recycle();
+    }
+
+    private boolean advance() throws IOException {
+      if (prefetch == null) {
+        return false;
+      }
+      try {
+        current = prefetch.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while decoding the image");
+      } catch (ExecutionException e) {
+        throw new IOException("could not decode band " + (nextBand - 1) + ": " + e.getCause().getMessage(), e.getCause());
+      }
+      position = 0;
+      prefetch = nextBand < bands ? submit(nextBand) : null;
+      return true;
+    }
+
+    private Future<byte[]> submit(final int band) {
+      nextBand = band + 1;
+      return decodeExecutor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() {
+          return decodeBand(band);
+        }
+      });
+    }
+
+    private byte[] decodeBand(int band) {
+      final int top = band * BAND_HEIGHT;
+      final int rows = Math.min(BAND_HEIGHT, height - top);
+      final int sourceTop = (int) ((long) top * sourceHeight / height);
+      final int sourceBottom = Math.max(sourceTop + 1, (int) ((long) (top + rows) * sourceHeight / height));
+      final BitmapFactory.Options options = new BitmapFactory.Options();
+      options.inSampleSize = sampleSize;
+      options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+      final Bitmap region = decoder.decodeRegion(new Rect(0, sourceTop, sourceWidth, Math.min(sourceHeight, sourceBottom)), options);
+      if (region == null) {
+        throw new IllegalArgumentException("could not decode image");
+      }
+      Bitmap scaled = region;
+      try {
+        if (region.getWidth() != width || region.getHeight() != rows) {
+          scaled = Bitmap.createScaledBitmap(region, width, rows, true);
+        }
+        // each band is dithered on its own, Floyd-Steinberg error does not carry across band edges
+        return BitmapDecoder.toRaster(scaled, dither).toEscPos();
+      } finally {
+        if (scaled != region) {
+          scaled.recycle();
+        }
+        region.recycle();
+      }
+    }
+  }
+}
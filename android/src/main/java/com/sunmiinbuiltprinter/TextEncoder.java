@@ -0,0 +1,173 @@
+package com.sunmiinbuiltprinter;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes text to the printer code page straight into an ESC/POS buffer.
+ * The CharsetEncoder of every code page used is kept, and so are the char and byte buffers around the text and
+ * the output, so encoding a line allocates nothing. ASCII text, which every supported code page shares, skips
+ * the encoder altogether. Characters the code page lacks are printed as '?'.
+ */
+final class TextEncoder {
+
+  /**
+   * A printer code page: the Java charset and the commands that select it on the printer
+   */
+  static final class Codepage {
+    final String name;
+    final String charsetName;
+    final byte[] select;
+
+    private Charset charset;
+
+    Codepage(String name, String charsetName, byte[] select) {
+      this.name = name;
+      this.charsetName = charsetName;
+      this.select = select;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the device has no such charset
+     */
+    synchronized Charset charset() {
+      if (charset == null) {
+        try {
+          charset = Charset.forName(charsetName);
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException("code page '" + name + "' is not supported on this device");
+        }
+      }
+      return charset;
+    }
+  }
+
+  static final Codepage GB18030;
+
+  private static final Map<String, Codepage> CODEPAGES = new LinkedHashMap<>();
+
+  static {
+    // FS & turns the double byte (Chinese) mode on, FS . turns it off for the single byte code tables of ESC t
+    GB18030 = add("gb18030", "GB18030", new byte[]{ESCUtil.FS, '&'});
+    addSingleByte("cp437", "IBM437", 0);
+    addSingleByte("cp850", "IBM850", 2);
+    addSingleByte("cp860", "IBM860", 3);
+    addSingleByte("cp863", "IBM863", 4);
+    addSingleByte("cp865", "IBM865", 5);
+    addSingleByte("cp857", "IBM857", 13);
+    addSingleByte("cp737", "x-IBM737", 14);
+    addSingleByte("cp1252", "windows-1252", 16);
+    addSingleByte("cp866", "IBM866", 17);
+    addSingleByte("cp852", "IBM852", 18);
+    addSingleByte("cp858", "IBM00858", 19);
+  }
+
+  private static Codepage add(String name, String charsetName, byte[] select) {
+    final Codepage codepage = new Codepage(name, charsetName, select);
+    CODEPAGES.put(name, codepage);
+    return codepage;
+  }
+
+  private static void addSingleByte(String name, String charsetName, int table) {
+    add(name, charsetName, new byte[]{ESCUtil.FS, '.', ESCUtil.ESC, 't', (byte) table});
+  }
+
+  /**
+   * @param name e.g. 'gb18030', 'cp437' or 'cp1252'
+   */
+  static Codepage codepage(String name) {
+    final Codepage codepage = name == null ? null : CODEPAGES.get(name.toLowerCase());
+    if (codepage == null) {
+      throw new IllegalArgumentException("unknown code page '" + name + "', expected one of " + CODEPAGES.keySet());
+    }
+    return codepage;
+  }
+
+  private final Map<Charset, CharsetEncoder> encoders = new HashMap<>();
+  private CharsetEncoder encoder;
+
+  private char[] chars = new char[256];
+  private CharBuffer in = CharBuffer.wrap(chars);
+  private byte[] outArray;
+  private ByteBuffer out;
+
+  TextEncoder(Charset charset) {
+    charset(charset);
+  }
+
+  TextEncoder charset(Charset charset) {
+    CharsetEncoder cached = encoders.get(charset);
+    if (cached == null) {
+      cached = charset.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE)
+        .replaceWith(new byte[]{'?'});
+      encoders.put(charset, cached);
+    }
+    encoder = cached;
+    return this;
+  }
+
+  Charset charset() {
+    return encoder.charset();
+  }
+
+  /**
+   * Most bytes encode() can write for text of the given length
+   */
+  int maxBytes(int length) {
+    return (int) Math.ceil(length * (double) encoder.maxBytesPerChar());
+  }
+
+  /**
+   * Encode text into buffer at offset, the buffer must have room for maxBytes(text.length())
+   * @return offset after the last byte written
+   */
+  int encode(String text, byte[] buffer, int offset) {
+    final int length = text.length();
+    if (isAscii(text)) {
+      for (int i = 0; i < length; ++i) {
+        buffer[offset + i] = (byte) text.charAt(i);
+      }
+      return offset + length;
+    }
+    if (length > chars.length) {
+      chars = new char[Math.max(length, chars.length * 2)];
+      in = CharBuffer.wrap(chars);
+    }
+    text.getChars(0, length, chars, 0);
+    in.clear();
+    in.limit(length);
+    if (buffer != outArray) {
+      outArray = buffer;
+      out = ByteBuffer.wrap(buffer);
+    }
+    out.clear();
+    out.position(offset);
+    encoder.reset();
+    CoderResult result = encoder.encode(in, out, true);
+    if (!result.isOverflow()) {
+      result = encoder.flush(out);
+    }
+    if (result.isOverflow()) {
+      throw new IllegalStateException("buffer too small for the encoded text");
+    }
+    return out.position();
+  }
+
+  private static boolean isAscii(String text) {
+    for (int i = 0, n = text.length(); i < n; ++i) {
+      if (text.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,197 @@
+package com.sunmiinbuiltprinter;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.sunmi.peripheral.printer.TransBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A packaged transaction for commitPrint, assembled natively from typed segments.
+ * Segments arrive from JS as an array of maps ({ type: 'text', text: '...' }, { type: 'image', key: 'logo' }, ...).
+ * Text becomes a text TransBean printed with the service fonts, every run of other segments between two texts
+ * is encoded to ESC/POS and becomes a single data TransBean.
+ */
+final class Transaction {
+
+  /**
+   * TransBean types: text printed like printText, data sent like sendRAWData
+   */
+  static final byte TYPE_TEXT = 0;
+  static final byte TYPE_DATA = 1;
+
+  private abstract static class Segment {
+    /**
+     * Append the ESC/POS bytes of this segment, null for a text segment
+     */
+    abstract void encode(EscPosBuilder builder, ImageCache images);
+
+    String text() {
+      return null;
+    }
+  }
+
+  private final List<Segment> segments;
+
+  private Transaction(List<Segment> segments) {
+    this.segments = segments;
+  }
+
+  int size() {
+    return segments.size();
+  }
+
+  /**
+   * Decode all segments, failing before anything is sent to the printer
+   * @param segments array of segment maps
+   */
+  static Transaction decode(ReadableArray segments) {
+    final List<Segment> result = new ArrayList<>(segments.size());
+    for (int i = 0; i < segments.size(); ++i) {
+      try {
+        result.add(decodeSegment(segments.getMap(i)));
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Invalid segment at index " + i + ": " + e.getMessage(), e);
+      }
+    }
+    if (result.isEmpty()) {
+      throw new IllegalArgumentException("a transaction needs at least one segment");
+    }
+    return new Transaction(result);
+  }
+
+  private static Segment decodeSegment(ReadableMap segment) {
+    final String type = segment.getString("type");
+    if (type == null) {
+      throw new IllegalArgumentException("missing type");
+    }
+    switch (type) {
+      case "text":
+        return new Text(segment.getString("text"));
+      case "raw":
+        return new Raw(DataUri.decode(segment.getString("data")));
+      case "image":
+        return new Image(segment.getString("key"));
+      case "style":
+        return new Style(
+          segment.hasKey("align") ? segment.getInt("align") : -1,
+          segment.hasKey("bold") ? (segment.getBoolean("bold") ? 1 : 0) : -1,
+          segment.hasKey("width") ? segment.getInt("width") : 0,
+          segment.hasKey("height") ? segment.getInt("height") : 0);
+      default:
+        throw new IllegalArgumentException("unknown type '" + type + "'");
+    }
+  }
+
+  /**
+   * Assemble the TransBean array, on the print queue since registered images are resolved now
+   * @param builder scratch builder, reset here
+   * @throws ImageNotRegisteredException if an image segment names no registered image
+   */
+  TransBean[] build(EscPosBuilder builder, ImageCache images) {
+    final List<TransBean> beans = new ArrayList<>();
+    builder.reset();
+    for (Segment segment : segments) {
+      final String text = segment.text();
+      if (text == null) {
+        segment.encode(builder, images);
+        continue;
+      }
+      flush(builder, beans);
+      beans.add(new TransBean(TYPE_TEXT, text, null));
+    }
+    flush(builder, beans);
+    return beans.toArray(new TransBean[0]);
+  }
+
+  private static void flush(EscPosBuilder builder, List<TransBean> beans) {
+    if (builder.size() > 0) {
+      beans.add(new TransBean(TYPE_DATA, "", builder.toByteArray()));
+      builder.reset();
+    }
+  }
+
+  static final class ImageNotRegisteredException extends IllegalArgumentException {
+    ImageNotRegisteredException(String key) {
+      super("no image registered as '" + key + "'");
+    }
+  }
+
+  private static final class Text extends Segment {
+    private final String text;
+
+    Text(String text) {
+      this.text = text;
+    }
+
+    @Override
+    void encode(EscPosBuilder builder, ImageCache images) {
+    }
+
+    @Override
+    String text() {
+      return text;
+    }
+  }
+
+  private static final class Raw extends Segment {
+    private final byte[] data;
+
+    Raw(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    void encode(EscPosBuilder builder, ImageCache images) {
+      builder.raw(data);
+    }
+  }
+
+  private static final class Image extends Segment {
+    private final String key;
+
+    Image(String key) {
+      this.key = key;
+    }
+
+    @Override
+    void encode(EscPosBuilder builder, ImageCache images) {
+      final RasterImage image = images.get(key);
+      if (image == null) {
+        throw new ImageNotRegisteredException(key);
+      }
+      builder.raster(image);
+    }
+  }
+
+  /**
+   * Alignment, bold and character size, each only when given
+   */
+  private static final class Style extends Segment {
+    private final int align;
+    private final int bold;
+    private final int width;
+    private final int height;
+
+    Style(int align, int bold, int width, int height) {
+      this.align = align;
+      this.bold = bold;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    void encode(EscPosBuilder builder, ImageCache images) {
+      if (align >= 0) {
+        builder.align(align);
+      }
+      if (bold >= 0) {
+        builder.bold(bold == 1);
+      }
+      if (width > 0 || height > 0) {
+        builder.size(Math.max(1, width), Math.max(1, height));
+      }
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package com.sunmiinbuiltprinter;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+/**
+ * New architecture base class, the TurboModule spec generated by codegen from src/NativeSunmiInbuiltPrinter.ts
+ */
+abstract class SunmiInbuiltPrinterSpec extends NativeSunmiInbuiltPrinterSpec {
+  SunmiInbuiltPrinterSpec(ReactApplicationContext context) {
+    super(context);
+  }
+}
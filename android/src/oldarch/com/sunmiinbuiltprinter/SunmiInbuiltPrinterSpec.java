@@ -0,0 +1,13 @@
+package com.sunmiinbuiltprinter;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+
+/**
+ * Old architecture base class, a classic bridge module
+ */
+abstract class SunmiInbuiltPrinterSpec extends ReactContextBaseJavaModule {
+  SunmiInbuiltPrinterSpec(ReactApplicationContext context) {
+    super(context);
+  }
+}
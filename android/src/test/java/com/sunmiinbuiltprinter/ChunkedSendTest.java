@@ -0,0 +1,278 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.DeadObjectException;
+
+import com.facebook.react.bridge.Promise;
+import com.sunmi.peripheral.printer.InnerResultCallback;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedSendTest {
+
+  private static final int CHUNK = ChunkedSend.MIN_CHUNK_SIZE;
+
+  // "resolve" or "reject:code" for every settlement of the job's promise
+  private final List<String> settled = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void keepsAtMostTheWindowOfChunksUnacknowledged() throws Exception {
+    final byte[] data = data(5 * CHUNK);
+    final FakeService service = new FakeService(false);
+    final ChunkedSend send = new ChunkedSend(source(data), CHUNK, null);
+    final Thread sender = run(send, service, job(), null);
+
+    service.awaitSent(2);
+    assertStaysAt(service, 2);
+    service.ack(0);
+    service.awaitSent(3);
+    assertStaysAt(service, 3);
+    service.ack(1);
+    service.awaitSent(4);
+    // the last chunk waits until every chunk before it was acknowledged
+    service.ack(2);
+    assertStaysAt(service, 4);
+    service.ack(3);
+    service.awaitSent(5);
+    sender.join(5000);
+    assertTrue(settled.isEmpty());
+
+    service.ack(4);
+    assertEquals(Arrays.asList("resolve"), settled);
+    assertArrayEquals(data, service.data(0));
+  }
+
+  @Test
+  public void resumesAfterTheLastAcknowledgedChunk() throws Exception {
+    final byte[] data = data(4 * CHUNK + 100);
+    final ChunkedSend send = new ChunkedSend(source(data), CHUNK, null);
+    final PrinterJob job = job();
+
+    // the service dies while the second chunk is still unacknowledged
+    final FakeService dying = new FakeService(false);
+    dying.dieAt = 2;
+    final AtomicReference<Exception> error = new AtomicReference<>();
+    final Thread sender = run(send, dying, job, error);
+    dying.awaitSent(2);
+    dying.ack(0);
+    sender.join(5000);
+    assertTrue(error.get() instanceof DeadObjectException);
+    assertTrue(settled.isEmpty());
+
+    final FakeService restarted = new FakeService(true);
+    send.run(restarted.service, job);
+    assertEquals(Arrays.asList("resolve"), settled);
+    assertArrayEquals(Arrays.copyOfRange(data, CHUNK, data.length), restarted.data(0));
+    assertEquals(4, restarted.sent.size());
+  }
+
+  @Test
+  public void rejectsEmptyData() throws Exception {
+    final FakeService service = new FakeService(true);
+    new ChunkedSend(source(new byte[0]), CHUNK, null).run(service.service, job());
+    assertEquals(Arrays.asList("reject:0"), settled);
+    assertEquals(0, service.sent.size());
+  }
+
+  @Test
+  public void failsTheJobWhenTheServiceRefusesAChunk() throws Exception {
+    final FakeService service = new FakeService(false);
+    final Thread sender = run(new ChunkedSend(source(data(3 * CHUNK)), CHUNK, null), service, job(), null);
+    service.awaitSent(2);
+    service.sent.get(0).callback.onRaiseException(-1, "refused");
+    // the last chunk waits for the whole window, the failure surfaces once the chunk still in flight settled
+    service.ack(1);
+    sender.join(5000);
+    assertEquals(Arrays.asList("reject:-1"), settled);
+    assertEquals(2, service.sent.size());
+  }
+
+  @Test
+  public void resendsARefusedChunkBeforeAnythingAfterIt() throws Exception {
+    final byte[] data = data(3 * CHUNK);
+    final FlowControl flow = new FlowControl();
+    final FlowControl.Options options = new FlowControl.Options();
+    options.enabled = true;
+    options.pollIntervalMs = 1;
+    // the printer without a printed length catches up with the refused data at once
+    options.paperSpeedMmPerSecond = 1e9;
+    flow.configure(options);
+    final FakeService service = new FakeService(false);
+    final Thread sender = run(new ChunkedSend(source(data), CHUNK, flow), service, job(), null);
+
+    // with flow control the next chunk waits until this one was accepted
+    service.awaitSent(1);
+    assertStaysAt(service, 1);
+    service.autoAck = true;
+    service.sent.get(0).callback.onRaiseException(FlowControl.EXCEPTION_BUFFER_FULL, "add task failed");
+    sender.join(5000);
+
+    assertEquals(Arrays.asList("resolve"), settled);
+    // everything after the refused call, once and in order
+    assertArrayEquals(data, service.data(1));
+  }
+
+  private PrinterJob job() {
+    final Promise promise = fake(Promise.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        settled.add("resolve".equals(method.getName()) ? "resolve" : "reject:" + args[0]);
+        return null;
+      }
+    });
+    return new PrinterJob("sendRAWDataChunked", promise, null, new PrinterJob.Host() {
+      @Override
+      public SunmiPrinterService awaitService() {
+        return null;
+      }
+
+      @Override
+      public void onUnacknowledged(PrinterJob job) {
+      }
+
+      @Override
+      public void onAcknowledged(PrinterJob job) {
+      }
+
+      @Override
+      public void replay(PrinterJob job) {
+      }
+    }, new PrinterMetrics());
+  }
+
+  private static Thread run(final ChunkedSend send, final FakeService service, final PrinterJob job,
+                            final AtomicReference<Exception> error) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          send.run(service.service, job);
+        } catch (Exception e) {
+          if (error != null) {
+            error.set(e);
+          }
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void assertStaysAt(FakeService service, int count) throws InterruptedException {
+    Thread.sleep(100);
+    assertEquals(count, service.sent.size());
+  }
+
+  private static ChunkedSend.Source source(final byte[] data) {
+    return new ChunkedSend.Source() {
+      @Override
+      public InputStream open() {
+        return new ByteArrayInputStream(data);
+      }
+    };
+  }
+
+  private static byte[] data(int length) {
+    final byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    return data;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T fake(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+  }
+
+  private static final class Sent {
+    final byte[] data;
+    final InnerResultCallback callback;
+
+    Sent(byte[] data, InnerResultCallback callback) {
+      this.data = data;
+      this.callback = callback;
+    }
+  }
+
+  /**
+   * A printer service that records sendRAWData and acknowledges each chunk right away or when the test says so
+   */
+  private static final class FakeService implements InvocationHandler {
+    final List<Sent> sent = Collections.synchronizedList(new ArrayList<Sent>());
+    final SunmiPrinterService service = fake(SunmiPrinterService.class, this);
+    volatile boolean autoAck;
+
+    // sendRAWData call that throws DeadObjectException, -1 for none
+    int dieAt = -1;
+
+    FakeService(boolean autoAck) {
+      this.autoAck = autoAck;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      if ("updatePrinterState".equals(method.getName())) {
+        return FlowControl.STATE_NORMAL;
+      }
+      if ("getPrintedLength".equals(method.getName())) {
+        // a printer that does not report its printed length
+        ((InnerResultCallback) args[0]).onRaiseException(-1, "not supported");
+        return null;
+      }
+      if (!"sendRAWData".equals(method.getName())) {
+        final Class<?> type = method.getReturnType();
+        return type == boolean.class ? Boolean.FALSE : type == int.class ? Integer.valueOf(0) : null;
+      }
+      if (sent.size() == dieAt) {
+        throw new DeadObjectException();
+      }
+      // binder copies the data during the call, the sender reuses its buffer afterwards
+      final Sent call = new Sent(((byte[]) args[0]).clone(), (InnerResultCallback) args[1]);
+      sent.add(call);
+      if (autoAck && call.callback != null) {
+        call.callback.onRunResult(true);
+      }
+      return null;
+    }
+
+    void ack(int index) throws Exception {
+      sent.get(index).callback.onRunResult(true);
+    }
+
+    void awaitSent(int count) throws InterruptedException {
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (sent.size() < count && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(count, sent.size());
+    }
+
+    /**
+     * Everything sent from call index on
+     */
+    byte[] data(int index) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (Sent call : sent.subList(index, sent.size())) {
+        out.write(call.data, 0, call.data.length);
+      }
+      return out.toByteArray();
+    }
+  }
+}
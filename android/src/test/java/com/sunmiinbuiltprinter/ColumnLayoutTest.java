@@ -0,0 +1,111 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColumnLayoutTest {
+
+  private static final int LEFT = EscPosBuilder.ALIGN_LEFT;
+  private static final int CENTER = EscPosBuilder.ALIGN_CENTER;
+  private static final int RIGHT = EscPosBuilder.ALIGN_RIGHT;
+
+  @Test
+  public void measuresWideAndCombiningCharacters() {
+    assertEquals(1, ColumnLayout.charWidth('a'));
+    assertEquals(2, ColumnLayout.charWidth('中'));
+    assertEquals(2, ColumnLayout.charWidth('가'));
+    assertEquals(0, ColumnLayout.charWidth(0x0301));
+    assertEquals(0, ColumnLayout.charWidth(0x200B));
+    assertEquals(2, ColumnLayout.charWidth(0x1F600));
+    final String text = "中á😀";
+    assertEquals(5, ColumnLayout.displayWidth(text, 0, text.length()));
+  }
+
+  @Test
+  public void wrapsAtSpacesAndPadsColumns() {
+    final ColumnLayout layout = new ColumnLayout(new int[]{1, 1}, new int[]{LEFT, RIGHT}, null, 1);
+    // 21 characters: two columns of 10 and a gap
+    assertEquals(
+      "apple" + spaces(12) + "1.00\n"
+        + "banana\n"
+        + "cherry\n",
+      row(layout, 21, "apple banana cherry", "1.00"));
+  }
+
+  @Test
+  public void breaksWordsLongerThanTheColumn() {
+    final ColumnLayout layout = new ColumnLayout(new int[]{1}, new int[]{LEFT}, null, 0);
+    assertEquals("abcd\nefgh\nij\n", row(layout, 4, "abcdefghij"));
+  }
+
+  @Test
+  public void breaksBetweenWideCharacters() {
+    final ColumnLayout layout = new ColumnLayout(new int[]{1}, new int[]{LEFT}, null, 0);
+    assertEquals("中文\n中文\n", row(layout, 5, "中文中文"));
+  }
+
+  @Test
+  public void keepsLineBreaksInCells() {
+    final ColumnLayout layout = new ColumnLayout(new int[]{1, 1}, new int[]{LEFT, LEFT}, null, 0);
+    assertEquals("a   c\nb\n", row(layout, 8, "a\nb", "c"));
+  }
+
+  @Test
+  public void truncatesOrEllipsizes() {
+    final ColumnLayout truncate = new ColumnLayout(new int[]{1}, new int[]{LEFT},
+      new int[]{ColumnLayout.OVERFLOW_TRUNCATE}, 0);
+    assertEquals("abcdefgh\n", row(truncate, 8, "abcdefghijk"));
+    final ColumnLayout ellipsis = new ColumnLayout(new int[]{1}, new int[]{LEFT},
+      new int[]{ColumnLayout.OVERFLOW_ELLIPSIS}, 0);
+    assertEquals("abcde...\n", row(ellipsis, 8, "abcdefghijk"));
+    // a wide character that does not fit before the ellipsis is left out
+    assertEquals("中文...\n", row(ellipsis, 8, "中文中文中文"));
+  }
+
+  @Test
+  public void alignsCells() {
+    final ColumnLayout center = new ColumnLayout(new int[]{1}, new int[]{CENTER}, null, 0);
+    assertEquals("  abcd  \n", row(center, 8, "abcd"));
+    final ColumnLayout right = new ColumnLayout(new int[]{1}, new int[]{RIGHT}, null, 0);
+    assertEquals("  中文\n", row(right, 6, "中文"));
+  }
+
+  @Test
+  public void followsTheLineWidth() {
+    final ColumnLayout layout = new ColumnLayout(new int[]{1, 1}, new int[]{LEFT, LEFT}, null, 0);
+    assertEquals("ab        cd\n", row(layout, 20, "ab", "cd"));
+    assertEquals("ab   cd\n", row(layout, 10, "ab", "cd"));
+  }
+
+  @Test
+  public void parsesOverflowNames() {
+    assertEquals(ColumnLayout.OVERFLOW_WRAP, ColumnLayout.parseOverflow(null));
+    assertEquals(ColumnLayout.OVERFLOW_TRUNCATE, ColumnLayout.parseOverflow("truncate"));
+    assertEquals(ColumnLayout.OVERFLOW_ELLIPSIS, ColumnLayout.parseOverflow("ellipsis"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsMismatchedColumns() {
+    new ColumnLayout(new int[]{1, 1}, new int[]{LEFT}, null, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsRowsWithTheWrongCellCount() {
+    row(new ColumnLayout(new int[]{1, 1}, new int[]{LEFT, LEFT}, null, 1), 32, "only one");
+  }
+
+  private static String row(ColumnLayout layout, int lineChars, String... cells) {
+    final StringBuilder out = new StringBuilder();
+    layout.layoutRow(cells, lineChars, out);
+    return out.toString();
+  }
+
+  private static String spaces(int count) {
+    final StringBuilder out = new StringBuilder();
+    for (int i = 0; i < count; ++i) {
+      out.append(' ');
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,93 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DataUriTest {
+
+  @Test
+  public void decodesPlainBase64() {
+    assertArrayEquals(bytes("hello"), DataUri.decode("aGVsbG8="));
+  }
+
+  @Test
+  public void decodesEveryPaddingLength() {
+    final Random random = new Random(1);
+    for (int length = 0; length < 64; ++length) {
+      final byte[] data = new byte[length];
+      random.nextBytes(data);
+      assertArrayEquals("length " + length, data, DataUri.decode(Base64.getEncoder().encodeToString(data)));
+      assertArrayEquals("length " + length, data, DataUri.decode(Base64.getEncoder().withoutPadding().encodeToString(data)));
+    }
+  }
+
+  @Test
+  public void skipsTheDataUriHeader() {
+    assertArrayEquals(bytes("hello"), DataUri.decode("data:image/png;base64,aGVsbG8="));
+  }
+
+  @Test
+  public void ignoresWhitespaceAndAcceptsUrlSafeSymbols() {
+    final byte[] data = {(byte) 0xFB, (byte) 0xFF, (byte) 0xBF};
+    assertArrayEquals(data, DataUri.decode("-_-_"));
+    assertArrayEquals(data, DataUri.decode("+/+/"));
+    assertArrayEquals(bytes("hello world"), DataUri.decode("aGVs bG8g\r\nd29y\tbGQ="));
+  }
+
+  @Test
+  public void decodesARange() {
+    final String encoded = "xxaGVsbG8=yy";
+    assertArrayEquals(bytes("hello"), DataUri.decode(encoded, 2, encoded.length() - 2));
+  }
+
+  @Test
+  public void rejectsBadCharactersAndLengths() {
+    expectInvalid("aGVs*G8=");
+    expectInvalid("aGVsb");
+    expectInvalid("aGVsbG8é");
+  }
+
+  @Test
+  public void streamMatchesDecode() throws IOException {
+    final byte[] data = new byte[10000];
+    new Random(2).nextBytes(data);
+    final String encoded = "data:application/octet-stream;base64," + Base64.getMimeEncoder().encodeToString(data);
+    final DataUri.Stream in = new DataUri.Stream(encoded);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[7];
+    // odd reads cross the three byte groups
+    int n;
+    while ((n = in.read(buffer, 0, buffer.length)) > 0) {
+      out.write(buffer, 0, n);
+      final int b = in.read();
+      if (b < 0) {
+        break;
+      }
+      out.write(b);
+    }
+    assertArrayEquals(data, out.toByteArray());
+    assertEquals(-1, in.read());
+  }
+
+  private static void expectInvalid(String encoded) {
+    try {
+      DataUri.decode(encoded);
+      fail("expected '" + encoded + "' to be rejected");
+    } catch (IllegalArgumentException expected) {
+      // bad input
+    }
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,65 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EscPosBuilderTest {
+
+  private static final byte GS = ESCUtil.GS;
+
+  // GS h 80, GS w 2, GS H 2
+  private static final byte[] SETUP = {GS, 'h', 80, GS, 'w', 2, GS, 'H', 2};
+
+  @Test
+  public void startsCode128InCodeSetB() {
+    assertArrayEquals(concat(SETUP, new byte[]{GS, 'k', 73, 8, '{', 'B', 'A', 'B', 'C', '-', '1', '2'}),
+      barcode("ABC-12", EscPosBuilder.BARCODE_CODE128));
+  }
+
+  @Test
+  public void keepsTheCodeSetOfTheData() {
+    assertArrayEquals(concat(SETUP, new byte[]{GS, 'k', 73, 6, '{', 'C', 12, 34, 56, 78}),
+      barcode("{C\u000c\"8N", EscPosBuilder.BARCODE_CODE128));
+  }
+
+  @Test
+  public void escapesBracesInCodeSetB() {
+    assertArrayEquals(concat(SETUP, new byte[]{GS, 'k', 73, 5, '{', 'B', 'a', '{', '{'}),
+      barcode("a{", EscPosBuilder.BARCODE_CODE128));
+  }
+
+  @Test
+  public void sendsOtherSymbologiesAsTheyAre() {
+    assertArrayEquals(concat(SETUP, new byte[]{GS, 'k', 67, 13, '4', '0', '0', '6', '3', '8', '1', '3', '3', '3', '9', '3', '1'}),
+      barcode("4006381333931", 2));
+  }
+
+  @Test
+  public void rejectsDataLongerThan255Bytes() {
+    final char[] data = new char[254];
+    Arrays.fill(data, '7');
+    // 254 characters and the code set
+    try {
+      barcode(new String(data), EscPosBuilder.BARCODE_CODE128);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("barcode data is 256 bytes, GS k takes at most 255", e.getMessage());
+    }
+    assertEquals(SETUP.length + 4 + 255, barcode(new String(data, 0, 253), EscPosBuilder.BARCODE_CODE128).length);
+  }
+
+  private static byte[] barcode(String data, int symbology) {
+    return new EscPosBuilder().barcode(data, symbology, 80, 2, 2).toByteArray();
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    final byte[] out = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, out, a.length, b.length);
+    return out;
+  }
+}
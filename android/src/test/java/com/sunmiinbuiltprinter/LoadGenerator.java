@@ -0,0 +1,394 @@
+package com.sunmiinbuiltprinter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import com.facebook.react.bridge.Promise;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Replays a receipt workload through the PrintPipeline of the module into a SimulatedPrinter and reports jobs per
+ * second and latency. Every job is a PrinterJob sending its data with PrintPipeline.sendData, like printEscPos,
+ * scheduleReceipt, printTemplate and spool jobs, so the run covers the print queue, the promise callbacks,
+ * chunked and flow controlled sends and the replay of jobs the printer lost when it disconnected.
+ * The workload is read from a file (one job per line: arrival ms, priority, base64 ESC/POS) or generated with
+ * Poisson arrivals, and can be written out to replay the same run later. Times are reported in printer time,
+ * so a run with a timeScale below 1 reports the same numbers as a real time run, only sooner; the pipeline
+ * metrics are measured in wall time.
+ *
+ * ./gradlew testDebugUnitTest --tests '*LoadGeneratorTest' -Pload.args="--jobs=2000 --rate=3 --timeScale=0.05"
+ * ./gradlew testDebugUnitTest --tests '*LoadGeneratorTest' -Pload.args="--rate=1 --overheatMm=1500 --flowControl=true"
+ */
+public final class LoadGenerator {
+
+  static final class Job {
+    final long arrivalMs;
+    final int priority;
+    final byte[] data;
+
+    Job(long arrivalMs, int priority, byte[] data) {
+      this.arrivalMs = arrivalMs;
+      this.priority = priority;
+      this.data = data;
+    }
+  }
+
+  private LoadGenerator() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+        throw new IllegalArgumentException("expected --name=value, got '" + arg + "'");
+      }
+      options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+    }
+    final List<Job> workload = options.containsKey("workload")
+      ? read(new File(options.get("workload")))
+      : generate(intOption(options, "jobs", 500), doubleOption(options, "rate", 0.3), intOption(options, "seed", 1));
+    if (options.containsKey("record")) {
+      write(workload, new File(options.get("record")));
+    }
+
+    final SimulatedPrinter.Config config = new SimulatedPrinter.Config();
+    config.callLatencyMicros = intOption(options, "callLatencyMicros", (int) config.callLatencyMicros);
+    config.paperSpeedMmPerSecond = doubleOption(options, "paperSpeed", config.paperSpeedMmPerSecond);
+    config.bufferBytes = intOption(options, "bufferBytes", config.bufferBytes);
+    config.paperRollMm = doubleOption(options, "paperRollMm", config.paperRollMm);
+    config.overheatMm = doubleOption(options, "overheatMm", config.overheatMm);
+    config.coolMmPerSecond = doubleOption(options, "coolMmPerSecond", config.coolMmPerSecond);
+    config.timeScale = doubleOption(options, "timeScale", config.timeScale);
+    config.record = false;
+    final long reloadMs = intOption(options, "reloadMs", 20000);
+    final long disconnectEveryMs = intOption(options, "disconnectEveryMs", 0);
+    final long downMs = intOption(options, "downMs", 3000);
+
+    final FlowControl.Options flow = new FlowControl.Options();
+    flow.enabled = Boolean.parseBoolean(options.get("flowControl"));
+    flow.highWaterMm = doubleOption(options, "highWaterMm", flow.highWaterMm);
+    flow.lowWaterMm = doubleOption(options, "lowWaterMm", flow.lowWaterMm);
+    scale(flow, config);
+
+    final Map<String, Object> report = run(workload, config, flow, intOption(options, "queueCapacity", 512), reloadMs,
+      disconnectEveryMs, downMs);
+    print(report, "");
+    if (options.containsKey("out")) {
+      final File out = new File(options.get("out"));
+      if (out.getParentFile() != null) {
+        out.getParentFile().mkdirs();
+      }
+      final PrintWriter writer = new PrintWriter(new FileWriter(out));
+      try {
+        writer.println(toJson(report));
+      } finally {
+        writer.close();
+      }
+    }
+  }
+
+  /**
+   * Everything a queued job reports to
+   */
+  private static final class Run {
+    final SimulatedPrinter printer;
+    final SimulatedPrinter.Config config;
+    final FlowControl flow = new FlowControl();
+    final PrinterMetrics metrics = new PrinterMetrics();
+    final PrintPipeline pipeline;
+    final PrinterMetrics.Histogram endToEnd = new PrinterMetrics.Histogram();
+    final CountDownLatch settled;
+
+    Run(SimulatedPrinter.Config config, FlowControl.Options flowOptions, int queueCapacity, int jobs) {
+      this.config = config;
+      printer = new SimulatedPrinter(config);
+      flow.configure(flowOptions);
+      pipeline = new PrintPipeline(printer, new PrintQueue(queueCapacity, "LoadQueue"), flow, metrics);
+      // the module replays what the service did not acknowledge when it goes away
+      printer.onDisconnected(pipeline::replayUnacknowledged);
+      settled = new CountDownLatch(jobs);
+    }
+  }
+
+  static Map<String, Object> run(List<Job> workload, final SimulatedPrinter.Config config, FlowControl.Options flowOptions,
+                                 int queueCapacity, final long reloadMs, long disconnectEveryMs, final long downMs)
+    throws InterruptedException {
+    final Run run = new Run(config, flowOptions, queueCapacity, workload.size());
+    final SimulatedPrinter printer = run.printer;
+    final ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor();
+
+    // an operator puts a new roll in reloadMs after the paper ran out
+    final AtomicBoolean reloading = new AtomicBoolean();
+    events.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        if (printer.state() == FlowControl.STATE_OUT_OF_PAPER && reloading.compareAndSet(false, true)) {
+          events.schedule(new Runnable() {
+            @Override
+            public void run() {
+              printer.loadPaper();
+              reloading.set(false);
+            }
+          }, scaledMs(reloadMs, config), TimeUnit.MILLISECONDS);
+        }
+      }
+    }, 1, 1, TimeUnit.MILLISECONDS);
+    if (disconnectEveryMs > 0) {
+      events.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          printer.disconnect();
+          events.schedule(new Runnable() {
+            @Override
+            public void run() {
+              printer.reconnect();
+            }
+          }, scaledMs(downMs, config), TimeUnit.MILLISECONDS);
+        }
+      }, scaledMs(disconnectEveryMs, config), scaledMs(disconnectEveryMs, config), TimeUnit.MILLISECONDS);
+    }
+
+    final long start = System.nanoTime();
+    for (final Job job : workload) {
+      final long due = start + TimeUnit.MILLISECONDS.toNanos(scaledMs(job.arrivalMs, config));
+      final long wait = due - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      submit(run, job);
+    }
+    run.settled.await();
+    final long elapsed = printerNanos(System.nanoTime() - start, config);
+    events.shutdownNow();
+    run.pipeline.queue.shutdown();
+    printer.close();
+
+    final Map<String, Object> report = new LinkedHashMap<>();
+    final long printed = run.endToEnd.count();
+    report.put("jobs", (double) workload.size());
+    report.put("printed", (double) printed);
+    report.put("lost", (double) printer.jobsLost());
+    report.put("seconds", elapsed / 1e9);
+    report.put("jobsPerSecond", printed / (elapsed / 1e9));
+    report.put("paperMm", printer.printedMm());
+    report.put("latencyMs", run.endToEnd.snapshot());
+    report.put("metrics", run.metrics.snapshot());
+    if (flowOptions.enabled) {
+      final Map<String, Object> flow = run.flow.snapshot();
+      flow.put("pausedMs", printerNanos((long) ((Double) flow.get("pausedMs") * 1e6), config) / 1e6);
+      flow.remove("reason");
+      report.put("flowControl", flow);
+    }
+    return report;
+  }
+
+  /**
+   * Queue a job on the pipeline like the module queues a printEscPos call
+   */
+  private static void submit(final Run run, final Job job) {
+    final long submitted = System.nanoTime();
+    final AtomicBoolean done = new AtomicBoolean();
+    // the end-to-end latency of every job that printed, every job settles once
+    final Promise promise = (Promise) Proxy.newProxyInstance(Promise.class.getClassLoader(), new Class<?>[]{Promise.class},
+      (proxy, method, args) -> {
+        if (method.getDeclaringClass() == Object.class) {
+          return method.invoke(job, args);
+        }
+        if (done.compareAndSet(false, true)) {
+          if ("resolve".equals(method.getName())) {
+            run.endToEnd.recordNanos(printerNanos(System.nanoTime() - submitted, run.config));
+          }
+          run.settled.countDown();
+        }
+        return null;
+      });
+    run.pipeline.enqueue("job", promise, (service, printerJob) -> run.pipeline.sendData(service, printerJob, job.data),
+      job.priority, null, 0);
+  }
+
+  /**
+   * Receipts of 3 to 40 items, one in five with a logo, 10% high and 10% low priority, Poisson arrivals
+   * @param rate jobs per second
+   */
+  static List<Job> generate(int count, double rate, long seed) {
+    final Random random = new Random(seed);
+    final String[][] items = items(40);
+    final RasterImage logo = RasterImage.fromArgb(logo(256, 96), 256, 96, RasterImage.DITHER_THRESHOLD);
+    final EscPosBuilder builder = new EscPosBuilder();
+    final List<Job> jobs = new ArrayList<>(count);
+    double at = 0;
+    for (int i = 0; i < count; ++i) {
+      at += -Math.log(1 - random.nextDouble()) / rate * 1000;
+      builder.reset().init();
+      if (random.nextInt(5) == 0) {
+        builder.align(EscPosBuilder.ALIGN_CENTER).raster(logo).align(EscPosBuilder.ALIGN_LEFT);
+      }
+      builder.size(2, 2).line("ORDER " + (1000 + i)).size(1, 1);
+      final int lines = 3 + random.nextInt(38);
+      for (int l = 0; l < lines; ++l) {
+        final String[] item = items[(i + l) % items.length];
+        builder.line(item[0]).line("  " + item[1] + " x " + item[2] + "    " + item[3]);
+      }
+      builder.barcode("4006381333931", 2, 80, 2, 2).feed(3).cut(true);
+      final int roll = random.nextInt(10);
+      final int priority = roll == 0 ? PrintQueue.PRIORITY_HIGH : (roll == 9 ? PrintQueue.PRIORITY_LOW : PrintQueue.PRIORITY_NORMAL);
+      jobs.add(new Job((long) at, priority, builder.toByteArray()));
+    }
+    return jobs;
+  }
+
+  private static final String[] PRODUCTS = {
+    "Organic whole milk 1L", "Sourdough bread", "Free range eggs x12", "Bananas", "Greek yoghurt 500g",
+    "Cheddar cheese mature", "Tomatoes on the vine", "Olive oil extra virgin", "Basmati rice 2kg", "Dark chocolate 70%",
+    "有机全脂牛奶", "乌龙茶", "新鲜草莓", "Espresso beans 1kg", "Sparkling water 6x1.5L",
+  };
+
+  /**
+   * Rows of name, quantity, unit price and total
+   */
+  private static String[][] items(int count) {
+    final Random random = new Random(42);
+    final String[][] rows = new String[count][];
+    for (int i = 0; i < count; ++i) {
+      final int quantity = 1 + random.nextInt(5);
+      final int cents = 49 + random.nextInt(2000);
+      rows[i] = new String[]{PRODUCTS[random.nextInt(PRODUCTS.length)], Integer.toString(quantity), money(cents),
+        money(cents * quantity)};
+    }
+    return rows;
+  }
+
+  private static String money(int cents) {
+    return (cents / 100) + "." + (cents % 100 < 10 ? "0" : "") + (cents % 100);
+  }
+
+  /**
+   * A ring over a bar, ARGB on a transparent background
+   */
+  private static int[] logo(int width, int height) {
+    final int[] argb = new int[width * height];
+    final int radius = Math.min(width, height) / 3;
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        final int dx = x - width / 2;
+        final int dy = y - height / 2;
+        final boolean ring = Math.abs(dx * dx + dy * dy - radius * radius) < radius * 8;
+        final boolean bar = y > height - 24 && x > width / 8 && x < width * 7 / 8;
+        argb[y * width + x] = ring || bar ? 0xFF101010 : 0x00000000;
+      }
+    }
+    return argb;
+  }
+
+  static List<Job> read(File file) throws IOException {
+    final List<Job> jobs = new ArrayList<>();
+    final BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        final String[] fields = line.split(" ", 3);
+        if (fields.length != 3) {
+          throw new IOException("expected 'arrivalMs priority base64' in line '" + line + "'");
+        }
+        jobs.add(new Job(Long.parseLong(fields[0]), PrintQueue.parsePriority(fields[1]), Base64.getDecoder().decode(fields[2])));
+      }
+    } finally {
+      reader.close();
+    }
+    return jobs;
+  }
+
+  static void write(List<Job> jobs, File file) throws IOException {
+    final String[] priorities = {"high", "normal", "low"};
+    final PrintWriter writer = new PrintWriter(new FileWriter(file));
+    try {
+      writer.println("# arrivalMs priority base64 ESC/POS");
+      for (Job job : jobs) {
+        writer.println(job.arrivalMs + " " + priorities[job.priority] + " " + Base64.getEncoder().encodeToString(job.data));
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Polling and pause limits are real time, scale them like the printer
+   */
+  static FlowControl.Options scale(FlowControl.Options flow, SimulatedPrinter.Config config) {
+    flow.pollIntervalMs = scaledMs(flow.pollIntervalMs, config);
+    flow.idleMs = scaledMs(flow.idleMs, config);
+    flow.maxPauseMs = scaledMs(flow.maxPauseMs, config);
+    return flow;
+  }
+
+  private static long scaledMs(long ms, SimulatedPrinter.Config config) {
+    return Math.max(1, (long) (ms * config.timeScale));
+  }
+
+  private static long printerNanos(long nanos, SimulatedPrinter.Config config) {
+    return (long) (nanos / config.timeScale);
+  }
+
+  private static int intOption(Map<String, String> options, String name, int fallback) {
+    return options.containsKey(name) ? Integer.parseInt(options.get(name)) : fallback;
+  }
+
+  private static double doubleOption(Map<String, String> options, String name, double fallback) {
+    return options.containsKey(name) ? Double.parseDouble(options.get(name)) : fallback;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void print(Map<String, Object> map, String indent) {
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      if (entry.getValue() instanceof Map) {
+        System.out.println(indent + entry.getKey() + ":");
+        print((Map<String, Object>) entry.getValue(), indent + "  ");
+      } else {
+        System.out.println(indent + entry.getKey() + ": " + format(entry.getValue()));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String toJson(Object value) {
+    if (value instanceof Map) {
+      final StringBuilder json = new StringBuilder("{");
+      for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+        if (json.length() > 1) {
+          json.append(',');
+        }
+        json.append('"').append(entry.getKey()).append("\":").append(toJson(entry.getValue()));
+      }
+      return json.append('}').toString();
+    }
+    return value instanceof Number ? format(value) : "\"" + value + "\"";
+  }
+
+  private static String format(Object value) {
+    if (value instanceof Double) {
+      final double number = (Double) value;
+      return number == Math.rint(number) ? Long.toString((long) number) : String.format(Locale.ROOT, "%.3f", number);
+    }
+    return String.valueOf(value);
+  }
+}
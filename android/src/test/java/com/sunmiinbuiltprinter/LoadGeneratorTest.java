@@ -0,0 +1,53 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LoadGeneratorTest {
+
+  private static final int JOBS = 40;
+
+  @Test
+  public void printsEveryJobThroughDisconnects() throws Exception {
+    final Map<String, Object> report = run(false);
+    assertEquals((double) JOBS, report.get("printed"));
+    // the printer lost buffered jobs and the pipeline replayed them
+    assertTrue((Double) report.get("lost") > 0);
+  }
+
+  @Test
+  public void printsEveryJobWithFlowControl() throws Exception {
+    final Map<String, Object> report = run(true);
+    assertEquals((double) JOBS, report.get("printed"));
+  }
+
+  /**
+   * ./gradlew testDebugUnitTest --tests '*LoadGeneratorTest' -Pload.args="--jobs=2000 --rate=3"
+   */
+  @Test
+  public void runsTheLoadTestOfTheCommandLine() throws Exception {
+    final String args = System.getProperty("load.args");
+    Assume.assumeTrue(args != null && !args.trim().isEmpty());
+    LoadGenerator.main(args.trim().split("\\s+"));
+  }
+
+  /**
+   * JOBS receipts at 500 times real time, the printer disconnects every 30s for 2s
+   */
+  private static Map<String, Object> run(boolean flowControl) throws InterruptedException {
+    final SimulatedPrinter.Config config = new SimulatedPrinter.Config();
+    config.timeScale = 0.002;
+    config.bufferBytes = 8 * 1024;
+    config.record = false;
+    final FlowControl.Options flow = new FlowControl.Options();
+    flow.enabled = flowControl;
+    final List<LoadGenerator.Job> workload = LoadGenerator.generate(JOBS, 1, 1);
+    return LoadGenerator.run(workload, config, LoadGenerator.scale(flow, config), 512, 20000, 30000, 2000);
+  }
+}
@@ -0,0 +1,124 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PaperCounterTest {
+
+  private static final byte ESC = ESCUtil.ESC;
+  private static final byte GS = ESCUtil.GS;
+  private static final byte LF = ESCUtil.LF;
+
+  private static final int LINE = 30;
+  private static final int BARCODE = 162;
+
+  @Test
+  public void countsLineFeedsAndFeedCommands() {
+    assertEquals(2 * LINE, count(new byte[]{'a', LF, 'b', LF}));
+    assertEquals(3 * LINE, count(new byte[]{ESC, 'd', 3}));
+    assertEquals(200, count(new byte[]{ESC, 'J', (byte) 200}));
+    // the argument of a command is not a line feed
+    assertEquals(0, count(new byte[]{ESC, 'a', LF, ESC, '!', LF, GS, '!', LF}));
+  }
+
+  @Test
+  public void skipsRasterPixels() {
+    final byte[] raster = raster(2, 3, LF);
+    assertEquals(3 + LINE, count(concat(raster, new byte[]{LF})));
+    // an other GS v than GS v 0 carries no size the counter knows
+    assertEquals(LINE, count(new byte[]{GS, 'v', '1', LF}));
+  }
+
+  @Test
+  public void skipsRasterPixelsSplitAcrossChunks() {
+    final byte[] data = concat(raster(4, 10, LF), new byte[]{LF});
+    final int whole = count(data);
+    for (int split = 1; split < data.length; ++split) {
+      assertEquals("split at " + split, whole, countSplit(data, split));
+    }
+  }
+
+  @Test
+  public void countsBarcodesAndSkipsTheirContent() {
+    // GS k m d1...dk NUL
+    final byte[] nul = {GS, 'k', 4, LF, LF, LF, 0, LF};
+    // GS k m n d1...dn
+    final byte[] counted = {GS, 'k', 73, 3, LF, LF, LF, LF};
+    for (byte[] data : new byte[][]{nul, counted}) {
+      assertEquals(BARCODE + LINE, count(data));
+      for (int split = 1; split < data.length; ++split) {
+        assertEquals("split at " + split, BARCODE + LINE, countSplit(data, split));
+      }
+    }
+  }
+
+  @Test
+  public void followsTheBarcodeHeight() {
+    final PaperCounter counter = new PaperCounter(LINE, BARCODE);
+    assertEquals(80, counter.add(new byte[]{GS, 'h', 80, GS, 'k', 73, 1, '1'}));
+    assertEquals(80, counter.add(new byte[]{GS, 'k', 73, 1, '2'}));
+    assertEquals(BARCODE, counter.reset().add(new byte[]{GS, 'k', 73, 1, '3'}));
+  }
+
+  @Test
+  public void skipsFunctionParameters() {
+    // GS ( k with a QR code payload full of line feeds
+    final byte[] qr = {GS, '(', 'k', 5, 0, '1', 'P', '0', LF, LF, LF};
+    assertEquals(LINE, count(qr));
+    assertEquals(LINE, countSplit(qr, 4));
+  }
+
+  @Test
+  public void paperMmUsesEightDotsPerMillimetre() {
+    assertEquals(LINE / 8.0, FlowControl.paperMm(new byte[]{LF}), 1e-9);
+    assertEquals(100 / 8.0, FlowControl.paperMm(raster(1, 100, (byte) 0)), 1e-9);
+  }
+
+  @Test
+  public void refusedDataFillsTheBacklog() {
+    final FlowControl flow = new FlowControl();
+    final FlowControl.Options options = new FlowControl.Options();
+    options.enabled = true;
+    flow.configure(options);
+    flow.sent(new byte[]{ESC, 'J', 80});
+    assertEquals(10.0, (Double) flow.snapshot().get("backlogMm"), 1e-9);
+    flow.onRefused();
+    assertEquals(options.highWaterMm + 1, (Double) flow.snapshot().get("backlogMm"), 1e-9);
+    assertTrue(FlowControl.isTransient(FlowControl.EXCEPTION_BUFFER_FULL));
+    assertFalse(FlowControl.isTransient(0));
+  }
+
+  private static int count(byte[] data) {
+    return (int) new PaperCounter(LINE, BARCODE).add(data);
+  }
+
+  private static int countSplit(byte[] data, int split) {
+    final PaperCounter counter = new PaperCounter(LINE, BARCODE);
+    return (int) (counter.add(data, 0, split) + counter.add(data, split, data.length - split));
+  }
+
+  /**
+   * GS v 0 image with every pixel byte set to fill
+   */
+  private static byte[] raster(int bytesPerRow, int rows, byte fill) {
+    final byte[] data = new byte[8 + bytesPerRow * rows];
+    data[0] = GS;
+    data[1] = 'v';
+    data[2] = '0';
+    data[4] = (byte) bytesPerRow;
+    data[6] = (byte) rows;
+    Arrays.fill(data, 8, data.length, fill);
+    return data;
+  }
+
+  private static byte[] concat(byte[] a, byte[] b) {
+    final byte[] out = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, out, a.length, b.length);
+    return out;
+  }
+}
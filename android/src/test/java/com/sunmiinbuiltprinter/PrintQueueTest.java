@@ -0,0 +1,277 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrintQueueTest {
+
+  private PrintQueue queue;
+  // "name" for a job that ran, "name:CODE" for one that failed
+  private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @Before
+  public void setUp() throws InterruptedException {
+    queue = new PrintQueue(8, "PrintQueueTest");
+    // hold the worker so the next jobs wait in the queue
+    final CountDownLatch started = new CountDownLatch(1);
+    queue.submit(new Recorder("blocker") {
+      @Override
+      public void run() throws InterruptedException {
+        started.countDown();
+        release.await();
+        super.run();
+      }
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    queue.shutdown();
+  }
+
+  @Test
+  public void runsByPriorityThenSubmissionOrder() throws InterruptedException {
+    queue.submit(new Recorder("low"), PrintQueue.PRIORITY_LOW, null, 0);
+    queue.submit(new Recorder("normal1"));
+    queue.submit(new Recorder("high1"), PrintQueue.PRIORITY_HIGH, null, 0);
+    queue.submit(new Recorder("normal2"));
+    queue.submit(new Recorder("high2"), PrintQueue.PRIORITY_HIGH, null, 0);
+    assertEquals(5, queue.size());
+    assertEquals(2, queue.size(PrintQueue.PRIORITY_HIGH));
+    release.countDown();
+    awaitLog(6);
+    assertEquals(Arrays.asList("blocker", "high1", "high2", "normal1", "normal2", "low"), log);
+  }
+
+  @Test
+  public void resubmittedJobsGoFirst() throws InterruptedException {
+    queue.submit(new Recorder("high"), PrintQueue.PRIORITY_HIGH, null, 0);
+    queue.resubmit(new Recorder("replay"));
+    release.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("blocker", "replay", "high"), log);
+  }
+
+  @Test
+  public void cancelsWaitingJobs() throws InterruptedException {
+    queue.submit(new Recorder("a"), PrintQueue.PRIORITY_NORMAL, "a", 0);
+    queue.submit(new Recorder("b"), PrintQueue.PRIORITY_NORMAL, "b", 0);
+    assertTrue(queue.cancel("a"));
+    assertFalse(queue.cancel("a"));
+    assertFalse(queue.cancel("unknown"));
+    assertEquals(1, queue.size());
+    release.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("a:" + PrintQueue.ERROR_CANCELLED, "blocker", "b"), log);
+    // the id is free again once its job left the queue
+    assertTrue(queue.submit(new Recorder("a2"), PrintQueue.PRIORITY_NORMAL, "a", 0));
+  }
+
+  @Test
+  public void rejectsDuplicateIds() {
+    assertTrue(queue.submit(new Recorder("a"), PrintQueue.PRIORITY_NORMAL, "a", 0));
+    assertFalse(queue.submit(new Recorder("again"), PrintQueue.PRIORITY_NORMAL, "a", 0));
+    assertEquals(Arrays.asList("again:" + PrintQueue.ERROR_DUPLICATE_ID), log);
+  }
+
+  @Test
+  public void failsJobsThatMissTheirDeadline() throws InterruptedException {
+    queue.submit(new Recorder("late"), PrintQueue.PRIORITY_HIGH, "late", 50);
+    queue.submit(new Recorder("patient"), PrintQueue.PRIORITY_NORMAL, null, 60000);
+    // the expiry timer fails it while the worker is still busy
+    awaitLog(1);
+    assertEquals(Arrays.asList("late:" + PrintQueue.ERROR_DEADLINE_EXCEEDED), log);
+    assertEquals(1, queue.size());
+    assertFalse(queue.cancel("late"));
+    release.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("late:" + PrintQueue.ERROR_DEADLINE_EXCEEDED, "blocker", "patient"), log);
+  }
+
+  @Test
+  public void rejectsJobsWhileFull() {
+    queue.configure(2, PrintQueue.POLICY_REJECT, 0);
+    assertTrue(queue.submit(new Recorder("a")));
+    assertTrue(queue.submit(new Recorder("b")));
+    assertFalse(queue.submit(new Recorder("c")));
+    assertEquals(Arrays.asList("c:" + PrintQueue.ERROR_QUEUE_FULL), log);
+  }
+
+  @Test
+  public void parksJobsWithoutBlockingWhileFull() throws InterruptedException {
+    queue.configure(1, PrintQueue.POLICY_WAIT, 60000);
+    assertTrue(queue.submit(new Recorder("a")));
+    final long start = System.nanoTime();
+    assertTrue(queue.submit(new Recorder("b")));
+    assertTrue(queue.submit(new Recorder("c"), PrintQueue.PRIORITY_HIGH, null, 0));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    assertEquals(1, queue.size());
+    // parked jobs are admitted in submission order as room frees up
+    release.countDown();
+    awaitLog(4);
+    assertEquals(Arrays.asList("blocker", "a", "b", "c"), log);
+  }
+
+  @Test
+  public void failsParkedJobsWhenTheWaitTimesOut() throws InterruptedException {
+    queue.configure(1, PrintQueue.POLICY_WAIT, 50);
+    queue.submit(new Recorder("a"));
+    assertTrue(queue.submit(new Recorder("b")));
+    awaitLog(1);
+    assertEquals(Arrays.asList("b:" + PrintQueue.ERROR_QUEUE_FULL), log);
+    release.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("b:" + PrintQueue.ERROR_QUEUE_FULL, "blocker", "a"), log);
+  }
+
+  @Test
+  public void cancelsParkedJobs() throws InterruptedException {
+    queue.configure(1, PrintQueue.POLICY_WAIT, 60000);
+    queue.submit(new Recorder("a"));
+    queue.submit(new Recorder("b"), PrintQueue.PRIORITY_NORMAL, "b", 0);
+    assertTrue(queue.cancel("b"));
+    release.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("b:" + PrintQueue.ERROR_CANCELLED, "blocker", "a"), log);
+  }
+
+  @Test
+  public void admitsParkedJobsWhenTheCapacityGrows() throws InterruptedException {
+    queue.configure(1, PrintQueue.POLICY_WAIT, 60000);
+    queue.submit(new Recorder("a"));
+    queue.submit(new Recorder("b"));
+    assertEquals(1, queue.size());
+    queue.configure(2, PrintQueue.POLICY_WAIT, 60000);
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  public void failsEveryJobAtOnceWhenTheGateStaysClosed() throws InterruptedException {
+    queue.gate(new PrintQueue.Gate() {
+      @Override
+      public boolean await(long timeoutMs) throws InterruptedException {
+        Thread.sleep(timeoutMs);
+        return false;
+      }
+    }, 300, "CLOSED", "gate closed");
+    queue.submit(new Recorder("a"));
+    queue.submit(new Recorder("b"));
+    queue.submit(new Recorder("c"));
+    final long start = System.nanoTime();
+    release.countDown();
+    awaitLog(4);
+    // one shared timeout, not one per job
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+    assertEquals(Arrays.asList("blocker", "a:CLOSED", "b:CLOSED", "c:CLOSED"), log);
+  }
+
+  @Test
+  public void runsJobsOnceTheGateOpens() throws InterruptedException {
+    final CountDownLatch open = new CountDownLatch(1);
+    queue.gate(new PrintQueue.Gate() {
+      @Override
+      public boolean await(long timeoutMs) throws InterruptedException {
+        return open.await(timeoutMs, TimeUnit.MILLISECONDS);
+      }
+    }, 60000, "CLOSED", "gate closed");
+    queue.submit(new Recorder("a"));
+    queue.submit(new Recorder("b"), PrintQueue.PRIORITY_HIGH, null, 0);
+    release.countDown();
+    awaitLog(1);
+    assertEquals(2, queue.size());
+    open.countDown();
+    awaitLog(3);
+    assertEquals(Arrays.asList("blocker", "b", "a"), log);
+  }
+
+  @Test
+  public void cancelsAndExpiresJobsWaitingForTheGate() throws InterruptedException {
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    queue.gate(new PrintQueue.Gate() {
+      @Override
+      public boolean await(long timeoutMs) throws InterruptedException {
+        waiting.countDown();
+        try {
+          Thread.sleep(timeoutMs);
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+          throw e;
+        }
+        return false;
+      }
+    }, 60000, "CLOSED", "gate closed");
+    queue.submit(new Recorder("a"), PrintQueue.PRIORITY_NORMAL, "a", 0);
+    queue.submit(new Recorder("late"), PrintQueue.PRIORITY_NORMAL, null, 300);
+    release.countDown();
+    assertTrue(waiting.await(5, TimeUnit.SECONDS));
+    assertTrue(queue.cancel("a"));
+    awaitLog(3);
+    assertEquals(Arrays.asList("blocker", "a:" + PrintQueue.ERROR_CANCELLED, "late:" + PrintQueue.ERROR_DEADLINE_EXCEEDED), log);
+    // with nothing left to start the worker stops waiting
+    assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shutdownFailsWaitingJobs() {
+    queue.submit(new Recorder("a"));
+    queue.shutdown();
+    assertFalse(queue.submit(new Recorder("b")));
+    // the interrupted blocker fails on the worker thread at any point in between
+    log.remove("blocker:0");
+    assertEquals(Arrays.asList("a:" + PrintQueue.ERROR_SHUTDOWN, "b:" + PrintQueue.ERROR_SHUTDOWN), log);
+  }
+
+  @Test
+  public void parsesPriorityNames() {
+    assertEquals(PrintQueue.PRIORITY_NORMAL, PrintQueue.parsePriority(null));
+    assertEquals(PrintQueue.PRIORITY_HIGH, PrintQueue.parsePriority("high"));
+    assertEquals(PrintQueue.PRIORITY_LOW, PrintQueue.parsePriority("low"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownPriority() {
+    PrintQueue.parsePriority("urgent");
+  }
+
+  private void awaitLog(int entries) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (log.size() < entries && System.nanoTime() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(entries, log.size());
+  }
+
+  private class Recorder implements PrintQueue.Job {
+    private final String name;
+
+    Recorder(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() throws InterruptedException {
+      log.add(name);
+    }
+
+    @Override
+    public void fail(String code, String message) {
+      log.add(name + ":" + code);
+    }
+  }
+}
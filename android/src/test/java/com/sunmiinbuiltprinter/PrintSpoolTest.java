@@ -0,0 +1,141 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrintSpoolTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void keepsPendingJobsAcrossReopen() throws IOException {
+    final File file = journal();
+    PrintSpool spool = new PrintSpool(file);
+    assertNotNull(spool.add("a", new byte[]{1, 2, 3}));
+    assertNotNull(spool.add("b", new byte[]{4}));
+    assertNotNull(spool.add("c", new byte[0]));
+    spool.done("b");
+    spool.close();
+
+    spool = new PrintSpool(file);
+    final List<PrintSpool.Entry> pending = spool.pending();
+    assertEquals(2, pending.size());
+    assertEquals("a", pending.get(0).key);
+    assertArrayEquals(new byte[]{1, 2, 3}, pending.get(0).data);
+    assertEquals("c", pending.get(1).key);
+    assertTrue(spool.isDone("b"));
+    assertFalse(spool.isPending("b"));
+    spool.close();
+  }
+
+  @Test
+  public void ignoresKeysAlreadySpooledOrPrinted() throws IOException {
+    final PrintSpool spool = new PrintSpool(journal());
+    assertNotNull(spool.add("a", new byte[]{1}));
+    assertNull(spool.add("a", new byte[]{2}));
+    spool.done("a");
+    assertNull(spool.add("a", new byte[]{3}));
+    assertEquals(0, spool.pendingCount());
+    spool.close();
+  }
+
+  @Test
+  public void dropsARecordTornByACrash() throws IOException {
+    final File file = journal();
+    PrintSpool spool = new PrintSpool(file);
+    spool.add("a", new byte[]{1});
+    final long complete = spool.journalBytes();
+    spool.add("b", new byte[]{2, 3, 4});
+    spool.close();
+    truncate(file, file.length() - 3);
+
+    spool = new PrintSpool(file);
+    assertEquals(1, spool.pendingCount());
+    assertTrue(spool.isPending("a"));
+    assertFalse(spool.isPending("b"));
+    assertEquals(complete, spool.journalBytes());
+    // the torn record is cut off, so the next one follows the last complete record
+    spool.add("b", new byte[]{5});
+    spool.close();
+
+    spool = new PrintSpool(file);
+    assertEquals(2, spool.pendingCount());
+    assertArrayEquals(new byte[]{5}, spool.pending().get(1).data);
+    spool.close();
+  }
+
+  @Test
+  public void dropsGarbageAfterTheLastRecord() throws IOException {
+    final File file = journal();
+    PrintSpool spool = new PrintSpool(file);
+    spool.add("a", new byte[]{1});
+    spool.close();
+    final long complete = file.length();
+    final FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      // a plausible length followed by a body whose crc does not match
+      out.write(new byte[]{0, 0, 0, 12, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 'x', 1, 2, 3, 4, 5, 6});
+    } finally {
+      out.close();
+    }
+
+    spool = new PrintSpool(file);
+    assertEquals(1, spool.pendingCount());
+    assertEquals(complete, spool.journalBytes());
+    spool.close();
+  }
+
+  @Test
+  public void compactsOncePrintedJobsDominate() throws IOException {
+    final File file = journal();
+    PrintSpool spool = new PrintSpool(file);
+    spool.add("kept", new byte[]{7, 8, 9});
+    final byte[] job = new byte[8 * 1024];
+    long largest = 0;
+    for (int i = 0; i < 32; ++i) {
+      spool.add("job" + i, job);
+      largest = Math.max(largest, spool.journalBytes());
+      spool.done("job" + i);
+    }
+    assertTrue(largest >= PrintSpool.COMPACT_MIN_BYTES);
+    assertTrue(spool.journalBytes() < PrintSpool.COMPACT_MIN_BYTES);
+    assertFalse(new File(file.getPath() + ".compact").exists());
+    spool.close();
+
+    spool = new PrintSpool(file);
+    assertEquals(1, spool.pendingCount());
+    assertArrayEquals(new byte[]{7, 8, 9}, spool.pending().get(0).data);
+    for (int i = 0; i < 32; ++i) {
+      assertTrue(spool.isDone("job" + i));
+    }
+    spool.close();
+  }
+
+  private File journal() {
+    return new File(folder.getRoot(), "spool/journal");
+  }
+
+  private static void truncate(File file, long length) throws IOException {
+    final RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      out.setLength(length);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.RemoteException;
+
+import com.facebook.react.bridge.Promise;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PrinterJobTest {
+
+  // settlements of the promise, then "error" when the onError action ran, "replay" for a job sent back to the queue
+  private final List<String> log = new ArrayList<>();
+
+  @Test
+  public void runsTheErrorActionWhenACallbackFails() throws Exception {
+    final PromiseCallback[] callback = new PromiseCallback[1];
+    final PrinterJob job = job((service, started) -> {
+      started.onError(() -> log.add("error"));
+      callback[0] = started.callback();
+    });
+    job.run();
+    callback[0].onRunResult(false);
+    assertEquals(Arrays.asList("reject:0", "error"), log);
+  }
+
+  @Test
+  public void runsTheErrorActionWhenTheCallThrows() throws Exception {
+    final PrinterJob job = job((service, started) -> {
+      started.onError(() -> log.add("error"));
+      throw new RemoteException("binder failed");
+    });
+    job.run();
+    assertEquals(Arrays.asList("reject:0", "error"), log);
+  }
+
+  @Test
+  public void keepsQuietOnSuccess() throws Exception {
+    final PromiseCallback[] callback = new PromiseCallback[1];
+    final PrinterJob job = job((service, started) -> {
+      started.onError(() -> log.add("error"));
+      callback[0] = started.callback();
+    });
+    job.run();
+    callback[0].onRunResult(true);
+    assertEquals(Arrays.asList("resolve"), log);
+  }
+
+  @Test
+  public void goesBackOnTheQueueWhenTheServiceIsGone() throws Exception {
+    final PrinterJob job = job((service, started) -> log.add("call"), null);
+    job.run();
+    assertEquals(Arrays.asList("replay"), log);
+  }
+
+  private PrinterJob job(PrinterJob.Call call) {
+    return job(call, fake(SunmiPrinterService.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        return null;
+      }
+    }));
+  }
+
+  private PrinterJob job(PrinterJob.Call call, final SunmiPrinterService service) {
+    final Promise promise = fake(Promise.class, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) {
+        log.add("resolve".equals(method.getName()) ? "resolve" : "reject:" + args[0]);
+        return null;
+      }
+    });
+    return new PrinterJob("test", promise, call, new PrinterJob.Host() {
+      @Override
+      public SunmiPrinterService awaitService() {
+        return service;
+      }
+
+      @Override
+      public void onUnacknowledged(PrinterJob job) {
+      }
+
+      @Override
+      public void onAcknowledged(PrinterJob job) {
+      }
+
+      @Override
+      public void replay(PrinterJob job) {
+        log.add("replay");
+      }
+    }, new PrinterMetrics());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T fake(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler);
+  }
+}
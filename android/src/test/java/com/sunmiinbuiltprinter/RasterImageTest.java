@@ -0,0 +1,100 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RasterImageTest {
+
+  private static final int BLACK = 0xFF000000;
+  private static final int WHITE = 0xFFFFFFFF;
+  private static final int GREY = 0xFF808080;
+
+  @Test
+  public void luminanceCompositesOntoWhitePaper() {
+    assertEquals(0, RasterImage.luminance(BLACK));
+    assertEquals(255, RasterImage.luminance(WHITE));
+    assertEquals(255, RasterImage.luminance(0x00000000));
+    assertEquals(127, RasterImage.luminance(0x80000000));
+  }
+
+  @Test
+  public void thresholdPacksRowsMostSignificantBitFirst() {
+    // 10 pixels wide: two bytes per row, the last six bits are padding
+    final int[] argb = new int[20];
+    Arrays.fill(argb, WHITE);
+    argb[0] = BLACK;
+    argb[9] = BLACK;
+    argb[10 + 7] = BLACK;
+    argb[10 + 8] = 0x00000000;
+    final RasterImage image = RasterImage.fromArgb(argb, 10, 2, RasterImage.DITHER_THRESHOLD);
+    assertEquals(2, image.bytesPerRow);
+    assertArrayEquals(new byte[]{(byte) 0x80, 0x40, 0x01, 0x00}, image.data);
+  }
+
+  @Test
+  public void ditheringKeepsTheGreyLevel() {
+    final int width = 64;
+    final int height = 64;
+    final int[] argb = new int[width * height];
+    Arrays.fill(argb, GREY);
+    for (int dither : new int[]{RasterImage.DITHER_ORDERED, RasterImage.DITHER_FLOYD_STEINBERG}) {
+      // about half of a 50% grey is black
+      final double share = count(RasterImage.fromArgb(argb, width, height, dither)) / (double) (width * height);
+      assertTrue("dither " + dither + " printed " + share + " black", share > 0.4 && share < 0.6);
+    }
+    assertEquals(0, count(RasterImage.fromArgb(argb, width, height, RasterImage.DITHER_THRESHOLD)));
+  }
+
+  @Test
+  public void bandsSplitTallImages() {
+    final int width = 16;
+    final int height = RasterImage.BAND_HEIGHT + 3;
+    final int[] argb = new int[width * height];
+    Arrays.fill(argb, BLACK);
+    final RasterImage image = RasterImage.fromArgb(argb, width, height, RasterImage.DITHER_THRESHOLD);
+    final byte[] out = image.toEscPos();
+    assertEquals(image.escPosLength(), out.length);
+    assertEquals(2 * 8 + 2 * height, out.length);
+    assertArrayEquals(header(2, RasterImage.BAND_HEIGHT), Arrays.copyOfRange(out, 0, 8));
+    final int second = 8 + 2 * RasterImage.BAND_HEIGHT;
+    assertArrayEquals(header(2, 3), Arrays.copyOfRange(out, second, second + 8));
+    assertEquals(-1, out[second + 8]);
+  }
+
+  @Test
+  public void writesAtAnOffset() {
+    final RasterImage image = RasterImage.fromArgb(new int[]{BLACK, WHITE}, 2, 1, RasterImage.DITHER_THRESHOLD);
+    final byte[] out = new byte[4 + image.escPosLength()];
+    assertEquals(out.length, image.writeEscPos(out, 4));
+    assertEquals((byte) 0x80, out[out.length - 1]);
+  }
+
+  @Test
+  public void parsesDitherNames() {
+    assertEquals(RasterImage.DITHER_THRESHOLD, RasterImage.parseDither(null));
+    assertEquals(RasterImage.DITHER_ORDERED, RasterImage.parseDither("ordered"));
+    assertEquals(RasterImage.DITHER_FLOYD_STEINBERG, RasterImage.parseDither("floydSteinberg"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownDither() {
+    RasterImage.parseDither("atkinson");
+  }
+
+  private static byte[] header(int bytesPerRow, int rows) {
+    return new byte[]{ESCUtil.GS, 'v', '0', 0, (byte) bytesPerRow, 0, (byte) rows, (byte) (rows >> 8)};
+  }
+
+  private static int count(RasterImage image) {
+    int black = 0;
+    for (byte b : image.data) {
+      black += Integer.bitCount(b & 0xFF);
+    }
+    return black;
+  }
+}
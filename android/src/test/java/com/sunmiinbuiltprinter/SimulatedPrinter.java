@@ -0,0 +1,584 @@
+package com.sunmiinbuiltprinter;
+
+import android.os.DeadObjectException;
+import android.os.RemoteException;
+
+import com.sunmi.peripheral.printer.InnerResultCallback;
+import com.sunmi.peripheral.printer.SunmiPrinterService;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thermal printer simulated on the JVM, a PrinterBackend for load and soak testing of the print pipeline.
+ * Its service answers sendRAWData, updatePrinterState and getPrintedLength, every other call returns a default.
+ * Every send costs a fixed call latency on the calling thread and is then buffered; a print head thread feeds
+ * the paper at the configured speed, for as many millimetres as the ESC/POS data advances it, and acknowledges
+ * each job once it is printed. sendRAWData blocks while the buffer is full. The printer can run out of paper
+ * (after a roll length or on demand) and overheat (after printing too long without a break), which fails the
+ * buffered jobs through their callbacks; an overheated head recovers once it cooled down. disconnect() drops the
+ * service like a crash: buffered jobs are lost without a callback and calls throw DeadObjectException until
+ * reconnect(). Printed data is recorded so tests can compare it with what was sent.
+ */
+final class SimulatedPrinter implements PrinterBackend {
+
+  static final class Config {
+    /**
+     * binder call and service handling per send
+     */
+    long callLatencyMicros = 300;
+
+    /**
+     * 70mm/s for the V2, 160mm/s for the T2
+     */
+    double paperSpeedMmPerSecond = 70;
+
+    /**
+     * 203dpi
+     */
+    double dotsPerMm = 8;
+
+    /**
+     * paper advance of a line feed in dots
+     */
+    int lineDots = 30;
+
+    /**
+     * barcode height until GS h sets one
+     */
+    int barcodeDots = 162;
+
+    int bufferBytes = 64 * 1024;
+
+    /**
+     * paper left on the roll, 0 for an endless roll
+     */
+    double paperRollMm = 0;
+
+    /**
+     * heat, in millimetres of printing, at which the head overheats, 0 for a head that never does
+     */
+    double overheatMm = 0;
+
+    /**
+     * heat the head loses per second, printing faster than this heats it up; it prints again at half overheatMm
+     */
+    double coolMmPerSecond = 20;
+
+    /**
+     * multiplies every delay, 0.01 runs a soak test 100 times faster than real time
+     */
+    double timeScale = 1;
+
+    /**
+     * keep the printed data, see output()
+     */
+    boolean record = true;
+  }
+
+  private static final class Pending {
+    final byte[] data;
+    final InnerResultCallback callback;
+    final double mm;
+
+    Pending(byte[] data, InnerResultCallback callback, double mm) {
+      this.data = data;
+      this.callback = callback;
+      this.mm = mm;
+    }
+  }
+
+  /**
+   * the printer service as the print pipeline calls it
+   */
+  final SunmiPrinterService service = (SunmiPrinterService) Proxy.newProxyInstance(
+    SunmiPrinterService.class.getClassLoader(), new Class<?>[]{SunmiPrinterService.class}, (proxy, method, args) -> call(method, args));
+
+  private final Config config;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notFull = lock.newCondition();
+  private final Condition changed = lock.newCondition();
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+  private final Thread head;
+
+  private int state = FlowControl.STATE_NORMAL;
+  private int buffered;
+  private double paperLeftMm;
+  private double printedMm;
+  // System.nanoTime() the job being printed started and how far it goes, printedMm() counts its progress
+  private long printingSinceNanos;
+  private double printingMm;
+  private double heatMm;
+  private long heatNanos = System.nanoTime();
+  private long printedBytes;
+  private long jobsPrinted;
+  private long jobsFailed;
+  private long jobsLost;
+  private boolean closed;
+  private volatile Runnable onDisconnected;
+
+  SimulatedPrinter(Config config) {
+    this.config = config;
+    paperLeftMm = config.paperRollMm;
+    head = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        printLoop();
+      }
+    }, "SimulatedPrintHead");
+    head.setDaemon(true);
+    head.start();
+  }
+
+  @Override
+  public SunmiPrinterService awaitService(long timeoutMs) throws InterruptedException {
+    long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    lock.lock();
+    try {
+      while (state == FlowControl.STATE_NO_PRINTER && !closed && remaining > 0) {
+        remaining = changed.awaitNanos(remaining);
+      }
+      return state == FlowControl.STATE_NO_PRINTER || closed ? null : service;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Run listener after every disconnect(), like the connection listener of the module
+   */
+  void onDisconnected(Runnable listener) {
+    onDisconnected = listener;
+  }
+
+  private Object call(Method method, Object[] args) throws Exception {
+    if (method.getDeclaringClass() == Object.class) {
+      return method.invoke(this, args);
+    }
+    switch (method.getName()) {
+      case "sendRAWData":
+        send((byte[]) args[0], (InnerResultCallback) args[1]);
+        return null;
+      case "updatePrinterState":
+        return connectedState();
+      case "getPrintedLength":
+        connectedState();
+        ((InnerResultCallback) args[0]).onReturnString(Double.toString(printedMm()));
+        return null;
+      default:
+        final Class<?> type = method.getReturnType();
+        return type == boolean.class ? Boolean.FALSE : type == int.class ? Integer.valueOf(0) : null;
+    }
+  }
+
+  private void send(byte[] data, InnerResultCallback callback) throws RemoteException {
+    try {
+      sleepScaled(TimeUnit.MICROSECONDS.toNanos(config.callLatencyMicros));
+    } catch (InterruptedException e) {
+      throw interrupted();
+    }
+    final int failure;
+    lock.lock();
+    try {
+      // data larger than the whole buffer is taken once the buffer is empty
+      while (state == FlowControl.STATE_NORMAL && !closed && buffered > 0 && buffered + data.length > config.bufferBytes) {
+        notFull.await();
+      }
+      if (closed || state == FlowControl.STATE_NO_PRINTER) {
+        throw new DeadObjectException();
+      }
+      failure = state;
+      if (failure == FlowControl.STATE_NORMAL) {
+        // binder copies the data, the caller may reuse its buffer
+        pending.add(new Pending(data.clone(), callback, paperMm(data)));
+        buffered += data.length;
+        changed.signalAll();
+      } else {
+        ++jobsFailed;
+      }
+    } catch (InterruptedException e) {
+      throw interrupted();
+    } finally {
+      lock.unlock();
+    }
+    if (failure != FlowControl.STATE_NORMAL) {
+      complete(callback, failure);
+    }
+  }
+
+  private static RemoteException interrupted() {
+    Thread.currentThread().interrupt();
+    return new RemoteException("interrupted");
+  }
+
+  private int connectedState() throws DeadObjectException {
+    lock.lock();
+    try {
+      if (closed || state == FlowControl.STATE_NO_PRINTER) {
+        throw new DeadObjectException();
+      }
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int state() {
+    lock.lock();
+    try {
+      return state;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take the paper away, the job printing now and everything buffered fail
+   */
+  void paperOut() {
+    fail(FlowControl.STATE_OUT_OF_PAPER);
+  }
+
+  /**
+   * Insert a new roll of config.paperRollMm
+   */
+  void loadPaper() {
+    recover(FlowControl.STATE_OUT_OF_PAPER);
+  }
+
+  /**
+   * Drop the connection like a service crash, everything buffered is lost without a callback
+   */
+  void disconnect() {
+    lock.lock();
+    try {
+      state = FlowControl.STATE_NO_PRINTER;
+      jobsLost += pending.size();
+      pending.clear();
+      buffered = 0;
+      changed.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    final Runnable listener = onDisconnected;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  void reconnect() {
+    recover(FlowControl.STATE_NO_PRINTER);
+  }
+
+  /**
+   * Stop the print head, buffered jobs fail
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      changed.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    head.interrupt();
+  }
+
+  /**
+   * Everything printed so far, empty unless config.record
+   */
+  byte[] output() {
+    lock.lock();
+    try {
+      return output.toByteArray();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Paper fed so far, including the progress of the job being printed like the length counter of a print head
+   */
+  double printedMm() {
+    lock.lock();
+    try {
+      if (printingMm > 0) {
+        final double seconds = (System.nanoTime() - printingSinceNanos) / 1e9 / config.timeScale;
+        return printedMm + Math.min(printingMm, seconds * config.paperSpeedMmPerSecond);
+      }
+      return printedMm;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long printedBytes() {
+    lock.lock();
+    try {
+      return printedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long jobsPrinted() {
+    lock.lock();
+    try {
+      return jobsPrinted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  long jobsFailed() {
+    lock.lock();
+    try {
+      return jobsFailed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Jobs dropped by disconnect(), the pipeline replays them
+   */
+  long jobsLost() {
+    lock.lock();
+    try {
+      return jobsLost;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void fail(int newState) {
+    final List<Pending> failed;
+    lock.lock();
+    try {
+      state = newState;
+      failed = drain();
+      changed.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    complete(failed, newState);
+  }
+
+  private void recover(int fromState) {
+    lock.lock();
+    try {
+      if (fromState == FlowControl.STATE_OUT_OF_PAPER) {
+        paperLeftMm = config.paperRollMm;
+      }
+      if (state == fromState) {
+        state = FlowControl.STATE_NORMAL;
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Remove every buffered job, call with the lock held
+   */
+  private List<Pending> drain() {
+    final List<Pending> drained = new ArrayList<>(pending);
+    jobsFailed += drained.size();
+    pending.clear();
+    buffered = 0;
+    return drained;
+  }
+
+  private static void complete(List<Pending> failed, int code) {
+    for (Pending job : failed) {
+      complete(job.callback, code);
+    }
+  }
+
+  /**
+   * Answer a callback like the service, with onRunResult(true) for code STATE_NORMAL and onRaiseException otherwise
+   */
+  private static void complete(InnerResultCallback callback, int code) {
+    if (callback == null) {
+      return;
+    }
+    try {
+      if (code == FlowControl.STATE_NORMAL) {
+        callback.onRunResult(true);
+      } else {
+        callback.onRaiseException(code, message(code));
+      }
+    } catch (RemoteException e) {
+      // a callback in this process does not go through binder
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void printLoop() {
+    while (true) {
+      Pending job = null;
+      boolean printed = false;
+      int code;
+      lock.lock();
+      try {
+        while (!closed && (pending.isEmpty() || state != FlowControl.STATE_NORMAL)) {
+          if (state != FlowControl.STATE_OVERHEATED) {
+            changed.awaitUninterruptibly();
+            continue;
+          }
+          final long cooling = coolingNanos();
+          if (cooling <= 0) {
+            state = FlowControl.STATE_NORMAL;
+            continue;
+          }
+          try {
+            changed.awaitNanos(cooling);
+          } catch (InterruptedException e) {
+            closed = true;
+          }
+        }
+        if (closed) {
+          final List<Pending> failed = drain();
+          lock.unlock();
+          try {
+            complete(failed, FlowControl.STATE_NO_PRINTER);
+          } finally {
+            lock.lock();
+          }
+          return;
+        }
+        job = pending.peek();
+        final boolean runsOut = config.paperRollMm > 0 && job.mm > paperLeftMm;
+        // heat per millimetre printed, the head cools at the same time
+        final double heating = 1 - config.coolMmPerSecond / config.paperSpeedMmPerSecond;
+        final double heat = currentHeatMm();
+        final double heatLeftMm = config.overheatMm > 0 && heating > 0
+          ? Math.max(0, (config.overheatMm - heat) / heating) : Double.MAX_VALUE;
+        final boolean overheats = heatLeftMm < Math.min(job.mm, runsOut ? paperLeftMm : job.mm);
+        final double mm = overheats ? heatLeftMm : (runsOut ? paperLeftMm : job.mm);
+        long remaining = scaled((long) (mm / config.paperSpeedMmPerSecond * 1e9));
+        printingSinceNanos = System.nanoTime();
+        printingMm = mm;
+        // events signal changed, the job is only printed if the printer stayed fine the whole time
+        while (remaining > 0 && state == FlowControl.STATE_NORMAL && !closed && pending.peek() == job) {
+          try {
+            remaining = changed.awaitNanos(remaining);
+          } catch (InterruptedException e) {
+            closed = true;
+          }
+        }
+        printingMm = 0;
+        if (pending.peek() != job) {
+          // failed and drained by an event while printing
+          continue;
+        }
+        if (state == FlowControl.STATE_NORMAL && !closed) {
+          heatMm = Math.max(0, heat + mm * heating);
+          heatNanos = System.nanoTime();
+          if (overheats) {
+            printedMm += mm;
+            if (config.paperRollMm > 0) {
+              paperLeftMm -= mm;
+            }
+            state = FlowControl.STATE_OVERHEATED;
+          } else if (runsOut) {
+            printedMm += paperLeftMm;
+            paperLeftMm = 0;
+            state = FlowControl.STATE_OUT_OF_PAPER;
+          }
+        }
+        code = closed ? FlowControl.STATE_NO_PRINTER : state;
+        if (code == FlowControl.STATE_NORMAL) {
+          pending.poll();
+          buffered -= job.data.length;
+          printed = true;
+          printedMm += job.mm;
+          printedBytes += job.data.length;
+          if (config.paperRollMm > 0) {
+            paperLeftMm -= job.mm;
+          }
+          if (config.record) {
+            output.write(job.data, 0, job.data.length);
+          }
+          ++jobsPrinted;
+          notFull.signalAll();
+        } else {
+          // out of paper or overheated during this job: it and everything behind it fail
+          final List<Pending> failed = drain();
+          notFull.signalAll();
+          lock.unlock();
+          try {
+            complete(failed, code);
+          } finally {
+            lock.lock();
+          }
+          continue;
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (printed) {
+        complete(job.callback, FlowControl.STATE_NORMAL);
+      }
+    }
+  }
+
+  /**
+   * How far data advances the paper at the configured resolution
+   */
+  double paperMm(byte[] data) {
+    return new PaperCounter(config.lineDots, config.barcodeDots).add(data) / config.dotsPerMm;
+  }
+
+  /**
+   * Heat left after cooling since the head last printed, call with the lock held
+   */
+  private double currentHeatMm() {
+    final double seconds = (System.nanoTime() - heatNanos) / 1e9 / config.timeScale;
+    return Math.max(0, heatMm - seconds * config.coolMmPerSecond);
+  }
+
+  /**
+   * Time until an overheated head is cool enough to print again, call with the lock held
+   */
+  private long coolingNanos() {
+    final double excessMm = currentHeatMm() - config.overheatMm / 2;
+    return excessMm <= 0 ? 0 : Math.max(1, scaled((long) (excessMm / config.coolMmPerSecond * 1e9)));
+  }
+
+  private long scaled(long nanos) {
+    return (long) (nanos * config.timeScale);
+  }
+
+  private void sleepScaled(long nanos) throws InterruptedException {
+    final long scaled = scaled(nanos);
+    if (scaled > 0) {
+      TimeUnit.NANOSECONDS.sleep(scaled);
+    }
+  }
+
+  private static String message(int code) {
+    switch (code) {
+      case FlowControl.STATE_OUT_OF_PAPER:
+        return "out of paper";
+      case FlowControl.STATE_OVERHEATED:
+        return "print head overheated";
+      case FlowControl.STATE_NO_PRINTER:
+        return "printer disconnected";
+      default:
+        return "printer error " + code;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.sunmiinbuiltprinter;
+
+import com.sunmi.peripheral.printer.WoyouConsts;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StyleStateTest {
+
+  @Test
+  public void skipsOnlyValuesThePrinterAlreadyHas() {
+    final StyleState style = new StyleState();
+    assertTrue(style.update(StyleState.FONT_SIZE, 24f));
+    assertFalse(style.update(StyleState.FONT_SIZE, 24f));
+    assertTrue(style.update(StyleState.FONT_SIZE, 30f));
+    // every key keeps its own value
+    assertTrue(style.update(StyleState.ALIGNMENT, 1));
+    assertFalse(style.update(StyleState.FONT_SIZE, 30f));
+  }
+
+  @Test
+  public void forgetsTheValueOfAFailedCall() {
+    final StyleState style = new StyleState();
+    style.update(StyleState.ALIGNMENT, 1);
+    style.update(StyleState.FONT_SIZE, 24f);
+    style.forget(StyleState.ALIGNMENT);
+    assertTrue(style.update(StyleState.ALIGNMENT, 1));
+    assertFalse(style.update(StyleState.FONT_SIZE, 24f));
+  }
+
+  @Test
+  public void resetForgetsEverything() {
+    final StyleState style = new StyleState();
+    style.update(StyleState.ALIGNMENT, 1);
+    style.update(StyleState.TYPEFACE, "mono");
+    style.reset();
+    assertTrue(style.update(StyleState.ALIGNMENT, 1));
+    assertTrue(style.update(StyleState.TYPEFACE, "mono"));
+  }
+
+  @Test
+  public void eitherBoldSetterMakesTheOtherUnknown() {
+    final StyleState style = new StyleState();
+    style.update(StyleState.BOLD, true);
+    style.update(WoyouConsts.ENABLE_BOLD, WoyouConsts.DISABLE);
+    assertTrue(style.update(StyleState.BOLD, true));
+    assertTrue(style.update(WoyouConsts.ENABLE_BOLD, WoyouConsts.DISABLE));
+  }
+}
@@ -0,0 +1,86 @@
+package com.sunmiinbuiltprinter;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TextEncoderTest {
+
+  @Test
+  public void encodesEachCodepageLikeTheCharset() {
+    final String[] texts = {"hello", "中文 receipt", "Grüße €5", "╔═╗ ½"};
+    for (String name : new String[]{"gb18030", "cp437", "cp1252", "cp858"}) {
+      final Charset charset = TextEncoder.codepage(name).charset();
+      final TextEncoder encoder = new TextEncoder(charset);
+      for (String text : texts) {
+        final byte[] expected = text.getBytes(charset);
+        assertArrayEquals(name + " " + text, expected, encode(encoder, text));
+      }
+    }
+  }
+
+  @Test
+  public void replacesUnmappableCharacters() {
+    final TextEncoder encoder = new TextEncoder(TextEncoder.codepage("cp437").charset());
+    assertArrayEquals(new byte[]{'a', '?', 'b'}, encode(encoder, "a中b"));
+    // a lone surrogate is malformed input
+    assertArrayEquals(new byte[]{'a', '?'}, encode(encoder, "a\uD800"));
+  }
+
+  @Test
+  public void switchesCharsets() {
+    final TextEncoder encoder = new TextEncoder(TextEncoder.GB18030.charset());
+    final Charset cp1252 = TextEncoder.codepage("cp1252").charset();
+    assertSame(cp1252, encoder.charset(cp1252).charset());
+    assertArrayEquals(new byte[]{(byte) 0x80}, encode(encoder, "€"));
+    encoder.charset(TextEncoder.GB18030.charset());
+    assertArrayEquals("€".getBytes(TextEncoder.GB18030.charset()), encode(encoder, "€"));
+  }
+
+  @Test
+  public void writesAtAnOffset() {
+    final TextEncoder encoder = new TextEncoder(TextEncoder.GB18030.charset());
+    final byte[] buffer = new byte[3 + encoder.maxBytes(2)];
+    final int end = encoder.encode("中文", buffer, 3);
+    assertEquals(7, end);
+    assertArrayEquals("中文".getBytes(TextEncoder.GB18030.charset()), Arrays.copyOfRange(buffer, 3, end));
+    assertEquals(5, encoder.encode("ab", buffer, 3));
+  }
+
+  @Test
+  public void growsForLongText() {
+    final StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      text.append('é');
+    }
+    final TextEncoder encoder = new TextEncoder(TextEncoder.codepage("cp1252").charset());
+    assertArrayEquals(text.toString().getBytes(encoder.charset()), encode(encoder, text.toString()));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failsWhenTheBufferIsTooSmall() {
+    final TextEncoder encoder = new TextEncoder(TextEncoder.GB18030.charset());
+    encoder.encode("中文", new byte[3], 0);
+  }
+
+  @Test
+  public void looksUpCodepagesByName() {
+    assertSame(TextEncoder.GB18030, TextEncoder.codepage("GB18030"));
+    assertArrayEquals(new byte[]{ESCUtil.FS, '.', ESCUtil.ESC, 't', 16}, TextEncoder.codepage("cp1252").select);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownCodepages() {
+    TextEncoder.codepage("cp999");
+  }
+
+  private static byte[] encode(TextEncoder encoder, String text) {
+    final byte[] buffer = new byte[encoder.maxBytes(text.length())];
+    return Arrays.copyOf(buffer, encoder.encode(text, buffer, 0));
+  }
+}
@@ -5,7 +5,7 @@ import InbuiltPrinter,  {AlignValue, Template1, CardTemplate1} from 'react-nativ
 
 export default function App() {
 
-  const _temp1 = () => {
+  const _temp1 = async () => {
     // Template1
     const template1 = new Template1("My Store", "Store address, no 123", "+1234567890");
     template1.data = "31/03/2023";
@@ -17,17 +17,17 @@ export default function App() {
     template1.addItem("Item 1", 1, 10, 0); //name, qty, price, tax
     template1.addItem("Item 2", 1, 10, 10);
     template1.addItem("Item 3", 1, 10, 12);
-    template1.printTemplate();
+    await template1.printTemplate();
 
     //card payment template1
     const cardTemplate = new CardTemplate1("108.0", "17969", "************0119", "Test User", "MASTERCARD", "CREDIT", "CHIP_ENTRY");
-    cardTemplate.printTemplate();
+    await cardTemplate.printTemplate();
 
     //thank you message
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.printerText('Thank you for shopping with us\n');
-    InbuiltPrinter.printerText('------------------------------\n');
-    InbuiltPrinter.cutPaper();
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.printerText('Thank you for shopping with us\n');
+    await InbuiltPrinter.printerText('------------------------------\n');
+    await InbuiltPrinter.cutPaper();
   }
 
   const _pritnerTest = () => {
@@ -59,7 +59,7 @@ export default function App() {
       </TouchableOpacity>
 
       <TouchableOpacity style={{ ...styles.button, marginTop: 10 }} 
-        onPress={_temp1}>
+        onPress={() => _temp1().catch((e) => Alert.alert("Print failed", e.message))}>
         <Text style={styles.buttonText}>Template 1</Text>
       </TouchableOpacity>
 
@@ -0,0 +1,102 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+/**
+ * Codegen spec of the native module, used when the new architecture is enabled.
+ * Maps and lists are typed loosely here, src/index.tsx exposes the typed API on top of it.
+ * Binary data is passed as base64 strings like on the old architecture, the spec has no ArrayBuffer arguments.
+ * printBitmapCustom takes a native Bitmap and is not part of the spec.
+ */
+export interface Spec extends TurboModule {
+  // connection, status events, queue and metrics
+  getConnectionState(): Promise<string>;
+  getConnectionStateSync(): string;
+  awaitReady(timeoutMs: number): Promise<boolean>;
+  addListener(eventName: string): void;
+  removeListeners(count: number): void;
+  setStatusMonitorOptions(options: Object): Promise<number>;
+  getPrinterMetrics(): Promise<Object>;
+  resetPrinterMetrics(): Promise<Object>;
+  setQueueOptions(options: Object): Promise<number>;
+  getQueueDepth(): Promise<number>;
+  getQueueDepthSync(): number;
+  setFlowControlOptions(options: Object): Promise<number>;
+  getFlowControlState(): Promise<Object>;
+
+  multiply(a: number, b: number): Promise<number>;
+
+  // printer service
+  printerInit(): Promise<number>;
+  printerSelfChecking(): Promise<number>;
+  getPrinterSerialNo(): Promise<string>;
+  getPrinterVersion(): Promise<string>;
+  getPrinterModal(): Promise<string>;
+  getPrinterPaper(): Promise<number>;
+  updatePrinterState(): Promise<number>;
+  getServiceVersion(): Promise<string>;
+  getPrintedLength(): Promise<string>;
+  hasPrinter(): Promise<boolean>;
+  hasPrinterSync(): boolean;
+  sendRAWData(base64Data: string): Promise<number>;
+  sendRAWDataChunked(base64Data: string, chunkSize: number): Promise<number>;
+  sendRAWFile(path: string, chunkSize: number): Promise<number>;
+  printRawText(text: string, codepage?: string): Promise<number>;
+  setFontName(typeface: string): Promise<number>;
+  setPrinterStyle(key: number, value: number): Promise<number>;
+  setAlignment(alignment: number): Promise<number>;
+  setFontSize(fontSize: number): Promise<number>;
+  setFontWeight(isWeight: boolean): Promise<number>;
+  printerText(text: string): Promise<number>;
+  printTextWithFont(text: string, typeface: string, fontsize: number): Promise<number>;
+  printOriginalText(text: string): Promise<number>;
+  printColumnsString(
+    colsTextArr: Array<string>,
+    colsWidthArr: Array<number>,
+    colsAlign: Array<number>
+  ): Promise<number>;
+  printTable(columns: Array<Object>, rows: Array<Array<string>>): Promise<number>;
+  printBitmap(encodedString: string, pixelWidth: number): Promise<number>;
+  printBitmapImage(encodedString: string, w: number, h: number, newLine: boolean): Promise<number>;
+  printRasterImage(encodedString: string, pixelWidth: number, dither?: string): Promise<number>;
+  printTallImage(source: string, pixelWidth: number, dither?: string): Promise<number>;
+  registerImage(key: string, encodedString: string, pixelWidth: number, dither?: string): Promise<Object>;
+  printRegisteredImage(key: string): Promise<number>;
+  unregisterImage(key: string): Promise<number>;
+  setImageCacheSize(maxBytes: number): Promise<number>;
+  printBarCode(
+    data: string,
+    symbology: number,
+    height: number,
+    width: number,
+    textPosition: number
+  ): Promise<number>;
+  printQRCode(data: string, modulesize: number, errorlevel: number): Promise<number>;
+  print2DCode(data: string, symbology: number, modulesize: number, errorlevel: number): Promise<number>;
+  enterPrinterBuffer(clear: boolean): Promise<number>;
+  exitPrinterBuffer(commit: boolean): Promise<number>;
+  commitPrinterBuffer(): Promise<number>;
+  commitPrinterBufferWithCallbacka(): Promise<number>;
+  printReceipt(ops: Array<Object>): Promise<number>;
+  printEscPos(ops: Array<Object>): Promise<number>;
+  printRenderedReceipt(ops: Array<Object>, pixelWidth: number): Promise<number>;
+  scheduleReceipt(ops: Array<Object>, options: Object): Promise<number>;
+  cancelJob(id: string): Promise<boolean>;
+  commitPrint(segments: Array<Object>): Promise<number>;
+  printCopies(jobId: string | null, copies: number): Promise<number>;
+  reprint(jobId: string | null): Promise<number>;
+  setJobCacheSize(maxBytes: number): Promise<number>;
+  registerTemplate(id: string, ops: Array<Object>): Promise<Object>;
+  printTemplate(id: string, data: Object): Promise<number>;
+  unregisterTemplate(id: string): Promise<number>;
+  spoolRAWData(key: string, base64Data: string): Promise<string>;
+  spoolEscPos(key: string, ops: Array<Object>): Promise<string>;
+  getSpool(): Promise<Object>;
+  retrySpool(): Promise<number>;
+  discardSpooled(key: string): Promise<number>;
+  lineWrap(n: number): Promise<number>;
+  cutPaper(): Promise<number>;
+  openDrawer(): Promise<number>;
+  getDrawerStatus(): Promise<boolean>;
+}
+
+export default TurboModuleRegistry.getEnforcing<Spec>('SunmiInbuiltPrinter');
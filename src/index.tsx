@@ -1,15 +1,35 @@
-import { NativeModules } from 'react-native';
+import { NativeEventEmitter, NativeModules } from 'react-native';
+import type { EmitterSubscription } from 'react-native';
 
-const InbuiltPrinter = NativeModules.SunmiInbuiltPrinter;
+// @ts-expect-error __turboModuleProxy is only set by the new architecture
+const isTurboModuleEnabled = global.__turboModuleProxy != null;
+
+const InbuiltPrinter = isTurboModuleEnabled
+  ? require('./NativeSunmiInbuiltPrinter').default
+  : NativeModules.SunmiInbuiltPrinter;
 
 export function multiply(a: number, b: number): Promise<number> {
   return InbuiltPrinter.multiply(a, b);
 }
 
-export function printLine(blod: boolean, size: number): void {
-  InbuiltPrinter.setFontSize(size);
-  InbuiltPrinter.setFontWeight(blod);
-  InbuiltPrinter.printerText('───────────────────────────────────────────────\n');
+const statusEmitter = new NativeEventEmitter(InbuiltPrinter);
+
+/**
+ * Listen for printer and cash drawer state changes
+ * The native module watches the printer while there is a listener and only calls back when the state changes,
+ * once right away with the current state.
+ * @param listener
+ */
+export function addPrinterStatusListener(
+  listener: (status: PrinterStatus) => void,
+): EmitterSubscription {
+  return statusEmitter.addListener('SunmiPrinterStatusChanged', listener);
+}
+
+export async function printLine(blod: boolean, size: number): Promise<void> {
+  await InbuiltPrinter.setFontSize(size);
+  await InbuiltPrinter.setFontWeight(blod);
+  await InbuiltPrinter.printerText('───────────────────────────────────────────────\n');
 }
 
 export enum PrinterStyleKey {
@@ -54,6 +74,213 @@ export enum AlignValue {
   RIGHT = 2,
 }
 
+export type QueueOptions = {
+  // maximum number of calls waiting on the print queue
+  capacity?: number;
+  // what happens to a call while the queue is full
+  policy?: 'reject' | 'wait';
+  // how long 'wait' holds a call back before rejecting it with QUEUE_FULL
+  waitTimeoutMs?: number;
+};
+
+export type ConnectionState = 'connected' | 'connecting' | 'disconnected';
+
+export type PrinterStatus = {
+  // raw updatePrinterState value, 0 while the printer service is not bound
+  state: number;
+  status:
+    | 'disconnected'
+    | 'normal'
+    | 'preparing'
+    | 'communicationError'
+    | 'outOfPaper'
+    | 'overheated'
+    | 'coverOpen'
+    | 'cutterError'
+    | 'cutterRecovered'
+    | 'blackMarkNotFound'
+    | 'noPrinter'
+    | 'firmwareUpdateFailed'
+    | 'unknown';
+  drawerOpen: boolean;
+};
+
+// latencies in milliseconds
+export type LatencyStats = {
+  count: number;
+  mean: number;
+  p50: number;
+  p90: number;
+  p99: number;
+  max: number;
+};
+
+export type OperationMetrics = {
+  calls: number;
+  errors: number;
+  // bytes sent to the printer as raw data
+  bytes: number;
+  // answered without calling the printer service, e.g. a setFontSize to the current size
+  skipped: number;
+  // from the JS call to the printer service call
+  queueMs: LatencyStats;
+  // from the printer service call to its result callback
+  callbackMs: LatencyStats;
+  // buffered prints only, from the result callback to the print result
+  printMs: LatencyStats;
+};
+
+export type PrinterMetrics = {
+  // epoch ms of the last reset
+  since: number;
+  queueDepth: number;
+  maxQueueDepth: number;
+  // error count per rejection code
+  errors: { [code: string]: number };
+  // keyed by native method name, e.g. printText
+  operations: { [operation: string]: OperationMetrics };
+};
+
+export type FlowControlOptions = {
+  // true by default, false turns flow control off again
+  enabled?: boolean;
+  // pause while more paper than this is sent but not printed yet (350)
+  highWaterMm?: number;
+  // resume once the backlog is below this (100)
+  lowWaterMm?: number;
+  // how often the printer state and printed length are checked while sending and paused (250)
+  pollIntervalMs?: number;
+  // a job paused longer than this is rejected with FLOW_PAUSE_TIMEOUT (120000)
+  maxPauseMs?: number;
+  // printed length unchanged this long with the printer ready counts as an empty buffer (1500)
+  idleMs?: number;
+  // mm/s assumed for printers that do not report their printed length (70)
+  paperSpeed?: number;
+  // print density and speed (GS ( K) sent after an overheat, left alone if not given
+  coolDensity?: number;
+  coolSpeed?: number;
+  // sent coolDownMs after the last overheat (60000)
+  normalDensity?: number;
+  normalSpeed?: number;
+  coolDownMs?: number;
+};
+
+export type FlowControlState = {
+  enabled: boolean;
+  paused: boolean;
+  reason: 'overheated' | 'bufferFull' | null;
+  // paper sent but not printed yet, estimated from the ESC/POS data
+  backlogMm: number;
+  pauses: number;
+  pausedMs: number;
+  timeouts: number;
+};
+
+export type StatusMonitorOptions = {
+  // poll interval right after a change and while the printer is not ready
+  minIntervalMs?: number;
+  // poll interval the monitor backs off to while nothing changes
+  maxIntervalMs?: number;
+};
+
+// how images are reduced to black and white dots
+export type Dither = 'threshold' | 'ordered' | 'floydSteinberg';
+
+export type RegisteredImage = {
+  key: string;
+  width: number;
+  height: number;
+  // size of the packed 1-bit image held in the image cache
+  bytes: number;
+};
+
+export type Codepage =
+  | 'gb18030'
+  | 'cp437'
+  | 'cp737'
+  | 'cp850'
+  | 'cp852'
+  | 'cp857'
+  | 'cp858'
+  | 'cp860'
+  | 'cp863'
+  | 'cp865'
+  | 'cp866'
+  | 'cp1252';
+
+export type ReceiptOp =
+  | { type: 'text'; text: string }
+  | { type: 'textWithFont'; text: string; typeface: string; fontSize: number }
+  | { type: 'originalText'; text: string }
+  | { type: 'align'; value: AlignValue }
+  | { type: 'fontSize'; value: number }
+  | { type: 'fontName'; value: string }
+  | { type: 'bold'; value: boolean }
+  | { type: 'style'; key: PrinterStyleKey; value: PrinterStyleValue | number }
+  | { type: 'columns'; texts: string[]; widths: number[]; aligns: AlignValue[] }
+  | { type: 'table'; columns: TableColumn[]; rows: TableCell[][]; gap?: number }
+  | { type: 'lineWrap'; lines?: number }
+  | { type: 'bitmap'; data: string; width: number }
+  | { type: 'rasterImage'; data: string; width: number; dither?: Dither }
+  | { type: 'registeredImage'; key: string }
+  | { type: 'barCode'; data: string; symbology: number; height: number; width: number; textPosition: number }
+  | { type: 'qrCode'; data: string; moduleSize: number; errorLevel: number }
+  | { type: 'raw'; data: string }
+  | { type: 'codepage'; value: Codepage }
+  | { type: 'cut' }
+  | { type: 'openDrawer' };
+
+export type TransactionSegment =
+  | { type: 'text'; text: string }
+  | { type: 'raw'; data: string }
+  | { type: 'image'; key: string }
+  | { type: 'style'; align?: AlignValue; bold?: boolean; width?: number; height?: number };
+
+export type TableColumn = {
+  // weight of the column, like the widths of printColumnsString
+  width?: number;
+  align?: AlignValue;
+  // what happens to a cell that does not fit, 'wrap' by default
+  overflow?: 'wrap' | 'truncate' | 'ellipsis';
+};
+
+export type TableCell = string | number | boolean | null;
+
+export type JobOptions = {
+  // to cancel the job by, unique among the waiting jobs
+  id?: string;
+  priority?: 'high' | 'normal' | 'low';
+  deadlineMs?: number;
+};
+
+// printEscPos operations plus 'each', strings may contain {{field}} placeholders
+export type TemplateOp = ReceiptOp | { type: 'each'; field: string; ops: TemplateOp[] };
+
+export type TemplateData = {
+  [field: string]: string | number | boolean | TemplateData[];
+};
+
+export type RegisteredTemplate = {
+  id: string;
+  // pre-encoded ESC/POS segments and their total size
+  segments: number;
+  staticBytes: number;
+};
+
+// 'printed' once the printer confirmed the job, or the key was seen before
+export type SpoolResult = 'printed' | 'alreadySpooled' | 'alreadyPrinted';
+
+export type SpoolState = {
+  pending: {
+    key: string;
+    bytes: number;
+    spooledAt: number;
+    // on the print queue right now, otherwise waiting for retrySpool or the next start
+    queued: boolean;
+  }[];
+  journalBytes: number;
+};
+
 type InbuiltPrinterType = {
   multiply(a: number, b: number): Promise<number>;
 
@@ -61,12 +288,12 @@ type InbuiltPrinterType = {
    * Initialize the printer, reset the printing logic program, but do not clear the buffer data
    * so Unfinished print jobs will continue after reset
    */
-  printerInit: () => void;
+  printerInit: () => Promise<number>;
   
   /**
    * self checking
    */
-  printerSelfChecking: () => void;
+  printerSelfChecking: () => Promise<number>;
 
   /**
    * Get printer serial number
@@ -107,35 +334,62 @@ type InbuiltPrinterType = {
    * At present, the print length since power-on can be obtained. Due to the hardware difference between the desktop computer and the mobile phone, the return of the print result is slightly different.
    * Different, that is, the mobile phone obtains the printing length through the ICallback callback interface, and the desktop directly obtains the length through the return value.
    */
-  getPrintedLength: () => void;
+  getPrintedLength: () => Promise<string>;
 
   /**
    * Is there a printer service
    */
   hasPrinter: () => Promise<boolean>;
 
+  /**
+   * Synchronous hasPrinter, answered from the cached connection state
+   */
+  hasPrinterSync: () => boolean;
+
   /**
    * Print ESC/POS format instructions
    * data byte[]
    */
-  sendRAWData: (data: string) => void;
+  sendRAWData: (data: string) => Promise<number>;
+
+  /**
+   * Send raw ESC/POS data in chunks, decoding the base64 string one chunk at a time
+   * Use it for long reports, each chunk is a separate binder transaction and at most two are in flight.
+   * @param data base64 or data URI
+   * @param chunkSize bytes per chunk, 0 for the default of 16KB
+   */
+  sendRAWDataChunked: (data: string, chunkSize: number) => Promise<number>;
+
+  /**
+   * Send raw ESC/POS data from a file in chunks
+   * @param path absolute path or file:// URI
+   * @param chunkSize bytes per chunk, 0 for the default of 16KB
+   */
+  sendRAWFile: (path: string, chunkSize: number) => Promise<number>;
+
+  /**
+   * Print plain text encoded natively to a printer code page, sent as one block of raw data
+   * @param text lines separated by '\n'
+   * @param codepage 'gb18030' by default, the printer is switched back to it afterwards
+   */
+  printRawText: (text: string, codepage?: Codepage) => Promise<number>;
 
   /**
    * Set custom font
    */
-  setFontName: (typeface: string) => void;
+  setFontName: (typeface: string) => Promise<number>;
 
   /**
    * @param key
    * @param value
    */
-  setPrinterStyle: (key: PrinterStyleKey, val: PrinterStyleValue | number) => void;
+  setPrinterStyle: (key: PrinterStyleKey, val: PrinterStyleValue | number) => Promise<number>;
 
   /**
    * Set alignment mode
    * Global method, affecting subsequent execution, canceling related settings when printer is initialized.
    */
-  setAlignment: (align: AlignValue) => void;
+  setAlignment: (align: AlignValue) => Promise<number>;
 
   /**
    * Set font size
@@ -145,13 +399,13 @@ type InbuiltPrinterType = {
    * so the typesetting formed by monospaced fonts may be disordered.
    * @param fontSize
    */
-  setFontSize: (size: number) => void;
+  setFontSize: (size: number) => Promise<number>;
 
   /**
    * Set bold
    * @param isWeight
    */
-  setFontWeight: (isWeight: boolean) => void;
+  setFontWeight: (isWeight: boolean) => Promise<number>;
 
   /**
    * Print text
@@ -159,7 +413,7 @@ type InbuiltPrinterType = {
    * please set before calling the printText method.
    * @param text
    */
-  printerText: (text: string) => void;
+  printerText: (text: string) => Promise<number>;
 
   /**
    * Print text with specified font and size
@@ -168,14 +422,14 @@ type InbuiltPrinterType = {
    * @param typeface
    * @param fontsize
    */
-  printTextWithFont: (text: string, typeface: string, fontsize: number) => void;
+  printTextWithFont: (text: string, typeface: string, fontsize: number) => Promise<number>;
 
   /**
    * Print vector text
    * The text is output in the original width of the vector text, that is, each character is not monospaced.
    * @param text
    */
-  printOriginalText: (text: string) => void;
+  printOriginalText: (text: string) => Promise<number>;
 
   /**
    * Print a row of a table
@@ -200,7 +454,7 @@ type InbuiltPrinterType = {
    * @param encodedString
    * @param pixelWidth
    */
-  printBitmap: (encodedString: string, pixelWidth: number) => void;
+  printBitmap: (encodedString: string, pixelWidth: number) => Promise<number>;
 
   /**
    * Print Bitmap image with specified width and height
@@ -209,7 +463,55 @@ type InbuiltPrinterType = {
    * @param height
    * @param newLine
    */
-  printBitmapImage: (encodedString: string, w: number, h: number, newline: boolean) => void;
+  printBitmapImage: (encodedString: string, w: number, h: number, newline: boolean) => Promise<number>;
+
+  /**
+   * Print an image as an ESC/POS raster bit image
+   * The image is dithered to 1 bit per dot natively and sent with sendRAWData, which is a fraction
+   * of the size of a full bitmap going to the printer service.
+   * @param encodedString base64 or data URI
+   * @param pixelWidth
+   * @param dither
+   */
+  printRasterImage: (encodedString: string, pixelWidth: number, dither: Dither) => Promise<number>;
+
+  /**
+   * Print an image of any height, e.g. a long rendered report or a signed delivery slip
+   * It is decoded natively in bands of 256 rows and printed as raster data, so it is not bound by the
+   * pixel limit of printBitmap and memory stays at about two bands.
+   * @param source content:// or file:// URI, absolute path, base64 or data URI
+   * @param pixelWidth
+   */
+  printTallImage: (source: string, pixelWidth: number, dither: Dither) => Promise<number>;
+
+  /**
+   * Register an image that is printed often (e.g. the store logo)
+   * It is decoded, scaled and dithered once and kept in the image cache,
+   * print it with printRegisteredImage(key) instead of sending it again.
+   * @param key
+   * @param encodedString base64 or data URI
+   * @param pixelWidth
+   * @param dither
+   */
+  registerImage: (key: string, encodedString: string, pixelWidth: number, dither: Dither) => Promise<RegisteredImage>;
+
+  /**
+   * Print an image registered with registerImage
+   * @param key
+   */
+  printRegisteredImage: (key: string) => Promise<number>;
+
+  /**
+   * Remove a registered image from the image cache
+   * @param key
+   */
+  unregisterImage: (key: string) => Promise<number>;
+
+  /**
+   * Set the byte budget of the image cache, least recently used images are evicted first
+   * @param maxBytes
+   */
+  setImageCacheSize: (maxBytes: number) => Promise<number>;
 
   /**
    * Print pictures(2)
@@ -218,7 +520,7 @@ type InbuiltPrinterType = {
    * @param bitmap
    * @param type
    */
-  printBitmapCustom: (bitmap: any, type: number) => void;
+  printBitmapCustom: (bitmap: any, type: number) => Promise<number>;
 
   /**
    * Print 1D barcode
@@ -228,7 +530,7 @@ type InbuiltPrinterType = {
    * @param width
    * @param textPosition
    */
-  printBarCode: (data: string, symbology: number, height: number, width: number, textPosition: number) => void;
+  printBarCode: (data: string, symbology: number, height: number, width: number, textPosition: number) => Promise<number>;
 
   /**
    * Print QR code
@@ -238,7 +540,7 @@ type InbuiltPrinterType = {
    * @param modulesize
    * @param errorlevel
    */
-  printQRCode: (data: string, modulesize: number, errorlevel: number) => void;
+  printQRCode: (data: string, modulesize: number, errorlevel: number) => Promise<number>;
 
   /**
    * Print 2D barcode
@@ -247,53 +549,228 @@ type InbuiltPrinterType = {
    * @param modulesize
    * @param errorlevel
    */
-  print2DCode: (data: string, sysmbology: number, modulesize: number, errorlevel: number) => void;
+  print2DCode: (data: string, sysmbology: number, modulesize: number, errorlevel: number) => Promise<number>;
 
   /**
    * Package transaction printing dedicated interface
-   * @param tranBean
+   * The segments are assembled into the service's transaction natively and printed with one call.
+   * @param segments text printed with the service fonts, raw ESC/POS, registered images and style changes
    */
-  commitPrint: (list: any) => void;
+  commitPrint: (segments: TransactionSegment[]) => Promise<number>;
 
   /**
    * Enter transaction mode
    * @param clear
    */
-  enterPrinterBuffer: (clear: boolean) => void;
+  enterPrinterBuffer: (clear: boolean) => Promise<number>;
 
   /**
    * Exit transaction mode
    * @param commit
    */
-  exitPrinterBuffer: (commit: boolean) => void;
+  exitPrinterBuffer: (commit: boolean) => Promise<number>;
 
   /**
    * Submit transaction print
    * Commits and prints everything in the transaction queue, and remains in transactional printing mode afterwards
    */
-  commitPrinterBuffer: () => void;
+  commitPrinterBuffer: () => Promise<number>;
 
   /**
    * Submit the transaction to print and call back the result
    */
-  commitPrinterBufferWithCallbacka: () => void;
+  commitPrinterBufferWithCallbacka: () => Promise<number>;
+
+  /**
+   * Print a whole receipt in one call
+   * The operations are decoded in one pass, executed inside a printer buffer and committed together,
+   * the promise resolves once the service reports the committed buffer as printed.
+   * @param ops
+   */
+  printReceipt: (ops: ReceiptOp[]) => Promise<number>;
+
+  /**
+   * Print a whole receipt as one block of ESC/POS commands
+   * The operations are encoded natively into a single byte buffer and sent with one sendRAWData call.
+   * Only operations with an ESC/POS equivalent are supported (no fonts or vector text), others are rejected
+   * before the receipt is queued. CODE128 barCode data without a code set ({A, {B or {C) prints in code set B,
+   * barCode data over 255 bytes rejects the receipt.
+   * @param ops
+   */
+  printEscPos: (ops: ReceiptOp[]) => Promise<number>;
+
+  /**
+   * Print a whole receipt as pre-rendered raster pages, laid out on a background thread right away
+   * Text, columns, tables and images are drawn natively and print the same on every model, barcodes,
+   * QR codes and raw data stay printer commands. 'style' operations only support bold.
+   * @param ops
+   * @param pixelWidth 384 for 58mm and 576 for 80mm paper
+   */
+  printRenderedReceipt: (ops: ReceiptOp[], pixelWidth: number) => Promise<number>;
+
+  /**
+   * printEscPos with a priority, an id to cancel it by and a deadline
+   * Waiting jobs run by priority, a 'high' receipt overtakes queued 'normal' and 'low' work at the next job
+   * boundary. A job that has not started deadlineMs after the call is rejected with DEADLINE_EXCEEDED.
+   * @param ops
+   * @param options
+   */
+  scheduleReceipt: (ops: ReceiptOp[], options: JobOptions) => Promise<number>;
+
+  /**
+   * Cancel a scheduled job that has not started yet, waiting for the printer service included, its promise is
+   * rejected with JOB_CANCELLED
+   * @param id
+   * @returns whether the job was still waiting
+   */
+  cancelJob: (id: string) => Promise<boolean>;
+
+  /**
+   * Print more copies of a receipt from its cached ESC/POS encoding, nothing is rebuilt or sent over the bridge
+   * Receipts of printEscPos, scheduleReceipt, printTemplate and printRenderedReceipt are cached, rejected with JOB_NOT_CACHED
+   * once evicted.
+   * @param jobId id given to scheduleReceipt, null for the last receipt
+   * @param copies
+   */
+  printCopies: (jobId: string | null, copies: number) => Promise<number>;
+
+  /**
+   * printCopies with one copy
+   * @param jobId id given to scheduleReceipt, null for the last receipt
+   */
+  reprint: (jobId: string | null) => Promise<number>;
+
+  /**
+   * Byte budget of the cached receipts, 1MB by default
+   */
+  setJobCacheSize: (maxBytes: number) => Promise<number>;
+
+  /**
+   * Print a whole table in one call
+   * The rows are laid out natively, CJK characters count as two columns, and are sent as one block of ESC/POS text.
+   * @param columns
+   * @param rows
+   */
+  printTable: (columns: TableColumn[], rows: TableCell[][]) => Promise<number>;
+
+  /**
+   * Compile a receipt layout once, everything without a {{field}} placeholder is encoded right away
+   * @param id
+   * @param ops
+   */
+  registerTemplate: (id: string, ops: TemplateOp[]) => Promise<RegisteredTemplate>;
+
+  /**
+   * Print a registered template, only the field values are sent over the bridge
+   * Rejects with TEMPLATE_NOT_REGISTERED for an unknown id.
+   * @param id
+   * @param data
+   */
+  printTemplate: (id: string, data: TemplateData) => Promise<number>;
+
+  unregisterTemplate: (id: string) => Promise<number>;
+
+  /**
+   * Print raw ESC/POS data through the durable spool
+   * The job is journaled on the device before it is queued and printed again after a crash until the
+   * printer confirmed it. A key that is already spooled or was printed is not printed a second time.
+   * @param key idempotency key, e.g. the order id
+   * @param data base64 or data URI
+   */
+  spoolRAWData: (key: string, data: string) => Promise<SpoolResult>;
+
+  /**
+   * printEscPos through the durable spool
+   * @param key idempotency key, e.g. the order id
+   * @param ops
+   */
+  spoolEscPos: (key: string, ops: ReceiptOp[]) => Promise<SpoolResult>;
+
+  /**
+   * Spooled jobs that were not printed yet
+   */
+  getSpool: () => Promise<SpoolState>;
+
+  /**
+   * Queue the spooled jobs that failed again, resolves how many were queued
+   */
+  retrySpool: () => Promise<number>;
+
+  /**
+   * Give up on a spooled job without printing it
+   * @param key
+   */
+  discardSpooled: (key: string) => Promise<number>;
+
+  /**
+   * Configure the print queue every printer call runs on
+   * When it is full calls are rejected with the code QUEUE_FULL, or with the 'wait' policy
+   * they are held back, in order, until there is room and rejected if none frees up within waitTimeoutMs.
+   * @param options
+   */
+  setQueueOptions: (options: QueueOptions) => Promise<number>;
+
+  /**
+   * Number of calls waiting on the print queue
+   */
+  getQueueDepth: () => Promise<number>;
+
+  /**
+   * Pace raw ESC/POS data by the printer state and printed length, so long reports pause while the
+   * printer overheats or falls behind and resume by themselves instead of failing
+   * @param options
+   */
+  setFlowControlOptions: (options: FlowControlOptions) => Promise<number>;
+
+  getFlowControlState: () => Promise<FlowControlState>;
+
+  getQueueDepthSync: () => number;
+
+  /**
+   * Latency histograms, error and byte counts per operation since the last reset
+   */
+  getPrinterMetrics: () => Promise<PrinterMetrics>;
+
+  /**
+   * Start the metrics over, resolves the metrics collected until now
+   */
+  resetPrinterMetrics: () => Promise<PrinterMetrics>;
+
+  /**
+   * State of the printer service binding
+   */
+  getConnectionState: () => Promise<ConnectionState>;
+
+  getConnectionStateSync: () => ConnectionState;
+
+  /**
+   * Resolves true once the printer service is bound, rejects with PRINTER_NOT_CONNECTED after timeoutMs
+   * @param timeoutMs
+   */
+  awaitReady: (timeoutMs: number) => Promise<boolean>;
+
+  /**
+   * Configure how often the status monitor behind addPrinterStatusListener polls
+   * @param options
+   */
+  setStatusMonitorOptions: (options: StatusMonitorOptions) => Promise<number>;
 
   /**
    * print n lines
    * @param n
    */
-  lineWrap: (num: number) => void;
+  lineWrap: (num: number) => Promise<number>;
 
   /**
    * cut paper
    * @throws RemoteException
    */
-  cutPaper: () => void;
+  cutPaper: () => Promise<number>;
 
   /**
    * open cash drawer
    */
-  openDrawer: () => void;
+  openDrawer: () => Promise<number>;
 
   /**
    * Cash drawer status
@@ -369,91 +846,90 @@ export class Template1 {
 
 
   //this method for print all template
-  printTemplate() {
-    InbuiltPrinter.printerInit();
+  async printTemplate(): Promise<void> {
+    await InbuiltPrinter.printerInit();
     
     //Store name
-    InbuiltPrinter.setFontSize(40);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.storeName + "\n");
+    await InbuiltPrinter.setFontSize(40);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.storeName + "\n");
     // InbuiltPrinter.lineWrap(1);
 
     //Store address
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.address + "\n");
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.address + "\n");
     // InbuiltPrinter.lineWrap(1);
 
     //Store phone number
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.phoneNumber + "\n");
-    InbuiltPrinter.lineWrap(1);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.phoneNumber + "\n");
+    await InbuiltPrinter.lineWrap(1);
 
     //date and time
     // if date and time is set then print it
     if (this.data != "" && this.time != "") {
-      InbuiltPrinter.setFontSize(24);
-      InbuiltPrinter.setFontWeight(false);
-      InbuiltPrinter.setAlignment(AlignValue.LEFT);
-      InbuiltPrinter.printerText("Date/Time: " + this.data + "  " + this.time + "\n");
-      InbuiltPrinter.lineWrap(1);
+      await InbuiltPrinter.setFontSize(24);
+      await InbuiltPrinter.setFontWeight(false);
+      await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+      await InbuiltPrinter.printerText("Date/Time: " + this.data + "  " + this.time + "\n");
+      await InbuiltPrinter.lineWrap(1);
     }
 
     //transaction number
     // if transaction number is set then print it
     if (this.transactionId != "") {
-      InbuiltPrinter.setFontSize(24);
-      InbuiltPrinter.setFontWeight(false);
-      InbuiltPrinter.setAlignment(AlignValue.LEFT);
-      InbuiltPrinter.printerText("Transaction Id: " + this.transactionId + "\n");
-      InbuiltPrinter.lineWrap(1);
+      await InbuiltPrinter.setFontSize(24);
+      await InbuiltPrinter.setFontWeight(false);
+      await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+      await InbuiltPrinter.printerText("Transaction Id: " + this.transactionId + "\n");
+      await InbuiltPrinter.lineWrap(1);
     }
 
     //Receipt type
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
     // InbuiltPrinter.printerText('PRE AUTHORIZED RECEIPT\n');
     // InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printerText('Customer copy\n');
-    InbuiltPrinter.lineWrap(1);
+    await InbuiltPrinter.printerText('Customer copy\n');
+    await InbuiltPrinter.lineWrap(1);
 
     //items column header
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['Description', 'Quantity', `Amount`],
       [120, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['-----------', '--------', `------`],
       [120, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
 
     //items
-    this.itemdetails.forEach((value) => {
-        InbuiltPrinter.printColumnsString(
-          [value[0].toString(), value[1].toString(), (value[1] * value[2]).toFixed(2)],
-          [120, 60, 60],
-          [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
-        );
-      }
-    );
+    for (const value of this.itemdetails) {
+      await InbuiltPrinter.printColumnsString(
+        [value[0].toString(), value[1].toString(), (value[1] * value[2]).toFixed(2)],
+        [120, 60, 60],
+        [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
+      );
+    }
 
     //subtotal and tax
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       [' ', ' ', `--------`],
       [120, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
 
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       [' ', 'Subtotal', this._calculateSubtotal().toFixed(2)],
       [120, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
@@ -462,16 +938,16 @@ export class Template1 {
     let tax = this._calculateTotal() - this._calculateSubtotal();
     // tax to tax.toFixed(2);
     
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       [' ', 'Tax', tax.toFixed(2)],
       [120, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
 
     //total
-    InbuiltPrinter.setFontSize(40);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(40);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.printColumnsString(
       [' ', 'Total', this._calculateTotal().toFixed(2)],
       [60, 60, 60],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
@@ -479,9 +955,9 @@ export class Template1 {
 
     //cash
     if(this.cash != 0) {
-      InbuiltPrinter.setFontSize(24);
-      InbuiltPrinter.setFontWeight(false);
-      InbuiltPrinter.printColumnsString(
+      await InbuiltPrinter.setFontSize(24);
+      await InbuiltPrinter.setFontWeight(false);
+      await InbuiltPrinter.printColumnsString(
         [' ', 'Cash $', this.cash.toFixed(2)],
         [120, 60, 60],
         [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
@@ -489,14 +965,14 @@ export class Template1 {
     }
     //change
     if(this.change != 0) {
-      InbuiltPrinter.setFontSize(24);
-      InbuiltPrinter.setFontWeight(false);
-      InbuiltPrinter.printColumnsString(
+      await InbuiltPrinter.setFontSize(24);
+      await InbuiltPrinter.setFontWeight(false);
+      await InbuiltPrinter.printColumnsString(
         [' ', 'Change $', this.change.toFixed(2)],
         [120, 60, 60],
         [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
       );
-      InbuiltPrinter.lineWrap(1);
+      await InbuiltPrinter.lineWrap(1);
     }
   }
 }
@@ -576,57 +1052,57 @@ export class Template2 {
     return this.grandTotal;
   }
   
-  printTemplate() {
-    InbuiltPrinter.printerInit();
+  async printTemplate(): Promise<void> {
+    await InbuiltPrinter.printerInit();
     
     //Store name
-    InbuiltPrinter.setFontSize(32);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.storeName + '\n');
+    await InbuiltPrinter.setFontSize(32);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.storeName + '\n');
 
     //Address line 1
-    InbuiltPrinter.setFontSize(32);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.add1 + '\n');
-    InbuiltPrinter.printerText(this.add2 + '\n');
-    InbuiltPrinter.printerText(this.add3 + '\n');
-    InbuiltPrinter.printerText(this.gstNumber + '\n');
-    InbuiltPrinter.printerText(this.phoneNumber + '\n');
-    InbuiltPrinter.lineWrap(1);
+    await InbuiltPrinter.setFontSize(32);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.add1 + '\n');
+    await InbuiltPrinter.printerText(this.add2 + '\n');
+    await InbuiltPrinter.printerText(this.add3 + '\n');
+    await InbuiltPrinter.printerText(this.gstNumber + '\n');
+    await InbuiltPrinter.printerText(this.phoneNumber + '\n');
+    await InbuiltPrinter.lineWrap(1);
 
     //Invoice No
-    InbuiltPrinter.setFontSize(32);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.invoiceNumber + '\n');
+    await InbuiltPrinter.setFontSize(32);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.invoiceNumber + '\n');
 
     //2 column
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['  ' + 'Token No.:' + this.tokenNumber, 'Date: ' +this.date+ '  '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['  ' + 'Cashier:2022', 'Time:' +this.time+ '  '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['  ' + 'Table No:' + this.tableNumber, ''],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
 
     //items header
-    printLine(true, 24);
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
+    await printLine(true, 24);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
     //5 column
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['Item', 'Qty', 'Rate', 'Disc', 'Value'],
       [48, 20, 20, 20, 20],
       [AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER],
@@ -634,99 +1110,98 @@ export class Template2 {
 
 
     //items
-    printLine(true, 24);
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
+    await printLine(true, 24);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
     
-    this.itemdetails.forEach((value, key) => {
-      InbuiltPrinter.printColumnsString(
+    for (const [key, value] of this.itemdetails) {
+      await InbuiltPrinter.printColumnsString(
         ['  ' +key, value[0].toFixed(2), value[1].toFixed(2), value[2].toFixed(2), value[3].toFixed(2)],
         [48, 20, 20, 20, 20],
         [AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER, AlignValue.CENTER],
       );
     }
-    );
 
     //subtotal
-    printLine(true, 24);
-    InbuiltPrinter.setFontSize(22);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await printLine(true, 24);
+    await InbuiltPrinter.setFontSize(22);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'Subtotal:', this._calculateSubtotal().toFixed(2) + '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    printLine(true, 24);
+    await printLine(true, 24);
 
     //tax
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'CGST(2.5%)', this._calculateCGST().toFixed(2)+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'SGST(2.5%)', this._calculateSGST().toFixed(2)+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'SERVICE CHARGE 5%', this._calculateServiceCharge().toFixed(2)+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'Rounded Off(-)', '0.00'+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    printLine(true, 24);
+    await printLine(true, 24);
 
     //total
-    InbuiltPrinter.setFontSize(26);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(26);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'Grand Total:', this._calculateTotal().toFixed(2)+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.CENTER],
     );
     //cash tendered
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'Cash Tendered:', '0.00'+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
     //change
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['   ' + 'Change:', '0.00'+ '   '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.RIGHT],
     );
-    InbuiltPrinter.setFontSize(22);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.RIGHT);
-    InbuiltPrinter.printerText('**Reference Bill-Payment Awaited**    \n');
-
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    printLine(true, 24);
-    InbuiltPrinter.printerText(' \n');
-    printLine(true, 24);
+    await InbuiltPrinter.setFontSize(22);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.RIGHT);
+    await InbuiltPrinter.printerText('**Reference Bill-Payment Awaited**    \n');
+
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await printLine(true, 24);
+    await InbuiltPrinter.printerText(' \n');
+    await printLine(true, 24);
     
-    InbuiltPrinter.setFontSize(22);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText('**** Thank You - Visit Again ****\n');
-
-    printLine(true, 24);
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
-    InbuiltPrinter.printerText('   Printed On: ' + this.date + ' ' + this.time + '\n');
+    await InbuiltPrinter.setFontSize(22);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText('**** Thank You - Visit Again ****\n');
+
+    await printLine(true, 24);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.printerText('   Printed On: ' + this.date + ' ' + this.time + '\n');
   }
 } 
 
@@ -784,102 +1259,101 @@ export class Template3 {
   };
 
   //this method for print all template
-  printTemplate() {
-    InbuiltPrinter.printerInit();
+  async printTemplate(): Promise<void> {
+    await InbuiltPrinter.printerInit();
     
     //Store name
-    InbuiltPrinter.setFontSize(32);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.storeName + "\n");
+    await InbuiltPrinter.setFontSize(32);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.storeName + "\n");
     // InbuiltPrinter.lineWrap(1);
 
     //Store address
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText(this.add1 + "\n");
-    InbuiltPrinter.printerText(this.add2 + "\n");
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText(this.add1 + "\n");
+    await InbuiltPrinter.printerText(this.add2 + "\n");
     // InbuiltPrinter.printerText(this.add3 + "\n");
     // InbuiltPrinter.lineWrap(1);
 
     //line
-    printLine(false, 24);
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
-    InbuiltPrinter.printerText('  '+'Name:\n');
-    printLine(false, 24);
+    await printLine(false, 24);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.printerText('  '+'Name:\n');
+    await printLine(false, 24);
 
     //2column
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.printColumnsString(
       ['  '+'Date:'+this.date+' '+this.time, 'SELF SERVICE: A4'+ '  '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.LEFT],
     );
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.printColumnsString(
       ['  '+'Cashier: biller', 'Bill No:'+this.billNumber +'  '],
       [120, 120],
       [AlignValue.LEFT, AlignValue.LEFT],
     );
     
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
-    InbuiltPrinter.printerText('  '+'Token No.:'+this.tokenNumber+'\n');
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.printerText('  '+'Token No.:'+this.tokenNumber+'\n');
 
     //items column header
-    printLine(false, 24);
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await printLine(false, 24);
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['  '+'No.Items', 'Qty', 'Price', 'Amount'+ '  '],
       [80, 40, 40, 40],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
-    printLine(false, 24);
+    await printLine(false, 24);
 
     //items
-    this.itemdetails.forEach((value, key) => {
-      InbuiltPrinter.setFontSize(24);
-      InbuiltPrinter.setFontWeight(false);
-      InbuiltPrinter.printColumnsString(
+    for (const [key, value] of this.itemdetails) {
+      await InbuiltPrinter.setFontSize(24);
+      await InbuiltPrinter.setFontWeight(false);
+      await InbuiltPrinter.printColumnsString(
         ['  '+key, value[0].toString(), value[1].toFixed(2), (value[0] * value[1]).toFixed(2)+ '  '],
         [80, 40, 40, 40],
         [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT, AlignValue.RIGHT],
       );
     }
-    );
 
     
 
     //line
-    printLine(false, 24);
+    await printLine(false, 24);
     //subtotal
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['  '+'Total Qty:'+this._totalQnt().toString(), 'Sub Total', this._calculateSubtotal().toFixed(2)+'  '],
       [80, 80, 40],
       [AlignValue.LEFT, AlignValue.RIGHT, AlignValue.RIGHT],
     );
-    printLine(false, 24);
+    await printLine(false, 24);
 
     //total 
-    InbuiltPrinter.setFontSize(30);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.RIGHT);
-    InbuiltPrinter.printerText('Grand Total  ₹' + this._calculateSubtotal().toFixed(2) + '   \n');
-    printLine(false, 24);
+    await InbuiltPrinter.setFontSize(30);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.RIGHT);
+    await InbuiltPrinter.printerText('Grand Total  ₹' + this._calculateSubtotal().toFixed(2) + '   \n');
+    await printLine(false, 24);
 
     //thanks
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.CENTER);
-    InbuiltPrinter.printerText('Thank You | Please Order Us Again..!!\n');
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.CENTER);
+    await InbuiltPrinter.printerText('Thank You | Please Order Us Again..!!\n');
   }
 
 }
@@ -923,28 +1397,28 @@ export class CardTemplate1 {
   }
 
   //this method for print all template
-  printTemplate() {
+  async printTemplate(): Promise<void> {
     //Receipt type
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.setAlignment(AlignValue.LEFT);
-    InbuiltPrinter.printerText('CARD RECEIPT\n');
-    InbuiltPrinter.printerText('--------------\n');
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.setAlignment(AlignValue.LEFT);
+    await InbuiltPrinter.printerText('CARD RECEIPT\n');
+    await InbuiltPrinter.printerText('--------------\n');
 
     //------------------------------------------
     //card type and number
     //price and masked card number
-    InbuiltPrinter.setFontSize(24);
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontSize(24);
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.printColumnsString(
       ['USD $' + this.amount, this.cardNumber],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],
     );
 
     //Footer (card type/name )
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       [this.cardBrand, 'Acct/Card'],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],
@@ -953,16 +1427,16 @@ export class CardTemplate1 {
     // ------------------------------------------
 
     //Entry method, auth code, response code
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.printColumnsString(
       [this.cardEntryMode, this.txnId],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],
     );
     
     //footer
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['Entry Method', 'Txn ID'],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],
@@ -971,16 +1445,16 @@ export class CardTemplate1 {
     // ------------------------------------------
     
     //card holder name, card type
-    InbuiltPrinter.setFontWeight(true);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontWeight(true);
+    await InbuiltPrinter.printColumnsString(
       [this.cardHolderName, this.paymentType],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],
     );
 
     //footer
-    InbuiltPrinter.setFontWeight(false);
-    InbuiltPrinter.printColumnsString(
+    await InbuiltPrinter.setFontWeight(false);
+    await InbuiltPrinter.printColumnsString(
       ['Card Holder Name', 'Card Type'],
       [60, 80],
       [AlignValue.LEFT, AlignValue.LEFT],